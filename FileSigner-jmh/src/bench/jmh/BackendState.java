@@ -0,0 +1,40 @@
+package bench.jmh;
+import java.security.GeneralSecurityException;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import ui.CryptoBackend;
+
+/**
+ * Choix du backend cryptographique des mesures de signature : chaque mesure
+ * dclare les algorithmes et les courbes qu'elle utilise, qui sont routs vers
+ * le backend donn par le paramtre <code>backend</code> (platform, bc, sunec),
+ * ou vers le plus rapide pour chaque courbe (auto).
+ * Exemple : <code>-p backend=sunec</code>
+ */
+@State(Scope.Benchmark)
+public class BackendState {
+
+    @Param("platform")
+    public String backend;
+
+    @Setup(Level.Trial)
+    public void reset() {
+        CryptoBackend.reset();
+    }
+
+    /**
+     * Configuration du backend d'un algorithme de signature et des cls d'une courbe,
+     *  appeler par la prparation de la mesure
+     * @param algorithm l'algorithme de signature
+     * @param curve la courbe des cls
+     * @throws GeneralSecurityException si le backend ne fournit pas l'algorithme
+     */
+    public void configure(String algorithm, String curve) throws GeneralSecurityException {
+        CryptoBackend.configure(backend, algorithm, curve);
+    }
+}
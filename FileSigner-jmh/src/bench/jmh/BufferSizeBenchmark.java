@@ -0,0 +1,69 @@
+package bench.jmh;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.KeyPair;
+import java.security.Signature;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bench.SigningStressTest;
+import ui.ECSigner;
+
+/**
+ * Mesure de la signature d'un fichier lu par un FileChannel selon la taille
+ * du buffer direct de lecture
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferSizeBenchmark {
+
+    @Param({ "4096", "65536", "262144", "1048576" })
+    public int buffer;
+
+    @Param("16777216")
+    public int size;
+
+    private File file;
+    private KeyPair keyPair;
+    private Signature signature;
+    private ByteBuffer bytes;
+
+    @Setup
+    public void setUp() throws Exception {
+        file = SigningStressTest.createFiles(1, size).get(0);
+        keyPair = new ECSigner.ECKeyPairGenerator("P-256").getECKeyPair();
+        signature = Signature.getInstance("SHA256withECDSA");
+        bytes = ByteBuffer.allocateDirect(buffer);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public byte[] feedBuffer() throws Exception {
+        signature.initSign(keyPair.getPrivate());
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            bytes.clear();
+            while (channel.read(bytes) != -1) {
+                bytes.flip();
+                signature.update(bytes);
+                bytes.clear();
+            }
+        }
+        return signature.sign();
+    }
+}
@@ -0,0 +1,98 @@
+package bench.jmh;
+import java.io.File;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bench.SigningStressTest;
+import ui.CoSigner;
+import ui.DetachedSignature;
+import ui.ECSigner;
+
+/**
+ * Mesure de la cosignature d'un fichier par une cl P-256 et une cl P-384 :
+ * deux signatures successives (deux lectures du fichier), puis une seule
+ * lecture par {@link CoSigner}, squentielle ou rpartie sur plusieurs threads
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoSignBenchmark {
+
+    @Param("16777216")
+    public int size;
+
+    private File file;
+    private CoSigner sequential;
+    private CoSigner parallel;
+    private List<CoSigner.SigningKey> keys;
+    private ECSigner signer256;
+    private ECSigner signer384;
+    private PrivateKey key256;
+    private PrivateKey key384;
+    private List<DetachedSignature> bundle;
+    private List<PublicKey> publicKeys;
+
+    @Setup
+    public void setUp(BackendState backend) throws Exception {
+        backend.configure("SHA256withECDSA", "P-256");
+        backend.configure("SHA384withECDSA", "P-384");
+        file = SigningStressTest.createFiles(1, size).get(0);
+        sequential = new CoSigner(1);
+        parallel = new CoSigner(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        KeyPair p256 = new ECSigner.ECKeyPairGenerator("P-256").getECKeyPair();
+        KeyPair p384 = new ECSigner.ECKeyPairGenerator("P-384").getECKeyPair();
+        keys = Arrays.asList(
+                new CoSigner.SigningKey("SHA256withECDSA", p256.getPrivate(), DetachedSignature.keyId(p256.getPublic())),
+                new CoSigner.SigningKey("SHA384withECDSA", p384.getPrivate(), DetachedSignature.keyId(p384.getPublic())));
+        signer256 = new ECSigner("SHA256withECDSA");
+        signer384 = new ECSigner("SHA384withECDSA");
+        key256 = p256.getPrivate();
+        key384 = p384.getPrivate();
+        bundle = parallel.sign(file, keys);
+        publicKeys = Arrays.asList(p256.getPublic(), p384.getPublic());
+    }
+
+    @TearDown
+    public void tearDown() {
+        sequential.close();
+        parallel.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public byte[] separate() throws Exception {
+        signer256.sign(file, key256);
+        return signer384.sign(file, key384);
+    }
+
+    @Benchmark
+    public List<DetachedSignature> single() throws Exception {
+        return sequential.sign(file, keys);
+    }
+
+    @Benchmark
+    public List<DetachedSignature> parallel() throws Exception {
+        return parallel.sign(file, keys);
+    }
+
+    @Benchmark
+    public boolean verifyAll() throws Exception {
+        if (!parallel.verifyAll(file, bundle, publicKeys))
+            throw new IllegalStateException("Signature rejete");
+        return true;
+    }
+}
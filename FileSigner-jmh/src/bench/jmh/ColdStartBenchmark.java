@@ -0,0 +1,128 @@
+package bench.jmh;
+import java.awt.Toolkit;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.UIManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ui.DetachedSignature;
+import ui.ECSigner;
+import ui.KeyStoreTools;
+
+/**
+ * Mesure du temps de dmarrage  froid : chaque opration lance une nouvelle
+ * JVM qui signe un fichier, soit par l'interface en ligne de commande
+ * (<code>cli.FileSigner</code>), soit par le chemin de l'diteur graphique
+ * (classes Swing et AWT charges, provider BouncyCastle install d'emble).
+ * Le chemin graphique s'excute en mode headless : seule la cration de la
+ * fentre est omise. Le rsultat est la dure moyenne d'un lancement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ColdStartBenchmark {
+    private static final String ALIAS = "cold";
+    private static final String PASSWORD = "cold";
+
+    /**
+     * Signature d'un fichier en passant par le dmarrage de l'diteur graphique.
+     * Usage : GuiPath keystore alias motDePasse fichier
+     */
+    public static class GuiPath {
+        public static void main(String[] args) throws Exception {
+            // chargement des classes de l'diteur et initialisation de la bote  outils
+            Class.forName("ui.Editor");
+            UIManager.getLookAndFeel();
+            Toolkit.getDefaultToolkit();
+            // installation du provider telle que la faisait l'initialisation statique d'ECSigner
+            ECSigner.installProvider();
+            char[] password = args[2].toCharArray();
+            KeyStoreTools kst = new KeyStoreTools("JCEKS", new File(args[0]), password);
+            File file = new File(args[3]);
+            new ECSigner("SHA256withECDSA").signDetached(file, kst.getPrivateKey(args[1], password),
+                    DetachedSignature.keyId(kst.getCertificate(args[1]).getPublicKey()))
+                    .writeTo(new File(file.getPath() + ".sig"));
+        }
+    }
+
+    @Param({ "cli", "gui" })
+    public String path;
+
+    private File dir;
+    private File log;
+    private List<String> command;
+
+    @Setup
+    public void setUp() throws Exception {
+        dir = File.createTempFile("coldstart", "");
+        dir.delete();
+        dir.mkdir();
+        File store = new File(dir, "ks.jceks");
+        File file = new File(dir, "data.bin");
+        log = new File(dir, "child.log");
+        KeyStoreTools kst = KeyStoreTools.create("JCEKS", store, PASSWORD.toCharArray());
+        kst.importKeyPair(new ECSigner.ECKeyPairGenerator("P-256").getECKeyPair(), ALIAS,
+                PASSWORD.toCharArray(), 1);
+        kst.save(store, PASSWORD.toCharArray());
+        byte[] data = new byte[1024 * 1024];
+        new Random(1).nextBytes(data);
+        try (OutputStream os = new FileOutputStream(file)) {
+            os.write(data);
+        }
+
+        command = new ArrayList<>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("-Djava.awt.headless=true");
+        if (path.equals("cli"))
+            command.addAll(Arrays.asList("cli.FileSigner", "sign", "-keystore", store.getPath(),
+                    "-storetype", "JCEKS", "-storepass", PASSWORD, "-alias", ALIAS, file.getPath()));
+        else
+            command.addAll(Arrays.asList(GuiPath.class.getName(), store.getPath(), ALIAS, PASSWORD,
+                    file.getPath()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public int coldStart() throws Exception {
+        Process process = new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(Redirect.to(log)).start();
+        int status = process.waitFor();
+        if (status != 0)
+            throw new IOException("chec du lancement (code " + status + ") :\n"
+                    + new String(Files.readAllBytes(log.toPath())));
+        return status;
+    }
+}
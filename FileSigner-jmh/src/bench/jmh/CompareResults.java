@@ -0,0 +1,109 @@
+package bench.jmh;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Comparaison de deux fichiers de rsultats JMH au format CSV (options
+ * <code>-rf csv -rff fichier</code>) : les mesures dgrades de plus du seuil
+ * sont signales comme des rgressions, et le programme se termine alors avec
+ * le code 1. Un dbit (mode thrpt) se dgrade en baissant, une dure (autres
+ * modes) en augmentant.
+ * Usage : CompareResults reference.csv courant.csv [seuil en %, 10 par dfaut]
+ */
+public class CompareResults {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage : CompareResults reference.csv courant.csv [seuil %]");
+            System.exit(2);
+        }
+        Map<String, double[]> baseline = read(new File(args[0]));
+        Map<String, double[]> current = read(new File(args[1]));
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+
+        int regressions = 0;
+        System.out.println("mesure\treference\tcourant\tecart %");
+        for (Map.Entry<String, double[]> entry : current.entrySet()) {
+            double[] reference = baseline.get(entry.getKey());
+            if (reference == null || reference[0] == 0)
+                continue;
+            double score = entry.getValue()[0];
+            double change = (score - reference[0]) / reference[0] * 100;
+            // reference[1] vaut 1 si un score plus lev est meilleur
+            boolean regression = reference[1] > 0 ? change < -threshold : change > threshold;
+            if (regression)
+                regressions++;
+            System.out.printf("%s\t%.3f\t%.3f\t%+.1f%s%n", entry.getKey(), reference[0], score,
+                    change, regression ? "\tREGRESSION" : "");
+        }
+        System.out.println(regressions + " rgression(s) au-del de " + threshold + " %");
+        System.exit(regressions == 0 ? 0 : 1);
+    }
+
+    /**
+     * Lecture d'un fichier de rsultats : chaque mesure, identifie par son nom, son
+     * mode et ses paramtres, est associe  son score et au sens de ce score
+     */
+    private static Map<String, double[]> read(File file) throws IOException {
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        Map<String, double[]> results = new LinkedHashMap<>();
+        if (lines.isEmpty())
+            return results;
+        List<String> header = fields(lines.get(0));
+        int benchmark = header.indexOf("Benchmark");
+        int mode = header.indexOf("Mode");
+        int score = header.indexOf("Score");
+        if (benchmark < 0 || mode < 0 || score < 0)
+            throw new IOException("Fichier de rsultats JMH invalide : " + file);
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isEmpty())
+                continue;
+            List<String> values = fields(line);
+            StringBuilder key = new StringBuilder(values.get(benchmark)).append(' ').append(values.get(mode));
+            for (int i = 0; i < header.size(); i++) {
+                if (header.get(i).startsWith("Param: ") && i < values.size() && !values.get(i).isEmpty())
+                    key.append(' ').append(header.get(i).substring(7)).append('=').append(values.get(i));
+            }
+            double higherIsBetter = values.get(mode).equals("thrpt") ? 1 : 0;
+            results.put(key.toString(), new double[] { Double.parseDouble(values.get(score)), higherIsBetter });
+        }
+        return results;
+    }
+
+    /**
+     * Dcoupage d'une ligne CSV, les champs pouvant tre entre guillemets
+     */
+    private static List<String> fields(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
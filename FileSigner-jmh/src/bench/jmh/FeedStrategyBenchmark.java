@@ -0,0 +1,58 @@
+package bench.jmh;
+import java.io.File;
+import java.security.KeyPair;
+import java.security.Signature;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bench.SigningStressTest;
+import ui.ECSigner;
+import ui.FileFeeder;
+
+/**
+ * Mesure de la signature d'un fichier selon la stratgie de lecture de
+ * {@link FileFeeder}
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FeedStrategyBenchmark {
+
+    @Param
+    public FileFeeder.Strategy strategy;
+
+    @Param({ "1048576", "16777216" })
+    public int size;
+
+    private File file;
+    private KeyPair keyPair;
+    private Signature signature;
+
+    @Setup
+    public void setUp() throws Exception {
+        file = SigningStressTest.createFiles(1, size).get(0);
+        keyPair = new ECSigner.ECKeyPairGenerator("P-256").getECKeyPair();
+        signature = Signature.getInstance("SHA256withECDSA");
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public byte[] feedStrategy() throws Exception {
+        signature.initSign(keyPair.getPrivate());
+        FileFeeder.feed(file, FileFeeder.sink(signature), strategy);
+        return signature.sign();
+    }
+}
@@ -0,0 +1,63 @@
+package bench.jmh;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import ui.ECSigner;
+
+/**
+ * Mesure de la gnration de paires de cls EC selon la courbe.
+ * Le programme principal excute cette mesure et celles de
+ * {@link SigningBenchmark} pour toutes les courbes de
+ * {@link ECSigner.ECKeyPairGenerator#getCurvesNames()} ; il accepte les
+ * options habituelles de JMH.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyGenerationBenchmark {
+
+    @Param({ "P-256", "P-384", "P-521" })
+    public String curve;
+
+    private ECSigner.ECKeyPairGenerator generator;
+
+    @Setup
+    public void setUp(BackendState backend) throws Exception {
+        backend.configure("SHA256withECDSA", curve);
+        generator = new ECSigner.ECKeyPairGenerator(curve);
+    }
+
+    @Benchmark
+    public KeyPair keyGeneration() {
+        return generator.getECKeyPair();
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> curves = new ArrayList<>();
+        for (String curve : ECSigner.ECKeyPairGenerator.getCurvesNames().split("\n")) {
+            if (!curve.isEmpty())
+                curves.add(curve);
+        }
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(KeyGenerationBenchmark.class.getName() + "|" + SigningBenchmark.class.getName())
+                .param("curve", curves.toArray(new String[curves.size()]))
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,76 @@
+package bench.jmh;
+import java.io.File;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bench.KeyStoreStartupBenchmark;
+import ui.IndexedKeyStore;
+import ui.KeyStoreTools;
+
+/**
+ * Mesure du chargement, de la sauvegarde et du listage des certificats d'un
+ * keystore JCEKS ou index, contenant des certificats racines de la
+ * plate-forme et 10 cls secrtes
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyStoreBenchmark {
+    private static final char[] PASSWORD = "benchmark".toCharArray();
+
+    @Param({ "JCEKS", IndexedKeyStore.TYPE })
+    public String type;
+
+    @Param("1000")
+    public int certs;
+
+    private File file;
+    private File saved;
+    private KeyStoreTools kst;
+
+    @Setup
+    public void setUp() throws Exception {
+        File jceks = File.createTempFile("suite", ".jceks");
+        KeyStoreStartupBenchmark.createKeyStore(jceks, PASSWORD, certs, 10);
+        if (type.equals("JCEKS")) {
+            file = jceks;
+        } else {
+            file = File.createTempFile("suite", ".iks");
+            new KeyStoreTools("JCEKS", jceks, PASSWORD).export(type, file, PASSWORD, PASSWORD);
+            jceks.delete();
+        }
+        saved = File.createTempFile("suite", ".save");
+        kst = new KeyStoreTools(type, file, PASSWORD);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+        saved.delete();
+    }
+
+    @Benchmark
+    public KeyStoreTools load() throws Exception {
+        return new KeyStoreTools(type, file, PASSWORD);
+    }
+
+    @Benchmark
+    public long save() throws Exception {
+        kst.save(saved, PASSWORD);
+        return saved.length();
+    }
+
+    @Benchmark
+    public String listCertificates() throws Exception {
+        return kst.listCertificates();
+    }
+}
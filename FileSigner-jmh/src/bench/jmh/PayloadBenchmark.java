@@ -0,0 +1,81 @@
+package bench.jmh;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ui.ECSigner;
+
+/**
+ * Mesure de la signature de donnes en mmoire : passage par un fichier
+ * temporaire (ce que devaient faire les appelants avant les surcharges en
+ * mmoire), tableau, buffer direct, et condensat calcul en amont (seule
+ * l'tape ECDSA est alors mesure)
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadBenchmark {
+
+    @Param({ "1024", "1048576", "16777216" })
+    public int size;
+
+    private ECSigner signer;
+    private PrivateKey key;
+    private byte[] data;
+    private ByteBuffer direct;
+    private byte[] digest;
+
+    @Setup
+    public void setUp(BackendState backend) throws Exception {
+        backend.configure("SHA256withECDSA", "P-256");
+        signer = new ECSigner("SHA256withECDSA");
+        key = new ECSigner.ECKeyPairGenerator("P-256").getECKeyPair().getPrivate();
+        data = new byte[size];
+        new Random(size).nextBytes(data);
+        direct = ByteBuffer.allocateDirect(size);
+        direct.put(data).flip();
+        digest = MessageDigest.getInstance(signer.getDigestAlgorithm()).digest(data);
+    }
+
+    @Benchmark
+    public byte[] tempFile() throws Exception {
+        File tmp = File.createTempFile("payload", ".bin");
+        try {
+            try (FileOutputStream os = new FileOutputStream(tmp)) {
+                os.write(data);
+            }
+            return signer.sign(tmp, key);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    @Benchmark
+    public byte[] array() throws Exception {
+        return signer.sign(data, key);
+    }
+
+    @Benchmark
+    public byte[] direct() throws Exception {
+        direct.rewind();
+        return signer.sign(direct, key);
+    }
+
+    @Benchmark
+    public byte[] digest() throws Exception {
+        return signer.signDigest(digest, key);
+    }
+}
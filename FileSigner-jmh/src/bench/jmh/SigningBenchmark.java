@@ -0,0 +1,64 @@
+package bench.jmh;
+import java.io.File;
+import java.security.KeyPair;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bench.SigningStressTest;
+import ui.ECSigner;
+
+/**
+ * Mesure de la signature et de la vrification d'un fichier selon la courbe
+ * et la taille du fichier
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SigningBenchmark {
+
+    @Param({ "P-256", "P-384", "P-521" })
+    public String curve;
+
+    @Param({ "1024", "1048576", "16777216" })
+    public int size;
+
+    private ECSigner signer;
+    private KeyPair keyPair;
+    private File file;
+    private String tag;
+
+    @Setup
+    public void setUp(BackendState backend) throws Exception {
+        backend.configure("SHA256withECDSA", curve);
+        signer = new ECSigner("SHA256withECDSA");
+        keyPair = new ECSigner.ECKeyPairGenerator(curve).getECKeyPair();
+        file = SigningStressTest.createFiles(1, size).get(0);
+        tag = signer.signFile(file, keyPair.getPrivate());
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public String signFile() throws Exception {
+        return signer.signFile(file, keyPair.getPrivate());
+    }
+
+    @Benchmark
+    public boolean verifyFile() throws Exception {
+        if (!signer.verifyFile(file, keyPair.getPublic(), tag))
+            throw new IllegalStateException("Signature rejete");
+        return true;
+    }
+}
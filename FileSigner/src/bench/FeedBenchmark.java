@@ -0,0 +1,74 @@
+package bench;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.util.Random;
+
+import ui.ECSigner;
+import ui.FileFeeder;
+
+/**
+ * Comparaison des stratgies de lecture de {@link FileFeeder} : la boucle
+ * historique par flot (blocs de 1 Ko), le FileChannel  buffer direct et la
+ * projection en mmoire, pour un condensat seul et pour une signature ECDSA.
+ * Usage : FeedBenchmark [tailleFichierMo] [repetitions]
+ */
+public class FeedBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        File file = createFile(sizeMb);
+        try {
+            KeyPair keyPair = new ECSigner.ECKeyPairGenerator("P-256").getECKeyPair();
+            Signature signer = Signature.getInstance("SHA256withECDSA");
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+            System.out.println("strategy\tSHA-256 MB/s\tSHA256withECDSA MB/s");
+            for (FileFeeder.Strategy strategy : FileFeeder.Strategy.values()) {
+                // prchauffage
+                FileFeeder.feed(file, FileFeeder.sink(digest), strategy);
+                digest.reset();
+
+                long start = System.nanoTime();
+                for (int i = 0; i < runs; i++) {
+                    FileFeeder.feed(file, FileFeeder.sink(digest), strategy);
+                    digest.digest();
+                }
+                double digestRate = sizeMb * runs / ((System.nanoTime() - start) / 1e9);
+
+                start = System.nanoTime();
+                for (int i = 0; i < runs; i++) {
+                    signer.initSign(keyPair.getPrivate());
+                    FileFeeder.feed(file, FileFeeder.sink(signer), strategy);
+                    signer.sign();
+                }
+                double signRate = sizeMb * runs / ((System.nanoTime() - start) / 1e9);
+                System.out.printf("%s\t%.1f\t%.1f%n", strategy, digestRate, signRate);
+            }
+            System.out.println("Stratgie choisie pour cette taille : "
+                    + FileFeeder.Strategy.forSize(file.length()));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static File createFile(int sizeMb) throws IOException {
+        File file = File.createTempFile("feed", ".bin");
+        file.deleteOnExit();
+        byte[] block = new byte[1024 * 1024];
+        Random random = new Random(42);
+        try (OutputStream out = new FileOutputStream(file)) {
+            for (int i = 0; i < sizeMb; i++) {
+                random.nextBytes(block);
+                out.write(block);
+            }
+        }
+        return file;
+    }
+}
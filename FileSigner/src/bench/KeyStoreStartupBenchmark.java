@@ -0,0 +1,121 @@
+package bench;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import javax.crypto.KeyGenerator;
+
+import ui.IndexedKeyStore;
+import ui.KeyStoreTools;
+
+/**
+ * Comparaison du temps de dmarrage d'un keystore JCEKS et de sa conversion au
+ * format index : chargement du fichier puis accs  une cl et  un certificat.
+ * Le keystore de test est rempli avec les certificats racines du JDK, rpts
+ * sous des alias diffrents, et avec des cls secrtes AES.
+ * Usage : KeyStoreStartupBenchmark [certificats] [cls] [repetitions]
+ */
+public class KeyStoreStartupBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int certCount = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int keyCount = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        char[] passwd = "benchmark".toCharArray();
+
+        File jceks = File.createTempFile("startup", ".jceks");
+        File indexed = File.createTempFile("startup", ".iks");
+        jceks.deleteOnExit();
+        indexed.deleteOnExit();
+        try {
+            createKeyStore(jceks, passwd, certCount, keyCount);
+            long start = System.nanoTime();
+            int exported = new KeyStoreTools("JCEKS", jceks, passwd)
+                    .export(IndexedKeyStore.TYPE, indexed, passwd, passwd);
+            System.out.printf("Conversion de %d entres : %.1f ms%n", exported,
+                    (System.nanoTime() - start) / 1e6);
+            System.out.printf("Tailles : JCEKS %d octets, index %d octets%n",
+                    jceks.length(), indexed.length());
+
+            System.out.println("type\tmedian ms\tmin ms");
+            // prchauffage
+            measure("JCEKS", jceks, passwd, runs);
+            measure(IndexedKeyStore.TYPE, indexed, passwd, runs);
+            report("JCEKS", measure("JCEKS", jceks, passwd, runs));
+            report(IndexedKeyStore.TYPE, measure(IndexedKeyStore.TYPE, indexed, passwd, runs));
+        } finally {
+            jceks.delete();
+            indexed.delete();
+        }
+    }
+
+    private static long[] measure(String type, File file, char[] passwd, int runs) throws Exception {
+        long[] times = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            // mme chemin de chargement que le constructeur de KeyStoreTools
+            KeyStore ks;
+            if (IndexedKeyStore.TYPE.equals(type)) {
+                ks = IndexedKeyStore.load(file, passwd);
+            } else {
+                ks = KeyStore.getInstance(type);
+                try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+                    ks.load(in, passwd);
+                }
+            }
+            if (ks.getKey("key0", passwd) == null || ks.getCertificate("cert0") == null)
+                throw new IllegalStateException("Entre absente");
+            times[i] = System.nanoTime() - start;
+        }
+        return times;
+    }
+
+    private static void report(String type, long[] times) {
+        Arrays.sort(times);
+        System.out.printf("%s\t%.2f\t%.2f%n", type, times[times.length / 2] / 1e6, times[0] / 1e6);
+    }
+
+    /**
+     * Cration d'un keystore JCEKS contenant des certificats racines de la
+     * plate-forme et des cls secrtes AES
+     * @param file le fichier du keystore
+     * @param passwd le mot de passe du keystore et des cls
+     * @param certCount le nombre de certificats
+     * @param keyCount le nombre de cls secrtes
+     * @throws Exception si la cration choue
+     */
+    public static void createKeyStore(File file, char[] passwd, int certCount, int keyCount)
+            throws Exception {
+        List<Certificate> roots = new ArrayList<>();
+        KeyStore cacerts = KeyStore.getInstance(KeyStore.getDefaultType());
+        File cacertsFile = new File(System.getProperty("java.home"), "lib/security/cacerts");
+        try (InputStream in = new FileInputStream(cacertsFile)) {
+            cacerts.load(in, null);
+        }
+        for (Enumeration<String> aliases = cacerts.aliases(); aliases.hasMoreElements();) {
+            Certificate cert = cacerts.getCertificate(aliases.nextElement());
+            if (cert != null)
+                roots.add(cert);
+        }
+
+        KeyStore ks = KeyStore.getInstance("JCEKS");
+        ks.load(null, passwd);
+        for (int i = 0; i < certCount; i++)
+            ks.setCertificateEntry("cert" + i, roots.get(i % roots.size()));
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(128);
+        for (int i = 0; i < keyCount; i++)
+            ks.setKeyEntry("key" + i, generator.generateKey(), passwd, null);
+        try (OutputStream out = new FileOutputStream(file)) {
+            ks.store(out, passwd);
+        }
+    }
+}
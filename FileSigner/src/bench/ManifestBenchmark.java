@@ -0,0 +1,88 @@
+package bench;
+import java.io.File;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Base64;
+
+import ui.DetachedSignature;
+import ui.ECSigner;
+import ui.ManifestSigner;
+import ui.SignedManifest;
+import ui.SigningEngine;
+
+/**
+ * Comparaison d'une signature par fichier et d'un manifeste sign une seule
+ * fois : dbit de signature et de vrification de l'ensemble, dbit de
+ * vrification d'un fichier isol et taille totale des signatures.
+ * Usage : ManifestBenchmark [nombreFichiers] [tailleFichierKo] [threads]
+ */
+public class ManifestBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int fileCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int fileSize = (args.length > 1 ? Integer.parseInt(args[1]) : 4) * 1024;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        String algorithm = "SHA256withECDSA";
+
+        List<File> files = SigningStressTest.createFiles(fileCount, fileSize);
+        File root = files.get(0).getParentFile();
+        try (SigningEngine engine = new SigningEngine(algorithm, threads);
+                ManifestSigner manifestSigner = new ManifestSigner(algorithm, ManifestSigner.DEFAULT_HASH_ALGORITHM,
+                        threads)) {
+            KeyPair keyPair = new ECSigner.ECKeyPairGenerator("P-256").getECKeyPair();
+            PublicKey publicKey = keyPair.getPublic();
+            byte[] keyId = DetachedSignature.keyId(publicKey);
+            ECSigner signer = new ECSigner(algorithm);
+            // prchauffage de la JVM
+            engine.verifyAll(files, publicKey, engine.signAll(files, keyPair.getPrivate()));
+            manifestSigner.verify(root, publicKey, manifestSigner.sign(root, files, keyPair.getPrivate()));
+
+            System.out.println("mode\tsign files/s\tverify files/s\tverify one file/s\tsignature bytes");
+
+            long start = System.nanoTime();
+            List<String> tags = engine.signAll(files, keyPair.getPrivate());
+            double signRate = fileCount / ((System.nanoTime() - start) / 1e9);
+            start = System.nanoTime();
+            if (engine.verifyAll(files, publicKey, tags).contains(Boolean.FALSE))
+                throw new IllegalStateException("Signature rejete");
+            double verifyRate = fileCount / ((System.nanoTime() - start) / 1e9);
+            List<DetachedSignature> signatures = new ArrayList<>(fileCount);
+            long bytes = 0;
+            for (String tag : tags) {
+                DetachedSignature signature = new DetachedSignature(algorithm, keyId, Base64.decodeBase64(tag));
+                signatures.add(signature);
+                bytes += signature.getEncodedLength();
+            }
+            start = System.nanoTime();
+            for (int i = 0; i < fileCount; i++) {
+                if (!signer.verify(files.get(i), publicKey, signatures.get(i)))
+                    throw new IllegalStateException("Signature rejete : " + files.get(i));
+            }
+            double oneRate = fileCount / ((System.nanoTime() - start) / 1e9);
+            System.out.printf("perFile\t%.1f\t%.1f\t%.1f\t%d%n", signRate, verifyRate, oneRate, bytes);
+
+            start = System.nanoTime();
+            SignedManifest manifest = manifestSigner.sign(root, files, keyPair.getPrivate());
+            signRate = fileCount / ((System.nanoTime() - start) / 1e9);
+            start = System.nanoTime();
+            if (!manifestSigner.verify(root, publicKey, manifest))
+                throw new IllegalStateException("Manifeste rejet");
+            verifyRate = fileCount / ((System.nanoTime() - start) / 1e9);
+            // chaque vrification isole contrle aussi la signature du manifeste
+            start = System.nanoTime();
+            for (File file : files) {
+                if (!manifestSigner.verifyFile(root, file, publicKey, manifest))
+                    throw new IllegalStateException("Fichier rejet : " + file);
+            }
+            oneRate = fileCount / ((System.nanoTime() - start) / 1e9);
+            System.out.printf("manifest\t%.1f\t%.1f\t%.1f\t%d%n", signRate, verifyRate, oneRate,
+                    manifest.getEncoded().length);
+        } finally {
+            for (File file : files)
+                file.delete();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package bench;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.security.SecureRandom;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ui.ECSigner;
+import ui.KeyStoreTools;
+import ui.SigningClient;
+import ui.SigningService;
+
+/**
+ * Gnrateur de charge du service local de signature : N clients, chacun sur
+ * sa connexion, enchanent les demandes pendant la dure donne ; le dbit et
+ * les centiles de latence vus par les clients sont affichs, calculs sur
+ * toutes les dures mesures, tries.
+ * Sans option -p, le service est lanc dans le processus avec une cl P-256
+ * gnre dans un keystore temporaire ; avec -p, le jeton d'accs du service
+ * est lu dans le fichier de l'option -t.
+ * Usage : SigningLoadGenerator [-c clients] [-d secondes] [-w secondes]
+ * [-s tailleDonnes] [-p port -t fichierJeton -a alias]
+ * (une taille nulle, par dfaut, envoie des condensats SHA-256)
+ */
+public class SigningLoadGenerator {
+    private static final String ALIAS = "load";
+    private static final char[] PASSWORD = "load".toCharArray();
+
+    public static void main(String[] args) throws Exception {
+        int clients = Integer.parseInt(option(args, "-c", "16"));
+        int seconds = Integer.parseInt(option(args, "-d", "10"));
+        int warmup = Integer.parseInt(option(args, "-w", "2"));
+        int size = Integer.parseInt(option(args, "-s", "0"));
+        String port = option(args, "-p", null);
+        String alias = option(args, "-a", ALIAS);
+
+        SigningService service = null;
+        File store = null;
+        byte[] token;
+        try {
+            if (port == null) {
+                store = File.createTempFile("load", ".jceks");
+                store.delete();
+                token = new byte[SigningService.TOKEN_LENGTH];
+                new SecureRandom().nextBytes(token);
+                service = startService(store, token, clients);
+                port = String.valueOf(service.getPort());
+            } else {
+                String tokenFile = option(args, "-t", null);
+                if (tokenFile == null)
+                    throw new IllegalArgumentException("L'option -p ncessite l'option -t");
+                token = SigningService.readToken(new File(tokenFile));
+            }
+            int p = Integer.parseInt(port);
+            byte[] payload = new byte[size];
+            new Random(1).nextBytes(payload);
+            check(p, token, alias, payload);
+
+            run(p, token, alias, payload, clients, warmup);
+            long[] latencies = run(p, token, alias, payload, clients, seconds);
+            System.out.printf("%d clients, %s : %.1f demandes/s, p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms%n",
+                    clients, size == 0 ? "condensats" : size + " octets", latencies.length / (double)seconds,
+                    quantile(latencies, 0.5) / 1e6, quantile(latencies, 0.99) / 1e6,
+                    quantile(latencies, 0.999) / 1e6, quantile(latencies, 1) / 1e6);
+            if (service != null)
+                System.out.printf("service : %d demandes en %d lots (%.2f par lot, max %d), %d checs%n",
+                        service.getRequests(), service.getBatches(),
+                        service.getRequests() / (double)Math.max(1, service.getBatches()),
+                        service.getLargestBatch(), service.getFailures());
+        } finally {
+            if (service != null)
+                service.close();
+            if (store != null)
+                store.delete();
+        }
+    }
+
+    /**
+     * Valeur d'une option de la ligne de commande ; toutes les options de ce
+     * programme prennent une valeur
+     */
+    private static String option(String[] args, String name, String defaultValue) {
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals(name)) {
+                if (i + 1 == args.length)
+                    throw new IllegalArgumentException("Valeur manquante pour l'option " + name);
+                return args[i + 1];
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Lancement du service sur un keystore temporaire contenant une cl P-256
+     */
+    private static SigningService startService(File store, byte[] token, int clients) throws Exception {
+        KeyStoreTools kst = KeyStoreTools.create("JCEKS", store, PASSWORD);
+        KeyPair keyPair = new ECSigner.ECKeyPairGenerator("P-256").getECKeyPair();
+        kst.importKeyPair(keyPair, ALIAS, PASSWORD, 1);
+        // les connexions de la phase de prchauffage peuvent ne pas tre encore libres
+        SigningService service = new SigningService(kst, PASSWORD, token, 0, 2 * clients + 1);
+        service.start();
+        return service;
+    }
+
+    /**
+     * Vrification d'une signature du service avec sa cl publique
+     */
+    private static void check(int port, byte[] token, String alias, byte[] payload) throws Exception {
+        try (SigningClient client = new SigningClient(port, token)) {
+            PublicKey publicKey = client.getPublicKey(alias);
+            byte[] signature = request(client, alias, payload);
+            Signature verifier = Signature.getInstance("SHA256withECDSA");
+            verifier.initVerify(publicKey);
+            verifier.update(payload);
+            if (!verifier.verify(signature))
+                throw new IllegalStateException("Signature du service invalide");
+        }
+    }
+
+    private static byte[] request(SigningClient client, String alias, byte[] payload) throws Exception {
+        if (payload.length == 0)
+            return client.signDigest(alias, MessageDigest.getInstance("SHA-256").digest(payload));
+        return client.sign(alias, new ByteArrayInputStream(payload));
+    }
+
+    /**
+     * Centile exact d'un chantillon tri (mthode du rang suprieur)
+     */
+    private static long quantile(long[] sorted, double q) {
+        if (sorted.length == 0)
+            return 0;
+        int rank = (int)Math.ceil(q * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+
+    /**
+     * Excution de la charge ; chaque client conserve la dure de chacune de
+     * ses demandes, et toutes sont runies puis tries
+     * @return les dures des demandes en nanosecondes, tries
+     */
+    private static long[] run(final int port, final byte[] token, final String alias, final byte[] payload,
+            int clients, int seconds) throws Exception {
+        final long deadline = System.nanoTime() + seconds * 1000000000L;
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        try {
+            List<Future<long[]>> results = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                results.add(executor.submit(new Callable<long[]>() {
+                    @Override
+                    public long[] call() throws Exception {
+                        long[] samples = new long[1024];
+                        int count = 0;
+                        try (SigningClient client = new SigningClient(port, token)) {
+                            while (System.nanoTime() < deadline) {
+                                long start = System.nanoTime();
+                                request(client, alias, payload);
+                                if (count == samples.length)
+                                    samples = Arrays.copyOf(samples, 2 * count);
+                                samples[count++] = System.nanoTime() - start;
+                            }
+                        }
+                        return Arrays.copyOf(samples, count);
+                    }
+                }));
+            }
+            List<long[]> samples = new ArrayList<>(clients);
+            int total = 0;
+            for (Future<long[]> result : results) {
+                samples.add(result.get());
+                total += samples.get(samples.size() - 1).length;
+            }
+            long[] latencies = new long[total];
+            int offset = 0;
+            for (long[] client : samples) {
+                System.arraycopy(client, 0, latencies, offset, client.length);
+                offset += client.length;
+            }
+            Arrays.sort(latencies);
+            return latencies;
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package bench;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import ui.ECSigner;
+import ui.SigningEngine;
+
+/**
+ * Test de charge du moteur de signature concurrent : mesure le dbit de
+ * signature et de vrification de 1  N threads et le gain par rapport  un thread.
+ * Chaque signature produite est contrle par un signataire indpendant du moteur ;
+ * le programme se termine avec le code 1 si l'une d'elles est incorrecte.
+ * Usage : SigningStressTest [threadsMax] [nombreFichiers] [tailleFichierKo]
+ */
+public class SigningStressTest {
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int fileCount = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        int fileSize = (args.length > 2 ? Integer.parseInt(args[2]) : 64) * 1024;
+        String algorithm = "SHA256withECDSA";
+
+        List<File> files = createFiles(fileCount, fileSize);
+        int failures = 0;
+        try {
+            // contrle hors du moteur, dans le thread principal
+            ECSigner checker = new ECSigner(algorithm);
+            SigningEngine warmup = new SigningEngine(algorithm);
+            KeyPair keyPair = new ECSigner.ECKeyPairGenerator("P-256").getECKeyPair();
+            // prchauffage de la JVM
+            List<String> tags = warmup.signAll(files, keyPair.getPrivate());
+            failures += check(checker, files, keyPair.getPublic(), tags,
+                    warmup.verifyAll(files, keyPair.getPublic(), tags), 0);
+            warmup.close();
+
+            System.out.println("threads\tsign files/s\tverify files/s\tsign speedup\tverify speedup");
+            double signBase = 0, verifyBase = 0;
+            for (int threads = 1; threads <= maxThreads; threads++) {
+                try (SigningEngine engine = new SigningEngine(algorithm, threads)) {
+                    long start = System.nanoTime();
+                    tags = engine.signAll(files, keyPair.getPrivate());
+                    double signRate = fileCount / ((System.nanoTime() - start) / 1e9);
+                    start = System.nanoTime();
+                    List<Boolean> results = engine.verifyAll(files, keyPair.getPublic(), tags);
+                    double verifyRate = fileCount / ((System.nanoTime() - start) / 1e9);
+                    failures += check(checker, files, keyPair.getPublic(), tags, results, threads);
+                    if (threads == 1) {
+                        signBase = signRate;
+                        verifyBase = verifyRate;
+                    }
+                    System.out.printf("%d\t%.1f\t%.1f\t%.2f\t%.2f%n", threads, signRate, verifyRate,
+                            signRate / signBase, verifyRate / verifyBase);
+                }
+            }
+        } finally {
+            for (File file : files)
+                file.delete();
+        }
+        if (failures > 0) {
+            System.err.println(failures + " signature(s) incorrecte(s)");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Contrle des signatures produites par le moteur : chacune doit tre accepte
+     * par un signataire indpendant et par la vrification du moteur, et la
+     * signature d'un autre fichier doit tre rejete
+     * @return le nombre de fichiers dont le contrle choue
+     */
+    private static int check(ECSigner checker, List<File> files, PublicKey publicKey,
+            List<String> tags, List<Boolean> results, int threads)
+            throws GeneralSecurityException, IOException {
+        if (tags.size() != files.size() || results.size() != files.size()) {
+            System.err.println(threads + " threads : " + tags.size() + " signatures et "
+                    + results.size() + " vrifications pour " + files.size() + " fichiers");
+            return files.size();
+        }
+        int failures = 0;
+        for (int i = 0; i < files.size(); i++) {
+            File file = files.get(i);
+            String other = tags.get((i + 1) % tags.size());
+            if (!results.get(i) || !checker.verifyFile(file, publicKey, tags.get(i))
+                    || (files.size() > 1 && checker.verifyFile(file, publicKey, other))) {
+                System.err.println(threads + " threads : signature incorrecte pour " + file);
+                failures++;
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Cration de fichiers temporaires au contenu alatoire
+     * @param count le nombre de fichiers
+     * @param size la taille de chaque fichier
+     * @return les fichiers, supprims  l'arrt de la JVM
+     * @throws IOException si l'criture d'un fichier choue
+     */
+    public static List<File> createFiles(int count, int size) throws IOException {
+        Random random = new Random(42);
+        byte[] content = new byte[size];
+        List<File> files = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            random.nextBytes(content);
+            File file = File.createTempFile("stress", ".bin");
+            file.deleteOnExit();
+            try (OutputStream out = new FileOutputStream(file)) {
+                out.write(content);
+            }
+            files.add(file);
+        }
+        return files;
+    }
+}
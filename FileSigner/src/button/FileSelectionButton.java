@@ -13,6 +13,7 @@ public abstract class FileSelectionButton extends JButton{
 		super();
 		this.editor=editor;
 		this.jfc=new JFileChooser();
+		this.jfc.setMultiSelectionEnabled(true);
 	}
 	
 	public JFileChooser getJFC(){
@@ -3,6 +3,8 @@ package button;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 
+import javax.swing.JFileChooser;
+
 import ui.Editor;
 
 public class ToSignButton extends FileSelectionButton implements MouseListener{
@@ -15,9 +17,9 @@ public class ToSignButton extends FileSelectionButton implements MouseListener{
 
 	@Override
 	public void mouseClicked(MouseEvent arg0) {
-		System.out.println("Signer");
-		jfc.showOpenDialog(null);
-		
+		if (jfc.showOpenDialog(null) == JFileChooser.APPROVE_OPTION) {
+			editor.sign();
+		}
 	}
 
 	@Override
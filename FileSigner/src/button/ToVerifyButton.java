@@ -3,6 +3,8 @@ package button;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 
+import javax.swing.JFileChooser;
+
 import ui.Editor;
 
 public class ToVerifyButton extends FileSelectionButton implements MouseListener{
@@ -15,9 +17,9 @@ public class ToVerifyButton extends FileSelectionButton implements MouseListener
 
 	@Override
 	public void mouseClicked(MouseEvent arg0) {
-		System.out.println("Verifier");
-		jfc.showOpenDialog(null);
-		editor.verify();
+		if (jfc.showOpenDialog(null) == JFileChooser.APPROVE_OPTION) {
+			editor.verify();
+		}
 	}
 
 	@Override
@@ -0,0 +1,664 @@
+package cli;
+import java.io.BufferedReader;
+import java.io.Console;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import ui.CryptoBackend;
+import ui.DetachedSignature;
+import ui.ECSigner;
+import ui.KeyStoreTools;
+import ui.Metrics;
+
+/**
+ * Interface en ligne de commande, utilisable sans affichage : aucune classe
+ * AWT ou Swing n'est charge et le provider BouncyCastle n'est install que si
+ * l'opration l'exige (gnration de cls par le backend par dfaut, algorithme
+ * absent de la plate-forme, backend bc ou talonnage).
+ * <pre>
+ * FileSigner sign   -keystore f -alias a [-sig f] [-base64] [-threads n] [fichier | - | @liste]...
+ * FileSigner verify [-keystore f] [-alias a] [-sig f] [fichier | - | @liste]...
+ * FileSigner keygen -keystore f -alias a [-curve P-256] [-validity jours]
+ * FileSigner list   -keystore f [-alias motif]
+ * </pre>
+ * Options communes : <code>-storetype</code> (type par dfaut de la plate-forme),
+ * <code>-storepass</code> et <code>-keypass</code> ( dfaut, les variables
+ * d'environnement {@value #STOREPASS_ENV} et {@value #KEYPASS_ENV}, puis la
+ * console), <code>-sigalg</code> (SHA256withECDSA), <code>-metrics</code> et
+ * <code>-backend</code> : <code>bc</code>, <code>sunec</code>, <code>platform</code>
+ * (ordre de prfrence de la plate-forme, par dfaut) ou <code>auto</code>
+ * (talonnage retenant le backend le plus rapide, voir {@link CryptoBackend}).
+ * <p>
+ * Chaque fichier est sign dans un fichier voisin d'extension <code>.sig</code>,
+ * au format {@link DetachedSignature}. L'oprande <code>-</code> dsigne
+ * l'entre standard : sa signature est crite sur la sortie standard, ou dans
+ * le fichier de l'option <code>-sig</code>, auquel cas les donnes lues sont
+ * recopies sur la sortie standard pour tre transmises  la commande suivante
+ * d'un tube. L'oprande <code>@liste</code> dsigne un fichier contenant un
+ * nom de fichier par ligne (<code>@-</code> pour l'entre standard). Sans
+ * l'option <code>-alias</code>, la vrification recherche la cl publique dans
+ * le keystore d'aprs l'identifiant inscrit dans la signature.
+ * <p>
+ * Code de sortie : 0 en cas de succs, 1 si une opration a chou ou si une
+ * signature est invalide, 2 en cas d'erreur d'utilisation.
+ */
+public class FileSigner {
+    // Codes de sortie
+    static final int SUCCESS = 0;
+    static final int FAILURE = 1;
+    static final int USAGE = 2;
+
+    // Variables d'environnement fournissant les mots de passe
+    public static final String STOREPASS_ENV = "FILESIGNER_STOREPASS";
+    public static final String KEYPASS_ENV = "FILESIGNER_KEYPASS";
+
+    // L'oprande dsignant l'entre standard
+    private static final String STDIN = "-";
+
+    // Les algorithmes routs par l'option -backend lors d'une vrification
+    private static final List<String> VERIFY_ALGORITHMS = Arrays.asList("SHA1withECDSA", "SHA224withECDSA",
+            "SHA256withECDSA", "SHA384withECDSA", "SHA512withECDSA", "Ed25519", "Ed448");
+
+    // Options sans valeur
+    private static final Set<String> FLAGS = new HashSet<>(Arrays.asList("-base64", "-metrics"));
+
+    /**
+     * Erreur d'utilisation de la commande
+     */
+    static final class UsageException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        UsageException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Les options et oprandes d'une commande
+     */
+    static final class Arguments {
+        private final Map<String, String> options = new LinkedHashMap<>();
+        private final List<String> operands = new ArrayList<>();
+
+        Arguments(String[] args, int from) throws UsageException {
+            boolean endOfOptions = false;
+            for (int i = from; i < args.length; i++) {
+                String arg = args[i];
+                if (endOfOptions || !arg.startsWith("-") || arg.equals(STDIN)) {
+                    operands.add(arg);
+                } else if (arg.equals("--")) {
+                    endOfOptions = true;
+                } else if (FLAGS.contains(arg)) {
+                    options.put(arg, "");
+                } else if (i + 1 < args.length) {
+                    options.put(arg, args[++i]);
+                } else {
+                    throw new UsageException("Valeur manquante pour l'option " + arg);
+                }
+            }
+        }
+
+        String get(String name, String defaultValue) {
+            String value = options.get(name);
+            return value == null ? defaultValue : value;
+        }
+
+        String require(String name) throws UsageException {
+            String value = options.get(name);
+            if (value == null)
+                throw new UsageException("Option obligatoire : " + name);
+            return value;
+        }
+
+        int getInt(String name, int defaultValue) throws UsageException {
+            String value = options.get(name);
+            if (value == null)
+                return defaultValue;
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException ex) {
+                throw new UsageException("Valeur numrique attendue pour l'option " + name + " : " + value);
+            }
+        }
+
+        boolean has(String name) {
+            return options.containsKey(name);
+        }
+
+        void check(String... allowed) throws UsageException {
+            List<String> names = Arrays.asList(allowed);
+            for (String name : options.keySet()) {
+                if (!names.contains(name))
+                    throw new UsageException("Option inconnue : " + name);
+            }
+        }
+    }
+
+    private final InputStream in;
+    private final PrintStream out;
+    private final PrintStream err;
+
+    // Les objets signants, un par algorithme
+    private final ConcurrentMap<String, ECSigner> signers = new ConcurrentHashMap<>();
+
+    FileSigner(InputStream in, PrintStream out, PrintStream err) {
+        this.in = in;
+        this.out = out;
+        this.err = err;
+    }
+
+    public static void main(String[] args) {
+        System.exit(new FileSigner(System.in, System.out, System.err).run(args));
+    }
+
+    /**
+     * Excution d'une commande
+     * @param args la commande suivie de ses options et oprandes
+     * @return le code de sortie
+     */
+    int run(String[] args) {
+        if (args.length == 0) {
+            err.println("Usage : FileSigner sign|verify|keygen|list [options] [fichiers...]");
+            return USAGE;
+        }
+        try {
+            Arguments arguments = new Arguments(args, 1);
+            int status;
+            switch (args[0]) {
+            case "sign":
+                status = sign(arguments);
+                break;
+            case "verify":
+                status = verify(arguments);
+                break;
+            case "keygen":
+                status = keygen(arguments);
+                break;
+            case "list":
+                status = list(arguments);
+                break;
+            default:
+                throw new UsageException("Commande inconnue : " + args[0]);
+            }
+            if (arguments.has("-metrics"))
+                err.print(Metrics.summary());
+            return status;
+        } catch (UsageException ex) {
+            err.println(ex.getMessage());
+            return USAGE;
+        } catch (GeneralSecurityException | IOException ex) {
+            err.println("Erreur : " + ex.getMessage());
+            return FAILURE;
+        } finally {
+            out.flush();
+        }
+    }
+
+    private int sign(Arguments args) throws UsageException, GeneralSecurityException, IOException {
+        args.check("-keystore", "-storetype", "-storepass", "-keypass", "-alias", "-sigalg", "-sig",
+                "-base64", "-threads", "-metrics", "-backend");
+        String alias = args.require("-alias");
+        String algorithm = args.get("-sigalg", "SHA256withECDSA");
+        backend(args, algorithm, curveFor(algorithm));
+        char[] storepass = storePassword(args, true);
+        KeyStoreTools kst = openKeyStore(args, storepass);
+        final PrivateKey privateKey = kst.getPrivateKey(alias, keyPassword(args, storepass));
+        if (privateKey == null)
+            throw new KeyStoreException("Cl prive absente : " + alias);
+        Certificate cert = kst.getCertificate(alias);
+        final byte[] keyId = cert == null ? new byte[0] : DetachedSignature.keyId(cert.getPublicKey());
+        final ECSigner signer = signer(algorithm);
+
+        List<String> operands = operands(args);
+        if (operands.contains(STDIN)) {
+            if (operands.size() > 1)
+                throw new UsageException("L'entre standard ne peut tre signe que seule");
+            return signStream(args, signer, privateKey, keyId);
+        }
+        if (args.has("-sig") || args.has("-base64"))
+            throw new UsageException("Les options -sig et -base64 ne concernent que l'entre standard");
+        return forEachFile(operands, threads(args), new FileTask() {
+            @Override
+            public String run(File file) throws GeneralSecurityException, IOException {
+                signer.signDetached(file, privateKey, keyId).writeTo(signatureFile(file));
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Signature de l'entre standard ; avec l'option -sig, les donnes sont
+     * recopies sur la sortie standard et la signature crite dans le fichier
+     */
+    private int signStream(Arguments args, ECSigner signer, PrivateKey privateKey, byte[] keyId)
+            throws GeneralSecurityException, IOException {
+        String sigFile = args.get("-sig", null);
+        InputStream data = in;
+        if (sigFile != null) {
+            data = new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0)
+                        out.write(b);
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0)
+                        out.write(b, off, n);
+                    return n;
+                }
+            };
+        }
+        DetachedSignature signature = signer.signDetached(data, privateKey, keyId);
+        byte[] encoded = args.has("-base64")
+                ? (signature.toBase64() + "\n").getBytes(StandardCharsets.US_ASCII)
+                : signature.getEncoded();
+        if (sigFile == null) {
+            out.write(encoded);
+        } else {
+            out.flush();
+            try (OutputStream sig = new FileOutputStream(sigFile)) {
+                sig.write(encoded);
+            }
+        }
+        return SUCCESS;
+    }
+
+    private int verify(Arguments args) throws UsageException, GeneralSecurityException, IOException {
+        args.check("-keystore", "-storetype", "-storepass", "-alias", "-sig", "-threads", "-metrics", "-backend");
+        backend(args, null, null);
+        final KeyStoreTools kst = openKeyStore(args, storePassword(args, false));
+        final String alias = args.get("-alias", null);
+        PublicKey aliasKey = null;
+        if (alias != null) {
+            if (kst == null)
+                throw new UsageException("L'option -alias ncessite l'option -keystore");
+            Certificate cert = kst.getCertificate(alias);
+            if (cert == null)
+                throw new KeyStoreException("Certificat absent : " + alias);
+            aliasKey = cert.getPublicKey();
+        } else if (kst == null) {
+            throw new UsageException("Option obligatoire : -keystore");
+        }
+        final PublicKey fixedKey = aliasKey;
+
+        List<String> operands = operands(args);
+        if (operands.contains(STDIN)) {
+            if (operands.size() > 1)
+                throw new UsageException("L'entre standard ne peut tre vrifie que seule");
+            DetachedSignature signature = readSignature(new File(args.require("-sig")));
+            boolean valid = signer(signature.getAlgorithm()).verify(in,
+                    publicKey(kst, fixedKey, signature), signature);
+            out.println(STDIN + " : " + (valid ? "OK" : "INVALIDE"));
+            return valid ? SUCCESS : FAILURE;
+        }
+        if (args.has("-sig"))
+            throw new UsageException("L'option -sig ne concerne que l'entre standard");
+        return forEachFile(operands, threads(args), new FileTask() {
+            @Override
+            public String run(File file) throws GeneralSecurityException, IOException {
+                DetachedSignature signature = readSignature(signatureFile(file));
+                return signer(signature.getAlgorithm()).verify(file, publicKey(kst, fixedKey, signature), signature)
+                        ? "OK" : "INVALIDE";
+            }
+        });
+    }
+
+    private static DetachedSignature readSignature(File file) throws IOException {
+        if (!file.isFile())
+            throw new IOException("Signature absente : " + file);
+        // une signature encode en base64 est accepte aussi bien que le format binaire
+        byte[] content = Files.readAllBytes(file.toPath());
+        String text = new String(content, StandardCharsets.US_ASCII).trim();
+        if (text.matches("[A-Za-z0-9+/=]+"))
+            return DetachedSignature.fromBase64(text);
+        return DetachedSignature.decode(content);
+    }
+
+    /**
+     * La cl publique dsigne par l'alias, ou  dfaut celle du keystore
+     * dont l'identifiant est inscrit dans la signature
+     */
+    private static PublicKey publicKey(KeyStoreTools kst, PublicKey fixedKey, DetachedSignature signature)
+            throws GeneralSecurityException {
+        if (fixedKey != null)
+            return fixedKey;
+        PublicKey key = kst.findPublicKey(signature.getKeyId());
+        if (key == null)
+            throw new KeyStoreException("Aucun certificat du keystore ne correspond  la signature");
+        return key;
+    }
+
+    private int keygen(Arguments args) throws UsageException, GeneralSecurityException, IOException {
+        args.check("-keystore", "-storetype", "-storepass", "-keypass", "-alias", "-curve", "-validity",
+                "-metrics", "-backend");
+        String alias = args.require("-alias");
+        String curve = args.get("-curve", "P-256");
+        backend(args, algorithmFor(curve), curve);
+        File file = new File(args.require("-keystore"));
+        String type = args.get("-storetype", KeyStore.getDefaultType());
+        char[] storepass = storePassword(args, true);
+        KeyStoreTools kst = loadKeyStore(type, file, storepass, !file.exists());
+        if (kst.getCertificate(alias) != null)
+            throw new KeyStoreException("L'alias existe dj : " + alias);
+        char[] keypass = keyPassword(args, storepass);
+        KeyPair keyPair = new ECSigner.ECKeyPairGenerator(curve).getECKeyPair();
+        X509Certificate cert = kst.importKeyPair(keyPair, alias, keypass,
+                args.getInt("-validity", 365));
+        kst.save(file, storepass);
+        out.println(alias + "\t" + hex(DetachedSignature.keyId(keyPair.getPublic()))
+                + "\t" + KeyStoreTools.fingerprint(cert));
+        return SUCCESS;
+    }
+
+    private int list(Arguments args) throws UsageException, GeneralSecurityException, IOException {
+        args.check("-keystore", "-storetype", "-storepass", "-alias", "-metrics");
+        KeyStoreTools kst = openKeyStore(args, storePassword(args, false));
+        if (kst == null)
+            throw new UsageException("Option obligatoire : -keystore");
+        String pattern = args.get("-alias", null);
+        Pattern aliasPattern = pattern == null ? null : Pattern.compile(pattern);
+        for (KeyStoreTools.EntryType type : KeyStoreTools.EntryType.values()) {
+            for (String alias : kst.aliases(type, aliasPattern)) {
+                StringBuilder sb = new StringBuilder(alias).append('\t').append(type);
+                Certificate cert = type == KeyStoreTools.EntryType.SECRET_KEY ? null : kst.getCertificate(alias);
+                if (cert != null) {
+                    sb.append('\t').append(hex(DetachedSignature.keyId(cert.getPublicKey())));
+                    sb.append('\t').append(KeyStoreTools.fingerprint(cert));
+                    if (cert instanceof X509Certificate)
+                        sb.append('\t').append(((X509Certificate)cert).getSubjectX500Principal());
+                }
+                out.println(sb);
+            }
+        }
+        return SUCCESS;
+    }
+
+    /**
+     * Un traitement appliqu  chaque fichier
+     */
+    private interface FileTask {
+        /**
+         * @return le rsultat affich pour le fichier, ou null
+         */
+        String run(File file) throws GeneralSecurityException, IOException;
+    }
+
+    /**
+     * Application d'un traitement  des fichiers, en parallle ; les rsultats
+     * sont affichs dans l'ordre des fichiers
+     * @return {@link #SUCCESS} si tous les traitements ont russi avec un rsultat "OK" ou sans rsultat
+     */
+    private int forEachFile(List<String> names, int threads, final FileTask task) throws IOException {
+        if (names.isEmpty())
+            return SUCCESS;
+        List<Future<String>> results = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, names.size()));
+        int status = SUCCESS;
+        try {
+            for (String name : names) {
+                final File file = new File(name);
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws GeneralSecurityException, IOException {
+                        return task.run(file);
+                    }
+                }));
+            }
+            for (int i = 0; i < names.size(); i++) {
+                try {
+                    String result = results.get(i).get();
+                    if (result != null)
+                        out.println(names.get(i) + " : " + result);
+                    if (result != null && !result.equals("OK"))
+                        status = FAILURE;
+                } catch (ExecutionException ex) {
+                    err.println(names.get(i) + " : erreur : " + ex.getCause().getMessage());
+                    status = FAILURE;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Traitement interrompu", ex);
+        } finally {
+            executor.shutdownNow();
+        }
+        return status;
+    }
+
+    /**
+     * Les fichiers dsigns par les oprandes, les listes tant dveloppes ;
+     * sans oprande, l'entre standard
+     */
+    private List<String> operands(Arguments args) throws IOException {
+        if (args.operands.isEmpty())
+            return Arrays.asList(STDIN);
+        List<String> names = new ArrayList<>();
+        for (String operand : args.operands) {
+            if (!operand.startsWith("@")) {
+                names.add(operand);
+                continue;
+            }
+            String list = operand.substring(1);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    list.equals(STDIN) ? uncloseable(in) : new FileInputStream(list)))) {
+                for (String line; (line = reader.readLine()) != null;) {
+                    if (!line.isEmpty())
+                        names.add(line);
+                }
+            }
+        }
+        return names;
+    }
+
+    private static InputStream uncloseable(InputStream stream) {
+        return new FilterInputStream(stream) {
+            @Override
+            public void close() {
+                // l'entre standard reste ouverte
+            }
+        };
+    }
+
+    /**
+     * Choix du backend de l'option -backend
+     * @param algorithm l'algorithme de signature concern, ou null pour tous les algorithmes usuels
+     * @param curve la courbe utilise pour l'talonnage
+     */
+    private static void backend(Arguments args, String algorithm, String curve)
+            throws UsageException, GeneralSecurityException {
+        String spec = args.get("-backend", null);
+        if (spec == null)
+            return;
+        if (algorithm != null) {
+            try {
+                CryptoBackend.configure(spec, algorithm, curve);
+            } catch (IllegalArgumentException ex) {
+                throw new UsageException(ex.getMessage());
+            }
+        } else if (spec.equalsIgnoreCase("auto")) {
+            CryptoBackend.calibrate(CryptoBackend.DEFAULT_CALIBRATION_MILLIS);
+        } else {
+            CryptoBackend.Backend backend;
+            try {
+                backend = CryptoBackend.Backend.forName(spec);
+            } catch (IllegalArgumentException ex) {
+                throw new UsageException(ex.getMessage());
+            }
+            for (String name : VERIFY_ALGORITHMS) {
+                if (backend.supports("Signature", name))
+                    CryptoBackend.select(name, backend);
+            }
+        }
+    }
+
+    // Courbe d'talonnage de chaque algorithme de signature, et rciproquement
+    private static String curveFor(String algorithm) {
+        switch (algorithm.toUpperCase(Locale.ROOT)) {
+        case "SHA384WITHECDSA":
+            return "P-384";
+        case "SHA512WITHECDSA":
+            return "P-521";
+        case "ED25519":
+        case "ED448":
+            return null;
+        default:
+            return "P-256";
+        }
+    }
+
+    private static String algorithmFor(String curve) {
+        switch (curve.toUpperCase(Locale.ROOT)) {
+        case "P-384":
+            return "SHA384withECDSA";
+        case "P-521":
+            return "SHA512withECDSA";
+        case "ED25519":
+        case "ED448":
+            return curve;
+        default:
+            return "SHA256withECDSA";
+        }
+    }
+
+    private static int threads(Arguments args) throws UsageException {
+        int threads = args.getInt("-threads", Runtime.getRuntime().availableProcessors());
+        if (threads < 1)
+            throw new UsageException("Nombre de threads invalide : " + threads);
+        return threads;
+    }
+
+    private static File signatureFile(File file) {
+        return new File(file.getPath() + DetachedSignature.SUFFIX);
+    }
+
+    private ECSigner signer(String algorithm) throws GeneralSecurityException {
+        ECSigner signer = signers.get(algorithm);
+        if (signer == null) {
+            ECSigner created = new ECSigner(algorithm);
+            signer = signers.putIfAbsent(algorithm, created);
+            if (signer == null)
+                signer = created;
+        }
+        return signer;
+    }
+
+    /**
+     * Ouverture du keystore de l'option -keystore
+     * @param storepass le mot de passe du keystore ; sans mot de passe, les
+     * certificats restent lisibles mais l'intgrit du keystore n'est pas vrifie
+     * @return le keystore, ou null si l'option est absente
+     */
+    private static KeyStoreTools openKeyStore(Arguments args, char[] storepass)
+            throws GeneralSecurityException, IOException {
+        String file = args.get("-keystore", null);
+        if (file == null)
+            return null;
+        return loadKeyStore(args.get("-storetype", KeyStore.getDefaultType()), new File(file), storepass, false);
+    }
+
+    /**
+     * Ouverture ou cration d'un keystore ; les types fournis par Bouncy Castle
+     * (BKS, UBER...) ne sont connus qu'une fois son provider install
+     */
+    private static KeyStoreTools loadKeyStore(String type, File file, char[] storepass, boolean create)
+            throws GeneralSecurityException, IOException {
+        try {
+            return create ? KeyStoreTools.create(type, file, storepass) : new KeyStoreTools(type, file, storepass);
+        } catch (KeyStoreException ex) {
+            if (Security.getProvider("BC") != null)
+                throw ex;
+            ECSigner.installProvider();
+            return create ? KeyStoreTools.create(type, file, storepass) : new KeyStoreTools(type, file, storepass);
+        }
+    }
+
+    /**
+     * Le mot de passe du keystore
+     * @param required indique si le keystore et son mot de passe sont obligatoires
+     */
+    private static char[] storePassword(Arguments args, boolean required) throws UsageException {
+        if (required)
+            args.require("-keystore");
+        char[] storepass = password(args.get("-storepass", null), STOREPASS_ENV,
+                required ? "Mot de passe du keystore : " : null);
+        if (required && storepass == null)
+            throw new UsageException("Mot de passe du keystore absent");
+        return storepass;
+    }
+
+    /**
+     * Le mot de passe des cls, celui du keystore  dfaut
+     */
+    private static char[] keyPassword(Arguments args, char[] storepass) throws UsageException {
+        char[] keypass = password(args.get("-keypass", null), KEYPASS_ENV, null);
+        if (keypass == null)
+            keypass = storepass;
+        if (keypass == null)
+            keypass = password(null, null, "Mot de passe de la cl : ");
+        if (keypass == null)
+            throw new UsageException("Mot de passe de la cl absent");
+        return keypass;
+    }
+
+    /**
+     * Un mot de passe donn en option, par une variable d'environnement ou
+     * saisi sur la console (jamais lu sur l'entre standard, rserve aux donnes)
+     */
+    private static char[] password(String option, String variable, String prompt) {
+        if (option != null)
+            return option.toCharArray();
+        String value = variable == null ? null : System.getenv(variable);
+        if (value != null)
+            return value.toCharArray();
+        Console console = System.console();
+        if (prompt != null && console != null)
+            return console.readPassword(prompt);
+        return null;
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,196 @@
+package ui;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * Signature en parallle de tous les fichiers d'une arborescence.
+ * Les fichiers sont signs sur un pool  vol de tches (fork-join) au fur et 
+ * mesure du parcours, le volume de donnes en cours de traitement tant born.
+ * Le manifeste (chemin relatif, taille, signature en base64, spars par des
+ * tabulations) est crit ligne par ligne, dans l'ordre d'achvement des signatures ;
+ * un nom de fichier contenant une tabulation ou un saut de ligne, qui rendrait le
+ * manifeste ambigu, interrompt la signature.
+ */
+public class BatchSigner {
+
+    /**
+     * Bilan d'une signature par lot
+     */
+    public static final class Report {
+        private final long files;
+        private final long bytes;
+        private final long elapsedNanos;
+
+        private Report(long files, long bytes, long elapsedNanos) {
+            this.files = files;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getFiles() {
+            return files;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getFilesPerSecond() {
+            return files / (elapsedNanos / 1e9);
+        }
+
+        public double getBytesPerSecond() {
+            return bytes / (elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d fichiers, %d octets en %.3f s (%.1f fichiers/s, %.1f Mo/s)",
+                    files, bytes, elapsedNanos / 1e9, getFilesPerSecond(),
+                    getBytesPerSecond() / (1024 * 1024));
+        }
+    }
+
+    // Budget par dfaut des donnes en cours de traitement
+    public static final long DEFAULT_IN_FLIGHT_BYTES = 256L * 1024 * 1024;
+
+    // L'objet signant partag par les threads du pool
+    private final ECSigner signer;
+
+    // Le nombre de threads du pool
+    private final int parallelism;
+
+    // Le budget des donnes en cours de traitement, en Ko
+    private final int inFlightKb;
+
+    /**
+     * Construction d'une instance utilisant un thread par processeur disponible
+     * @param algorithm l'algorithme de signature
+     * @throws GeneralSecurityException si la construction de l'objet signant choue
+     */
+    public BatchSigner(String algorithm) throws GeneralSecurityException {
+        this(algorithm, Runtime.getRuntime().availableProcessors(), DEFAULT_IN_FLIGHT_BYTES);
+    }
+
+    /**
+     * Construction d'une instance de la classe
+     * @param algorithm l'algorithme de signature
+     * @param parallelism le nombre de threads du pool
+     * @param maxInFlightBytes le volume maximal de donnes en cours de traitement
+     * @throws GeneralSecurityException si la construction de l'objet signant choue
+     */
+    public BatchSigner(String algorithm, int parallelism, long maxInFlightBytes)
+            throws GeneralSecurityException {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Nombre de threads invalide : " + parallelism);
+        if (maxInFlightBytes < 1024)
+            throw new IllegalArgumentException("Budget d'entres/sorties trop faible : " + maxInFlightBytes);
+        this.signer = new ECSigner(algorithm);
+        this.parallelism = parallelism;
+        this.inFlightKb = (int)Math.min(Integer.MAX_VALUE, maxInFlightBytes / 1024);
+    }
+
+    /**
+     * Signature de tous les fichiers d'une arborescence
+     * @param root le rpertoire racine
+     * @param privateKey la cl prive de signature
+     * @param manifest la destination du manifeste (ni vide ni ferme par la mthode)
+     * @return le bilan de l'opration
+     * @throws GeneralSecurityException si le calcul d'une signature choue
+     * @throws IOException si le parcours, la lecture d'un fichier ou l'criture du manifeste choue,
+     * si un nom de fichier contient une tabulation ou un saut de ligne, ou si le parcours est interrompu
+     */
+    public Report signTree(File root, final PrivateKey privateKey, final Writer manifest)
+            throws GeneralSecurityException, IOException {
+        if (!root.isDirectory())
+            throw new IOException("Rpertoire introuvable : " + root);
+        final Path base = root.toPath();
+        // le nombre de fichiers en cours de traitement est lui aussi born :
+        // racqurir tous ses jetons revient  attendre la fin des signatures
+        final int maxFiles = parallelism * 4;
+        final Semaphore files = new Semaphore(maxFiles);
+        final Semaphore kilobytes = new Semaphore(inFlightKb);
+        final AtomicLong fileCount = new AtomicLong();
+        final AtomicLong byteCount = new AtomicLong();
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        long start = System.nanoTime();
+        try {
+            Files.walkFileTree(base, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(final Path path, BasicFileAttributes attrs)
+                        throws IOException {
+                    if (!attrs.isRegularFile())
+                        return FileVisitResult.CONTINUE;
+                    final String name = base.relativize(path).toString().replace(File.separatorChar, '/');
+                    if (name.indexOf('\t') >= 0 || name.indexOf('\n') >= 0 || name.indexOf('\r') >= 0)
+                        throw new IOException("Nom de fichier non reprsentable dans le manifeste : " + path);
+                    final long size = attrs.size();
+                    final int permits = (int)Math.max(1, Math.min(inFlightKb, size / 1024));
+                    try {
+                        files.acquire();
+                        kilobytes.acquire(permits);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Parcours interrompu", ex);
+                    }
+                    pool.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                // encodage base64 sur une seule ligne
+                                String tag = new String(Base64.encodeBase64(signer.sign(path.toFile(), privateKey)),
+                                        StandardCharsets.US_ASCII);
+                                String line = name + '\t' + size + '\t' + tag + '\n';
+                                synchronized (manifest) {
+                                    manifest.write(line);
+                                }
+                                fileCount.incrementAndGet();
+                                byteCount.addAndGet(size);
+                            } catch (GeneralSecurityException | IOException | RuntimeException ex) {
+                                failure.compareAndSet(null, ex);
+                            } finally {
+                                kilobytes.release(permits);
+                                files.release();
+                            }
+                        }
+                    });
+                    // le parcours s'arrte ds le premier chec
+                    return failure.get() == null ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+                }
+            });
+        } finally {
+            // attente non interruptible : le manifeste ne doit pas tre rendu 
+            // l'appelant, qui le fermera, tant que des tches y crivent
+            files.acquireUninterruptibly(maxFiles);
+            pool.shutdown();
+        }
+        long elapsed = System.nanoTime() - start;
+        Exception ex = failure.get();
+        if (ex instanceof GeneralSecurityException)
+            throw (GeneralSecurityException)ex;
+        if (ex instanceof IOException)
+            throw (IOException)ex;
+        if (ex instanceof RuntimeException)
+            throw (RuntimeException)ex;
+        return new Report(fileCount.get(), byteCount.get(), elapsed);
+    }
+}
@@ -0,0 +1,397 @@
+package ui;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Vrification par lot d'un grand nombre de signatures produites par un petit
+ * nombre de cls publiques. Pour chaque cl, la cl dcode et des objets
+ * Signature dj initialiss en vrification sont conservs dans un cache
+ * born (les cls les moins rcemment utilises sont vinces), ce qui vite
+ * de dcoder la cl et de rinitialiser un objet Signature  chaque fichier.
+ */
+public class BatchVerifier implements Closeable {
+
+    /**
+     * Une demande de vrification
+     */
+    public static final class Request {
+        private final File file;
+        private final byte[] encodedKey;
+        private final byte[] signature;
+
+        /**
+         * @param file le fichier  vrifier
+         * @param encodedKey la cl publique au format X.509 (SubjectPublicKeyInfo)
+         * @param signature la signature brute  vrifier
+         */
+        public Request(File file, byte[] encodedKey, byte[] signature) {
+            this.file = file;
+            this.encodedKey = encodedKey;
+            this.signature = signature;
+        }
+
+        /**
+         * @param file le fichier  vrifier
+         * @param publicKey la cl publique de vrification
+         * @param signature la signature brute  vrifier
+         */
+        public Request(File file, PublicKey publicKey, byte[] signature) {
+            this(file, publicKey.getEncoded(), signature);
+        }
+
+        public File getFile() {
+            return file;
+        }
+    }
+
+    /**
+     * Le verdict d'une vrification
+     */
+    public static final class Verdict {
+        private final File file;
+        private final boolean valid;
+        private final Exception error;
+
+        private Verdict(File file, boolean valid, Exception error) {
+            this.file = file;
+            this.valid = valid;
+            this.error = error;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @return <code>true</code> si la signature est correcte
+         */
+        public boolean isValid() {
+            return valid;
+        }
+
+        /**
+         * @return l'exception ayant empch la vrification, ou <code>null</code>
+         */
+        public Exception getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return file + (error != null ? " : erreur (" + error + ")" : valid ? " : OK" : " : INVALIDE");
+        }
+    }
+
+    /**
+     * L'tat conserv pour une cl publique : la cl dcode et les objets
+     * Signature initialiss avec elle qui sont inutiliss
+     */
+    private final class KeyState {
+        private final PublicKey key;
+        private final ConcurrentLinkedQueue<Signature> idle = new ConcurrentLinkedQueue<>();
+
+        private KeyState(PublicKey key) {
+            this.key = key;
+        }
+
+        private Signature borrow() throws GeneralSecurityException {
+            Signature verifier = idle.poll();
+            if (verifier == null) {
+                verifier = CryptoBackend.signature(algorithm);
+                CryptoBackend.initVerify(verifier, key);
+            }
+            return verifier;
+        }
+
+        private void release(Signature verifier) {
+            idle.offer(verifier);
+        }
+    }
+
+    // Marque de fin du flot des verdicts ; un verdict sans fichier autre que
+    // celle-ci marque la fin du flot sur un chec
+    private static final Verdict END = new Verdict(null, false, null);
+
+    // L'algorithme de signature
+    private final String algorithm;
+
+    // La fabrique dcodant les cls publiques
+    private final KeyFactory keyFactory;
+
+    // Le cache des tats par cl, ordonn par date d'accs
+    private final Map<ByteBuffer, KeyState> keys;
+
+    // Le pool de threads excutant les vrifications
+    private final ExecutorService executor;
+
+    // Le nombre de threads du pool
+    private final int parallelism;
+
+    // Les compteurs de succs et d'checs du cache
+    private final AtomicLong keyHits = new AtomicLong();
+    private final AtomicLong keyMisses = new AtomicLong();
+
+    /**
+     * Construction d'une instance de la classe
+     * @param algorithm l'algorithme de signature
+     * @param parallelism le nombre de threads de vrification
+     * @param maxKeys le nombre maximal de cls conserves dans le cache
+     * @throws GeneralSecurityException si l'algorithme n'est pas disponible
+     */
+    public BatchVerifier(String algorithm, int parallelism, final int maxKeys)
+            throws GeneralSecurityException {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Nombre de threads invalide : " + parallelism);
+        if (maxKeys < 1)
+            throw new IllegalArgumentException("Taille de cache invalide : " + maxKeys);
+        // la construction d'un ECSigner vrifie l'algorithme et installe au besoin le provider
+        new ECSigner(algorithm);
+        this.algorithm = algorithm;
+        this.keyFactory = KeyFactory.getInstance("EC");
+        this.parallelism = parallelism;
+        this.keys = new LinkedHashMap<ByteBuffer, KeyState>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, KeyState> eldest) {
+                return size() > maxKeys;
+            }
+        };
+        this.executor = Executors.newFixedThreadPool(parallelism, new DaemonThreadFactory("batch-verifier"));
+    }
+
+    /**
+     * Accs  l'tat d'une cl, dcode lors de son premier usage
+     */
+    private KeyState keyState(byte[] encodedKey) throws GeneralSecurityException {
+        ByteBuffer id = ByteBuffer.wrap(encodedKey);
+        synchronized (keys) {
+            KeyState state = keys.get(id);
+            if (state != null) {
+                keyHits.incrementAndGet();
+                return state;
+            }
+        }
+        keyMisses.incrementAndGet();
+        // dcodage hors verrou : deux threads peuvent dcoder la mme cl, le dernier l'emporte
+        PublicKey key;
+        synchronized (keyFactory) {
+            key = keyFactory.generatePublic(new X509EncodedKeySpec(encodedKey));
+        }
+        KeyState state = new KeyState(key);
+        synchronized (keys) {
+            keys.put(ByteBuffer.wrap(encodedKey.clone()), state);
+        }
+        return state;
+    }
+
+    /**
+     * Vrification d'une signature dans le thread appelant
+     * @param request la demande de vrification
+     * @return le verdict de la vrification
+     */
+    public Verdict verify(Request request) {
+        try {
+            KeyState state = keyState(request.encodedKey);
+            Signature verifier = state.borrow();
+            // un objet Signature n'est remis dans le cache qu'aprs une vrification
+            // mene  son terme, qui le ramne  son tat initialis
+            FileFeeder.feed(request.file, verifier);
+            boolean valid = verifier.verify(request.signature);
+            state.release(verifier);
+            return new Verdict(request.file, valid, null);
+        } catch (GeneralSecurityException | IOException | RuntimeException ex) {
+            return new Verdict(request.file, false, ex);
+        }
+    }
+
+    /**
+     * Le flot des verdicts d'une vrification en parallle. Sa fermeture arrte la
+     * lecture des demandes et abandonne les verdicts non encore restitus ; un flot
+     * abandonn avant sa fin doit tre ferm pour librer le thread qui l'alimente.
+     */
+    public interface Verdicts extends Iterator<Verdict>, Closeable {
+        @Override
+        void close();
+    }
+
+    /**
+     * Vrification en parallle d'un flot de demandes. Les demandes sont consommes
+     * au fur et  mesure et les verdicts sont restitus dans l'ordre de leur
+     * achvement ; au plus <code>4 * parallelism</code> demandes sont en cours de
+     * traitement ou ont un verdict non encore restitu, si bien que la lecture des
+     * demandes s'arrte tant que l'appelant ne consomme pas les verdicts. Si la lecture
+     * des demandes ou leur soumission choue, les verdicts des vrifications dj
+     * lances sont restitus, puis <code>hasNext</code> et <code>next</code> lvent
+     * l'exception  l'origine de l'chec (enveloppe dans une
+     * <code>IllegalStateException</code> si elle est contrle).
+     * @param requests les demandes de vrification
+     * @return le flot des verdicts,  fermer s'il n'est pas consomm jusqu'au bout
+     */
+    public Verdicts verifyAll(final Iterator<Request> requests) {
+        final int maxInFlight = parallelism * 4;
+        // une place de plus pour la marque de fin
+        final BlockingQueue<Verdict> verdicts = new LinkedBlockingQueue<>(maxInFlight + 1);
+        // un permis par demande soumise dont le verdict n'a pas t restitu
+        final Semaphore inFlight = new Semaphore(maxInFlight);
+        // indique la fermeture du flot, modifi sous le verrou de la file
+        final AtomicBoolean closed = new AtomicBoolean();
+        final Thread feeder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Exception failure = null;
+                boolean done = false;
+                try {
+                    while (requests.hasNext()) {
+                        final Request request = requests.next();
+                        inFlight.acquire();
+                        try {
+                            executor.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    Verdict verdict = verify(request);
+                                    synchronized (verdicts) {
+                                        // aprs la fermeture, le verdict n'est plus attendu
+                                        if (closed.get())
+                                            inFlight.release();
+                                        else
+                                            verdicts.add(verdict);
+                                    }
+                                }
+                            });
+                        } catch (RuntimeException ex) {
+                            inFlight.release();
+                            throw ex;
+                        }
+                    }
+                    done = true;
+                } catch (InterruptedException ex) {
+                    // fermeture du flot, ou interruption externe
+                    failure = ex;
+                } catch (RuntimeException ex) {
+                    failure = ex;
+                } finally {
+                    // attente de la restitution des verdicts en cours, y compris aprs un
+                    // chec, afin qu'aucun verdict ne parvienne aprs la marque de fin
+                    inFlight.acquireUninterruptibly(maxInFlight);
+                    if (done)
+                        verdicts.add(END);
+                    else
+                        verdicts.add(new Verdict(null, false, failure != null ? failure
+                                : new IllegalStateException("Lecture des demandes interrompue")));
+                }
+            }
+        }, "batch-verifier-feeder");
+        feeder.setDaemon(true);
+        feeder.start();
+
+        return new Verdicts() {
+            private Verdict next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    synchronized (verdicts) {
+                        if (closed.get())
+                            throw new IllegalStateException("Flot des verdicts ferm");
+                    }
+                    try {
+                        next = verdicts.take();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("Attente des verdicts interrompue", ex);
+                    }
+                    // le verdict restitu libre sa place pour une nouvelle demande
+                    if (next.file != null)
+                        inFlight.release();
+                }
+                if (next == END)
+                    return false;
+                // la marque d'chec est conserve : chaque appel suivant lve la mme exception
+                if (next.file == null) {
+                    if (next.error instanceof RuntimeException)
+                        throw (RuntimeException)next.error;
+                    throw new IllegalStateException("Lecture des demandes interrompue", next.error);
+                }
+                return true;
+            }
+
+            @Override
+            public Verdict next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Verdict verdict = next;
+                next = null;
+                return verdict;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() {
+                synchronized (verdicts) {
+                    if (closed.get())
+                        return;
+                    closed.set(true);
+                    // les verdicts en attente sont abandonns et leurs places libres
+                    for (Verdict verdict; (verdict = verdicts.poll()) != null;) {
+                        if (verdict.file != null)
+                            inFlight.release();
+                    }
+                }
+                feeder.interrupt();
+            }
+        };
+    }
+
+    /**
+     * @return le nombre de demandes dont la cl tait dj dans le cache
+     */
+    public long getKeyHits() {
+        return keyHits.get();
+    }
+
+    /**
+     * @return le nombre de demandes ayant ncessit le dcodage de la cl
+     */
+    public long getKeyMisses() {
+        return keyMisses.get();
+    }
+
+    /**
+     * Vidage du cache des cls
+     */
+    public void invalidateKeys() {
+        synchronized (keys) {
+            keys.clear();
+        }
+    }
+
+    /**
+     * Arrt du pool de vrification
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
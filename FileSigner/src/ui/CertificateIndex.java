@@ -0,0 +1,159 @@
+package ui;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.security.auth.x500.X500Principal;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.x509.extension.X509ExtensionUtil;
+
+/**
+ * Index en mmoire des certificats d'un keystore, par empreinte SHA-256,
+ * identifiant de cl du sujet (extension SubjectKeyIdentifier), nom distingu
+ * du sujet et identifiant de cl des signatures dtaches
+ * ({@link DetachedSignature#keyId}). Plusieurs alias pouvant dsigner le mme
+ * certificat, chaque cl d'index dsigne l'ensemble des alias correspondants.
+ */
+class CertificateIndex {
+    // OID de l'extension SubjectKeyIdentifier
+    private static final String SUBJECT_KEY_IDENTIFIER = "2.5.29.14";
+
+    /**
+     * Les cls d'index d'un certificat
+     */
+    private static final class Indexed {
+        private final Certificate cert;
+        private final String fingerprint;
+        private final ByteBuffer keyId;
+        private final ByteBuffer subjectKeyId;
+        private final X500Principal subject;
+
+        private Indexed(Certificate cert) throws GeneralSecurityException {
+            this.cert = cert;
+            this.fingerprint = KeyStoreTools.fingerprint(cert);
+            this.keyId = ByteBuffer.wrap(DetachedSignature.keyId(cert.getPublicKey()));
+            if (cert instanceof X509Certificate) {
+                X509Certificate x509 = (X509Certificate)cert;
+                this.subjectKeyId = subjectKeyIdentifier(x509);
+                this.subject = x509.getSubjectX500Principal();
+            } else {
+                this.subjectKeyId = null;
+                this.subject = null;
+            }
+        }
+    }
+
+    // Les certificats indexs, par alias
+    private final Map<String, Indexed> byAlias = new HashMap<>();
+
+    // Les alias, par cl d'index
+    private final Map<String, Set<String>> byFingerprint = new HashMap<>();
+    private final Map<ByteBuffer, Set<String>> byKeyId = new HashMap<>();
+    private final Map<ByteBuffer, Set<String>> bySubjectKeyId = new HashMap<>();
+    private final Map<X500Principal, Set<String>> bySubject = new HashMap<>();
+
+    /**
+     * Indexation du certificat d'un alias, en remplacement du prcdent
+     * @param alias l'alias de l'entre
+     * @param cert le certificat de l'entre
+     * @throws GeneralSecurityException si l'encodage du certificat est invalide
+     */
+    void put(String alias, Certificate cert) throws GeneralSecurityException {
+        Indexed indexed = new Indexed(cert);
+        synchronized (this) {
+            remove(alias);
+            byAlias.put(alias, indexed);
+            add(byFingerprint, indexed.fingerprint, alias);
+            add(byKeyId, indexed.keyId, alias);
+            add(bySubjectKeyId, indexed.subjectKeyId, alias);
+            add(bySubject, indexed.subject, alias);
+        }
+    }
+
+    /**
+     * Retrait de l'alias des index
+     * @param alias l'alias de l'entre
+     */
+    synchronized void remove(String alias) {
+        Indexed indexed = byAlias.remove(alias);
+        if (indexed != null) {
+            remove(byFingerprint, indexed.fingerprint, alias);
+            remove(byKeyId, indexed.keyId, alias);
+            remove(bySubjectKeyId, indexed.subjectKeyId, alias);
+            remove(bySubject, indexed.subject, alias);
+        }
+    }
+
+    synchronized Certificate byFingerprint(String fingerprint) {
+        return first(byFingerprint.get(fingerprint.toLowerCase()));
+    }
+
+    synchronized Certificate byKeyId(byte[] keyId) {
+        return first(byKeyId.get(ByteBuffer.wrap(keyId)));
+    }
+
+    synchronized Certificate bySubjectKeyId(byte[] subjectKeyId) {
+        return first(bySubjectKeyId.get(ByteBuffer.wrap(subjectKeyId)));
+    }
+
+    synchronized List<Certificate> bySubject(X500Principal subject) {
+        Set<String> aliases = bySubject.get(subject);
+        if (aliases == null)
+            return Collections.emptyList();
+        List<Certificate> certs = new ArrayList<>(aliases.size());
+        for (String alias : aliases)
+            certs.add(byAlias.get(alias).cert);
+        return certs;
+    }
+
+    synchronized int size() {
+        return byAlias.size();
+    }
+
+    private Certificate first(Set<String> aliases) {
+        return aliases == null ? null : byAlias.get(aliases.iterator().next()).cert;
+    }
+
+    private static <K> void add(Map<K, Set<String>> index, K key, String alias) {
+        if (key == null)
+            return;
+        Set<String> aliases = index.get(key);
+        if (aliases == null) {
+            aliases = new LinkedHashSet<>(2);
+            index.put(key, aliases);
+        }
+        aliases.add(alias);
+    }
+
+    private static <K> void remove(Map<K, Set<String>> index, K key, String alias) {
+        if (key == null)
+            return;
+        Set<String> aliases = index.get(key);
+        if (aliases != null && aliases.remove(alias) && aliases.isEmpty())
+            index.remove(key);
+    }
+
+    /**
+     * Lecture de l'extension SubjectKeyIdentifier d'un certificat
+     * @return l'identifiant, ou <code>null</code> si l'extension est absente ou invalide
+     */
+    static ByteBuffer subjectKeyIdentifier(X509Certificate cert) {
+        byte[] extension = cert.getExtensionValue(SUBJECT_KEY_IDENTIFIER);
+        if (extension == null)
+            return null;
+        try {
+            return ByteBuffer.wrap(ASN1OctetString.getInstance(
+                    X509ExtensionUtil.fromExtensionValue(extension)).getOctets());
+        } catch (IOException | IllegalArgumentException ex) {
+            return null;
+        }
+    }
+}
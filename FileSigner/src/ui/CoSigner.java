@@ -0,0 +1,282 @@
+package ui;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Cosignature d'un fichier par plusieurs cls et algorithmes en une seule
+ * lecture : chaque buffer lu est transmis  tous les objets signants, par
+ * exemple SHA256withECDSA sur P-256 et SHA384withECDSA sur P-384. Avec un
+ * paralllisme suprieur  1, les objets signants d'un mme buffer sont mis 
+ * jour en parallle. Le rsultat est un paquet de signatures dtaches, crit
+ * au format de {@link DetachedSignatureWriter}, que la vrification contrle
+ * elle aussi en une seule lecture.
+ */
+public class CoSigner implements Closeable {
+    // Taille en de de laquelle un buffer est transmis squentiellement
+    private static final int PARALLEL_THRESHOLD = 64 * 1024;
+
+    /**
+     * Une cl de signature et l'algorithme qui lui est appliqu
+     */
+    public static final class SigningKey {
+        private final String algorithm;
+        private final PrivateKey privateKey;
+        private final byte[] keyId;
+
+        /**
+         * @param algorithm l'algorithme de signature (voir {@link DetachedSignature})
+         * @param privateKey la cl prive
+         * @param keyId l'identifiant de la cl inscrit dans la signature (voir {@link DetachedSignature#keyId})
+         */
+        public SigningKey(String algorithm, PrivateKey privateKey, byte[] keyId) {
+            // vrifie que l'algorithme peut figurer dans une signature dtache
+            DetachedSignature.algorithmId(algorithm);
+            this.algorithm = algorithm;
+            this.privateKey = privateKey;
+            this.keyId = keyId.clone();
+        }
+
+        public String getAlgorithm() {
+            return algorithm;
+        }
+    }
+
+    // Les threads de mise  jour (null si le paralllisme vaut 1)
+    private final ExecutorService executor;
+    private final int parallelism;
+
+    /**
+     * Construction d'un cosignataire
+     * @param parallelism le nombre de threads mettant  jour les objets signants,
+     * y compris le thread de lecture (1 pour une mise  jour squentielle)
+     */
+    public CoSigner(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Nombre de threads invalide : " + parallelism);
+        this.parallelism = parallelism;
+        if (parallelism == 1) {
+            this.executor = null;
+        } else {
+            this.executor = Executors.newFixedThreadPool(parallelism - 1, new DaemonThreadFactory("co-signer"));
+        }
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Cosignature d'un fichier
+     * @param file le fichier  signer
+     * @param keys les cls de signature
+     * @return les signatures dtaches, dans l'ordre des cls
+     * @throws GeneralSecurityException si le calcul d'une signature choue
+     * @throws IOException si la lecture du fichier choue
+     */
+    public List<DetachedSignature> sign(File file, List<SigningKey> keys)
+            throws GeneralSecurityException, IOException {
+        long start = System.nanoTime();
+        try {
+            Signature[] signers = new Signature[keys.size()];
+            for (int i = 0; i < signers.length; i++) {
+                signers[i] = CryptoBackend.signature(keys.get(i).algorithm);
+                CryptoBackend.initSign(signers[i], keys.get(i).privateKey);
+            }
+            long bytes = FileFeeder.feed(file, fanOut(signers));
+            List<DetachedSignature> bundle = new ArrayList<>(signers.length);
+            for (int i = 0; i < signers.length; i++) {
+                SigningKey key = keys.get(i);
+                bundle.add(new DetachedSignature(key.algorithm, key.keyId, signers[i].sign()));
+            }
+            Metrics.record(Metrics.Operation.SIGN, start, bytes);
+            return bundle;
+        } catch (GeneralSecurityException | IOException | RuntimeException ex) {
+            Metrics.error(Metrics.Operation.SIGN, start, ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Vrification d'un paquet de signatures en une seule lecture du fichier ;
+     * chaque signature est vrifie avec la cl publique de mme identifiant
+     * @param file le fichier  vrifier
+     * @param bundle les signatures dtaches
+     * @param publicKeys les cls publiques candidates
+     * @return le rsultat de la vrification de chaque signature, dans l'ordre du paquet
+     * @throws GeneralSecurityException si aucune cl ne correspond  une signature ou si une vrification choue
+     * @throws IOException si la lecture du fichier choue
+     */
+    public boolean[] verify(File file, List<DetachedSignature> bundle, List<PublicKey> publicKeys)
+            throws GeneralSecurityException, IOException {
+        long start = System.nanoTime();
+        try {
+            List<byte[]> keyIds = new ArrayList<>(publicKeys.size());
+            for (PublicKey publicKey : publicKeys)
+                keyIds.add(DetachedSignature.keyId(publicKey));
+            Signature[] verifiers = new Signature[bundle.size()];
+            for (int i = 0; i < verifiers.length; i++) {
+                DetachedSignature signature = bundle.get(i);
+                PublicKey publicKey = null;
+                for (int k = 0; k < keyIds.size() && publicKey == null; k++) {
+                    if (signature.hasKeyId(keyIds.get(k)))
+                        publicKey = publicKeys.get(k);
+                }
+                if (publicKey == null)
+                    throw new SignatureException("Aucune cl publique pour la signature " + i);
+                verifiers[i] = CryptoBackend.signature(signature.getAlgorithm());
+                CryptoBackend.initVerify(verifiers[i], publicKey);
+            }
+            long bytes = FileFeeder.feed(file, fanOut(verifiers));
+            boolean[] results = new boolean[verifiers.length];
+            for (int i = 0; i < verifiers.length; i++) {
+                DetachedSignature signature = bundle.get(i);
+                results[i] = verifiers[i].verify(signature.signatureBuffer(), 0, signature.getSignatureLength());
+            }
+            Metrics.record(Metrics.Operation.VERIFY, start, bytes);
+            return results;
+        } catch (GeneralSecurityException | IOException | RuntimeException ex) {
+            Metrics.error(Metrics.Operation.VERIFY, start, ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Vrification d'un paquet de signatures
+     * @return <code>true</code> si le paquet n'est pas vide et si toutes ses signatures sont correctes
+     * @see #verify(File, List, List)
+     */
+    public boolean verifyAll(File file, List<DetachedSignature> bundle, List<PublicKey> publicKeys)
+            throws GeneralSecurityException, IOException {
+        if (bundle.isEmpty())
+            return false;
+        for (boolean valid : verify(file, bundle, publicKeys)) {
+            if (!valid)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Destination transmettant chaque buffer  tous les objets signants
+     */
+    private FileFeeder.Sink fanOut(final Signature[] signatures) {
+        if (executor == null || signatures.length < 2) {
+            return new FileFeeder.Sink() {
+                @Override
+                public void update(ByteBuffer buffer) throws GeneralSecurityException {
+                    updateAll(signatures, buffer);
+                }
+            };
+        }
+        return new FileFeeder.Sink() {
+            @Override
+            public void update(ByteBuffer buffer) throws GeneralSecurityException {
+                if (buffer.remaining() < PARALLEL_THRESHOLD) {
+                    updateAll(signatures, buffer);
+                    return;
+                }
+                // le buffer est rutilis par la lecture suivante : chaque objet
+                // signant lit une vue indpendante et tous doivent avoir termin
+                final CountDownLatch done = new CountDownLatch(signatures.length - 1);
+                final AtomicReference<GeneralSecurityException> failure = new AtomicReference<>();
+                for (int i = 1; i < signatures.length; i++) {
+                    final Signature signature = signatures[i];
+                    final ByteBuffer view = buffer.duplicate();
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                signature.update(view);
+                            } catch (GeneralSecurityException ex) {
+                                failure.compareAndSet(null, ex);
+                            } catch (RuntimeException ex) {
+                                failure.compareAndSet(null, new SignatureException(ex));
+                            } finally {
+                                done.countDown();
+                            }
+                        }
+                    });
+                }
+                signatures[0].update(buffer.duplicate());
+                try {
+                    done.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new SignatureException("Mise  jour interrompue", ex);
+                }
+                if (failure.get() != null)
+                    throw failure.get();
+                buffer.position(buffer.limit());
+            }
+        };
+    }
+
+    private static void updateAll(Signature[] signatures, ByteBuffer buffer) throws GeneralSecurityException {
+        int position = buffer.position();
+        for (Signature signature : signatures) {
+            buffer.position(position);
+            signature.update(buffer);
+        }
+    }
+
+    /**
+     * criture d'un paquet de signatures dans un fichier, par un fichier temporaire renomm ensuite
+     * @param bundle les signatures
+     * @param file le fichier de destination
+     * @throws IOException si l'criture choue
+     */
+    public static void writeBundle(List<DetachedSignature> bundle, File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DetachedSignatureWriter writer = new DetachedSignatureWriter(new FileOutputStream(tmp))) {
+            for (DetachedSignature signature : bundle)
+                writer.write(signature);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Lecture d'un paquet de signatures
+     * @param file le fichier crit par {@link #writeBundle}
+     * @return les signatures
+     * @throws IOException si la lecture choue ou si le format est invalide
+     */
+    public static List<DetachedSignature> readBundle(File file) throws IOException {
+        List<DetachedSignature> bundle = new ArrayList<>();
+        try (DetachedSignatureReader reader = new DetachedSignatureReader(new FileInputStream(file))) {
+            DetachedSignature signature = new DetachedSignature();
+            while (reader.read(signature)) {
+                bundle.add(signature);
+                signature = new DetachedSignature();
+            }
+        }
+        return Collections.unmodifiableList(bundle);
+    }
+
+    /**
+     * Arrt des threads de mise  jour
+     */
+    @Override
+    public void close() {
+        if (executor != null)
+            executor.shutdown();
+    }
+}
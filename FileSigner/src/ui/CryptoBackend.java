@@ -0,0 +1,486 @@
+package ui;
+import java.lang.management.ManagementFactory;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.Security;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Choix du fournisseur cryptographique (backend) des signatures, des
+ * vrifications et des gnrations de cls : BouncyCastle, SunEC, ou l'ordre
+ * de prfrence de la plate-forme (comportement par dfaut). Le choix est fait
+ * par algorithme, soit explicitement ({@link #select}), soit par un talonnage
+ * ({@link #calibrate}) qui mesure chaque backend disponible et retient le plus
+ * rapide. Les choix et les dbits mesurs sont exposs par JMX avec les
+ * mesures de {@link Metrics}.
+ * <p>
+ * Les algorithmes sont ceux de signature (SHA256withECDSA, Ed25519...) et,
+ * pour la gnration de cls, ceux des cls (EC, Ed25519, Ed448). Une cl
+ * produite par un backend est convertie par son encodage lorsqu'un autre la
+ * refuse. EdDSA n'est fourni que par SunEC,  partir de Java 15.
+ * Un choix s'applique aux objets signants crs aprs lui.
+ */
+public final class CryptoBackend {
+
+    /**
+     * Les backends disponibles
+     */
+    public enum Backend {
+        PLATFORM(null), BOUNCY_CASTLE("BC"), SUN_EC("SunEC");
+
+        private final String providerName;
+
+        Backend(String providerName) {
+            this.providerName = providerName;
+        }
+
+        /**
+         * @return le provider du backend, ou <code>null</code> pour l'ordre de
+         * prfrence de la plate-forme ou si le provider est absent
+         */
+        public Provider getProvider() {
+            if (providerName == null)
+                return null;
+            if (this == BOUNCY_CASTLE)
+                ECSigner.installProvider();
+            return Security.getProvider(providerName);
+        }
+
+        /**
+         * @param type le type de service (Signature, KeyPairGenerator...)
+         * @param algorithm l'algorithme
+         * @return <code>true</code> si le backend fournit ce service
+         */
+        public boolean supports(String type, String algorithm) {
+            if (providerName == null)
+                return Security.getProviders(type + "." + algorithm) != null;
+            Provider provider = getProvider();
+            if (provider == null)
+                return false;
+            try {
+                switch (type) {
+                case "Signature":
+                    Signature.getInstance(algorithm, provider);
+                    return true;
+                case "KeyPairGenerator":
+                    KeyPairGenerator.getInstance(algorithm, provider);
+                    return true;
+                default:
+                    return provider.getService(type, algorithm) != null;
+                }
+            } catch (NoSuchAlgorithmException ex) {
+                return false;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return providerName == null ? "platform" : providerName;
+        }
+
+        /**
+         * @param name le nom d'un backend (platform, bc, sunec), sans distinction de casse
+         * @return le backend
+         */
+        public static Backend forName(String name) {
+            for (Backend backend : values()) {
+                if (backend.toString().equalsIgnoreCase(name) || backend.name().equalsIgnoreCase(name))
+                    return backend;
+            }
+            throw new IllegalArgumentException("Backend inconnu : " + name);
+        }
+    }
+
+    /**
+     * Interface JMX des choix de backend, enregistre sous le nom
+     * <code>ui:type=CryptoBackend</code> (voir {@link Metrics#registerMBeans()})
+     */
+    public interface SelectionMXBean {
+        /**
+         * @return le backend choisi pour chaque algorithme
+         */
+        Map<String, String> getSelections();
+
+        /**
+         * @return les dbits mesurs par l'talonnage, en oprations par seconde,
+         * indexs par <code>algorithme/backend</code>
+         */
+        Map<String, Double> getCalibrations();
+    }
+
+    // Dure par dfaut de la mesure de chaque backend lors d'un talonnage
+    public static final long DEFAULT_CALIBRATION_MILLIS = 200;
+
+    // La taille du message sign lors d'un talonnage
+    private static final int CALIBRATION_MESSAGE_SIZE = 1024;
+
+    // Les couples algorithme de signature, courbe talonns par dfaut
+    private static final String[][] DEFAULT_CALIBRATIONS = {
+        { "SHA256withECDSA", "P-256" }, { "SHA384withECDSA", "P-384" }, { "SHA512withECDSA", "P-521" },
+        { "Ed25519", null }, { "Ed448", null }
+    };
+
+    // Les backends choisis, indexs par le nom de l'algorithme en majuscules
+    private static final ConcurrentMap<String, Backend> SELECTIONS = new ConcurrentHashMap<>();
+
+    // Les dbits mesurs, indexs par algorithme/backend
+    private static final ConcurrentMap<String, Double> CALIBRATIONS = new ConcurrentHashMap<>();
+
+    private static final SelectionMXBean MBEAN = new SelectionMXBean() {
+        @Override
+        public Map<String, String> getSelections() {
+            Map<String, String> result = new TreeMap<>();
+            for (Map.Entry<String, Backend> entry : SELECTIONS.entrySet())
+                result.put(entry.getKey(), entry.getValue().toString());
+            return result;
+        }
+
+        @Override
+        public Map<String, Double> getCalibrations() {
+            return new TreeMap<>(CALIBRATIONS);
+        }
+    };
+
+    private CryptoBackend() {
+    }
+
+    private static String normalize(String algorithm) {
+        return algorithm.toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Choix explicite du backend d'un algorithme
+     * @param algorithm l'algorithme de signature ou de cl
+     * @param backend le backend  utiliser
+     * @throws NoSuchAlgorithmException si le backend ne fournit pas l'algorithme
+     */
+    public static void select(String algorithm, Backend backend) throws NoSuchAlgorithmException {
+        if (!backend.supports("Signature", algorithm) && !backend.supports("KeyPairGenerator", algorithm))
+            throw new NoSuchAlgorithmException("Le backend " + backend + " ne fournit pas " + algorithm);
+        if (backend == Backend.PLATFORM)
+            SELECTIONS.remove(normalize(algorithm));
+        else
+            SELECTIONS.put(normalize(algorithm), backend);
+    }
+
+    /**
+     * @param algorithm l'algorithme de signature ou de cl
+     * @return le backend choisi, {@link Backend#PLATFORM} par dfaut
+     */
+    public static Backend getSelection(String algorithm) {
+        Backend backend = SELECTIONS.get(normalize(algorithm));
+        return backend == null ? Backend.PLATFORM : backend;
+    }
+
+    /**
+     * @return le backend choisi pour chaque algorithme, hors choix par dfaut
+     */
+    public static Map<String, Backend> getSelections() {
+        return new TreeMap<>(SELECTIONS);
+    }
+
+    /**
+     * @return l'interface JMX des choix de backend
+     */
+    public static SelectionMXBean getMBean() {
+        return MBEAN;
+    }
+
+    /**
+     * Retour de tous les algorithmes au choix par dfaut et oubli des mesures
+     */
+    public static void reset() {
+        SELECTIONS.clear();
+        CALIBRATIONS.clear();
+    }
+
+    /**
+     * Configuration du backend d'un algorithme de signature et de l'algorithme de ses cls
+     * @param spec le nom d'un backend, ou <code>auto</code> pour un talonnage
+     * @param algorithm l'algorithme de signature
+     * @param curve la courbe utilise pour l'talonnage (null pour EdDSA)
+     * @return le backend retenu pour l'algorithme de signature
+     * @throws GeneralSecurityException si le backend ne fournit pas l'algorithme
+     */
+    public static Backend configure(String spec, String algorithm, String curve) throws GeneralSecurityException {
+        if (spec.equalsIgnoreCase("auto"))
+            return calibrate(algorithm, curve, DEFAULT_CALIBRATION_MILLIS);
+        Backend backend = Backend.forName(spec);
+        select(algorithm, backend);
+        String keyAlgorithm = keyAlgorithm(algorithm);
+        if (backend.supports("KeyPairGenerator", keyAlgorithm)) {
+            select(keyAlgorithm, backend);
+            // un talonnage antrieur de la courbe ne masque pas ce choix explicite
+            if (curve != null)
+                SELECTIONS.remove(curveSelection(curve));
+        }
+        return backend;
+    }
+
+    /**
+     * Objet signant fourni par le backend choisi pour un algorithme
+     * @param algorithm l'algorithme de signature
+     * @return l'objet signant,  initialiser par {@link #initSign} ou {@link #initVerify}
+     * @throws NoSuchAlgorithmException si l'algorithme n'est pas disponible
+     */
+    public static Signature signature(String algorithm) throws NoSuchAlgorithmException {
+        Provider provider = getSelection(algorithm).getProvider();
+        return provider == null ? Signature.getInstance(algorithm) : Signature.getInstance(algorithm, provider);
+    }
+
+    /**
+     * Initialisation d'un objet signant, la cl tant convertie si son provider la refuse
+     */
+    public static void initSign(Signature signature, PrivateKey privateKey) throws GeneralSecurityException {
+        try {
+            signature.initSign(privateKey);
+        } catch (InvalidKeyException ex) {
+            signature.initSign((PrivateKey)translate(signature, privateKey, ex));
+        }
+    }
+
+    /**
+     * Initialisation d'un objet vrifiant, la cl tant convertie si son provider la refuse
+     */
+    public static void initVerify(Signature signature, PublicKey publicKey) throws GeneralSecurityException {
+        try {
+            signature.initVerify(publicKey);
+        } catch (InvalidKeyException ex) {
+            signature.initVerify((PublicKey)translate(signature, publicKey, ex));
+        }
+    }
+
+    /**
+     * Conversion d'une cl par son encodage pour le provider d'un objet signant
+     * @param rejection le refus initial, relev si la conversion choue
+     */
+    private static Key translate(Signature signature, Key key, InvalidKeyException rejection)
+            throws InvalidKeyException {
+        // les cls BouncyCastle se nomment ECDSA, celles de la plate-forme EC
+        String algorithm = key.getAlgorithm().equalsIgnoreCase("ECDSA") ? "EC" : key.getAlgorithm();
+        try {
+            KeyFactory factory = KeyFactory.getInstance(algorithm, signature.getProvider());
+            if (key instanceof PrivateKey)
+                return factory.generatePrivate(new PKCS8EncodedKeySpec(key.getEncoded()));
+            return factory.generatePublic(new X509EncodedKeySpec(key.getEncoded()));
+        } catch (GeneralSecurityException | RuntimeException ex) {
+            rejection.addSuppressed(ex);
+            throw rejection;
+        }
+    }
+
+    /**
+     * Gnrateur de paires de cls fourni par le backend choisi
+     * @param curve le nom d'une courbe EC (P-256, secp256r1...) ou Ed25519, Ed448
+     * @return le gnrateur initialis
+     * @throws GeneralSecurityException si la courbe n'est pas disponible
+     */
+    public static KeyPairGenerator keyPairGenerator(String curve) throws GeneralSecurityException {
+        // le choix talonn pour la courbe prime sur celui de l'algorithme de cl
+        Backend backend = SELECTIONS.get(curveSelection(curve));
+        return keyPairGenerator(backend == null ? getSelection(keyAlgorithmForCurve(curve)) : backend, curve);
+    }
+
+    private static KeyPairGenerator keyPairGenerator(Backend backend, String curve) throws GeneralSecurityException {
+        String keyAlgorithm = keyAlgorithmForCurve(curve);
+        if (!keyAlgorithm.equals("EC")) {
+            Provider provider = backend.getProvider();
+            return provider == null ? KeyPairGenerator.getInstance(keyAlgorithm)
+                    : KeyPairGenerator.getInstance(keyAlgorithm, provider);
+        }
+        KeyPairGenerator generator;
+        if (backend == Backend.PLATFORM) {
+            // les noms de courbes (P-256...) sont ceux de BouncyCastle
+            ECSigner.installProvider();
+            generator = KeyPairGenerator.getInstance("ECDSA");
+        } else {
+            generator = KeyPairGenerator.getInstance("EC", backend.getProvider());
+        }
+        generator.initialize(new ECGenParameterSpec(backend == Backend.SUN_EC ? secName(curve) : curve));
+        return generator;
+    }
+
+    /**
+     * @return la cl du choix de gnrateur d'une courbe : EC/SECP256R1... ou ED25519, ED448
+     */
+    private static String curveSelection(String curve) {
+        String keyAlgorithm = keyAlgorithmForCurve(curve);
+        return keyAlgorithm.equals("EC") ? "EC/" + normalize(secName(curve)) : normalize(keyAlgorithm);
+    }
+
+    /**
+     * @return l'algorithme des cls d'une courbe : EC, ou le nom de la courbe pour EdDSA
+     */
+    private static String keyAlgorithmForCurve(String curve) {
+        return curve.equalsIgnoreCase("Ed25519") || curve.equalsIgnoreCase("Ed448") ? curve : "EC";
+    }
+
+    /**
+     * @param algorithm un algorithme de signature
+     * @return l'algorithme de ses cls (EC pour ECDSA)
+     */
+    static String keyAlgorithm(String algorithm) {
+        return normalize(algorithm).endsWith("WITHECDSA") ? "EC" : algorithm;
+    }
+
+    // P-256 -> secp256r1 : SunEC ne connat pas les noms courts du NIST
+    private static String secName(String curve) {
+        return curve.toUpperCase(Locale.ROOT).matches("P-\\d+") ? "secp" + curve.substring(2) + "r1" : curve;
+    }
+
+    /**
+     * talonnage des backends pour les algorithmes usuels : ECDSA sur P-256,
+     * P-384 et P-521, Ed25519 et Ed448 lorsqu'ils sont disponibles
+     * @param millis la dure de la mesure de chaque backend et de chaque opration
+     */
+    public static void calibrate(long millis) {
+        for (String[] calibration : DEFAULT_CALIBRATIONS) {
+            try {
+                calibrate(calibration[0], calibration[1], millis);
+            } catch (GeneralSecurityException ex) {
+                // algorithme absent de cette plate-forme
+            }
+        }
+    }
+
+    /**
+     * talonnage des backends d'un algorithme de signature : chaque backend qui
+     * le fournit est mesur en gnration de cls et en signature suivie d'une
+     * vrification, et le plus rapide est retenu pour chaque opration. Un
+     * premier tour, non mesur, chauffe tous les backends afin que le premier
+     * mesur ne soit pas pnalis par la compilation du code qu'ils partagent.
+     * @param algorithm l'algorithme de signature
+     * @param curve la courbe des cls de mesure (null pour EdDSA)
+     * @param millis la dure de la mesure de chaque backend et de chaque opration
+     * @return le backend retenu pour l'algorithme de signature
+     * @throws GeneralSecurityException si aucun backend ne fournit l'algorithme
+     */
+    public static Backend calibrate(String algorithm, String curve, long millis) throws GeneralSecurityException {
+        String keyAlgorithm = keyAlgorithm(algorithm);
+        if (curve == null)
+            curve = algorithm;
+        byte[] message = new byte[CALIBRATION_MESSAGE_SIZE];
+        List<Backend> candidates = new ArrayList<>();
+        for (Backend backend : Arrays.asList(Backend.BOUNCY_CASTLE, Backend.SUN_EC)) {
+            if (!backend.supports("Signature", algorithm) || !backend.supports("KeyPairGenerator", keyAlgorithm))
+                continue;
+            try {
+                // tour de chauffe, dont les mesures sont ignores
+                measure(backend, algorithm, curve, message, millis);
+                candidates.add(backend);
+            } catch (GeneralSecurityException | RuntimeException ex) {
+                // backend incapable de traiter cette courbe : il est cart
+            }
+        }
+        Backend bestSigner = null;
+        Backend bestGenerator = null;
+        double bestSignRate = 0;
+        double bestKeygenRate = 0;
+        for (Backend backend : candidates) {
+            try {
+                double[] rates = measure(backend, algorithm, curve, message, millis);
+                CALIBRATIONS.put(curveSelection(curve) + "/" + backend, rates[0]);
+                CALIBRATIONS.put(normalize(algorithm) + "/" + backend, rates[1]);
+                if (rates[1] > bestSignRate) {
+                    bestSignRate = rates[1];
+                    bestSigner = backend;
+                }
+                if (rates[0] > bestKeygenRate) {
+                    bestKeygenRate = rates[0];
+                    bestGenerator = backend;
+                }
+            } catch (GeneralSecurityException | RuntimeException ex) {
+                // backend incapable de traiter cette courbe : il est cart
+            }
+        }
+        if (bestSigner == null)
+            throw new NoSuchAlgorithmException("Aucun backend ne fournit " + algorithm + " sur " + curve);
+        SELECTIONS.put(normalize(algorithm), bestSigner);
+        // le gnrateur est choisi pour cette courbe seulement
+        SELECTIONS.put(curveSelection(curve), bestGenerator);
+        return bestSigner;
+    }
+
+    /**
+     * Mesure d'un backend pendant millis en gnration de cls, puis pendant
+     * millis en signature suivie d'une vrification
+     * @return les dbits par seconde de gnration de cls et de signature
+     */
+    private static double[] measure(Backend backend, String algorithm, String curve, byte[] message, long millis)
+            throws GeneralSecurityException {
+        KeyPairGenerator generator = keyPairGenerator(backend, curve);
+        KeyPair keyPair = generator.generateKeyPair();
+        long count = 0;
+        long start = System.nanoTime();
+        long end = start + millis * 1000000L;
+        long now;
+        do {
+            generator.generateKeyPair();
+            count++;
+        } while ((now = System.nanoTime()) < end);
+        double keygenRate = count / ((now - start) / 1e9);
+
+        Signature signer = Signature.getInstance(algorithm, backend.getProvider());
+        Signature verifier = Signature.getInstance(algorithm, backend.getProvider());
+        initSign(signer, keyPair.getPrivate());
+        initVerify(verifier, keyPair.getPublic());
+        count = 0;
+        start = System.nanoTime();
+        end = start + millis * 1000000L;
+        do {
+            signer.update(message);
+            verifier.update(message);
+            if (!verifier.verify(signer.sign()))
+                throw new IllegalStateException("Signature rejete par " + backend);
+            count++;
+        } while ((now = System.nanoTime()) < end);
+        return new double[] { keygenRate, count / ((now - start) / 1e9) };
+    }
+
+    /**
+     * Enregistrement de l'interface JMX auprs du serveur de la plate-forme
+     */
+    static void registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = objectName();
+        if (!server.isRegistered(name))
+            server.registerMBean(MBEAN, name);
+    }
+
+    static void unregisterMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = objectName();
+        if (server.isRegistered(name))
+            server.unregisterMBean(name);
+    }
+
+    /**
+     * @return le nom JMX des choix de backend
+     * @throws JMException si le nom est invalide
+     */
+    public static ObjectName objectName() throws JMException {
+        return new ObjectName(Metrics.JMX_DOMAIN + ":type=CryptoBackend");
+    }
+}
@@ -0,0 +1,40 @@
+package ui;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fabrique de threads dmons numrots : les pools de l'application ne
+ * doivent pas empcher l'arrt de la JVM, et leurs threads sont nomms
+ * d'aprs le pool afin d'tre reconnus dans les traces et les dumps.
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+    private final String prefix;
+    private final int priority;
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * Construction d'une fabrique de threads de priorit normale
+     * @param prefix le prfixe du nom des threads, suivi de leur numro
+     */
+    public DaemonThreadFactory(String prefix) {
+        this(prefix, Thread.NORM_PRIORITY);
+    }
+
+    /**
+     * Construction d'une fabrique de threads
+     * @param prefix le prfixe du nom des threads, suivi de leur numro
+     * @param priority la priorit des threads crs
+     */
+    public DaemonThreadFactory(String prefix, int priority) {
+        this.prefix = prefix;
+        this.priority = priority;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+        t.setDaemon(true);
+        t.setPriority(priority);
+        return t;
+    }
+}
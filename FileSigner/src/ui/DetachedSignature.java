@@ -0,0 +1,262 @@
+package ui;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.Arrays;
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * Signature dtache au format binaire compact : identifiant de l'algorithme,
+ * identifiant de la cl et signature brute (DER). Une instance est modifiable
+ * afin d'tre rutilise par {@link DetachedSignatureReader} sans allocation
+ * par signature lue. Le format d'un enregistrement est :
+ * <pre>
+ * u8  identifiant de l'algorithme
+ * u8  longueur de l'identifiant de cl, suivie de l'identifiant
+ * u16 longueur de la signature, suivie de la signature
+ * </pre>
+ * L'encodage en base64 de l'enregistrement n'est qu'une reprsentation textuelle optionnelle.
+ */
+public final class DetachedSignature {
+    // Les algorithmes connus, indexs par leur identifiant (0 est rserv)
+    private static final String[] ALGORITHMS = {
+        null, "SHA1withECDSA", "SHA224withECDSA", "SHA256withECDSA",
+        "SHA384withECDSA", "SHA512withECDSA", "NONEwithECDSA", "Ed25519", "Ed448"
+    };
+
+    // Suffixe ajout au nom d'un fichier pour nommer sa signature dtache
+    public static final String SUFFIX = ".sig";
+
+    // Longueur des identifiants de cl calculs par keyId
+    public static final int KEY_ID_LENGTH = 8;
+
+    // Longueur maximale d'un enregistrement
+    static final int MAX_RECORD_LENGTH = 1 + 1 + 255 + 2 + 0xFFFF;
+
+    private int algorithmId;
+    private byte[] keyId = new byte[KEY_ID_LENGTH];
+    private int keyIdLength;
+    private byte[] signature = new byte[160];
+    private int signatureLength;
+
+    /**
+     * Construction d'une signature vide, destine  tre remplie par un lecteur
+     */
+    public DetachedSignature() {
+    }
+
+    /**
+     * Construction d'une signature dtache
+     * @param algorithm le nom de l'algorithme de signature
+     * @param keyId l'identifiant de la cl (ventuellement vide)
+     * @param signature la signature brute
+     */
+    public DetachedSignature(String algorithm, byte[] keyId, byte[] signature) {
+        set(algorithmId(algorithm), keyId, 0, keyId.length, signature, 0, signature.length);
+    }
+
+    /**
+     * Identifiant numrique d'un algorithme
+     * @param algorithm le nom de l'algorithme
+     * @return son identifiant dans le format binaire
+     */
+    public static int algorithmId(String algorithm) {
+        for (int i = 1; i < ALGORITHMS.length; i++) {
+            if (ALGORITHMS[i].equalsIgnoreCase(algorithm))
+                return i;
+        }
+        throw new IllegalArgumentException("Algorithme non pris en charge : " + algorithm);
+    }
+
+    /**
+     * Nom d'un algorithme  partir de son identifiant
+     * @param id l'identifiant de l'algorithme
+     * @return le nom de l'algorithme
+     */
+    public static String algorithmName(int id) {
+        if (id <= 0 || id >= ALGORITHMS.length)
+            throw new IllegalArgumentException("Identifiant d'algorithme inconnu : " + id);
+        return ALGORITHMS[id];
+    }
+
+    /**
+     * Identifiant d'une cl publique : les premiers octets du SHA-256 de son encodage X.509
+     * @param publicKey la cl publique
+     * @return l'identifiant de la cl
+     */
+    public static byte[] keyId(PublicKey publicKey) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(publicKey.getEncoded());
+            return Arrays.copyOf(hash, KEY_ID_LENGTH);
+        } catch (NoSuchAlgorithmException ex) {
+            // SHA-256 est toujours disponible
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Remplissage de la signature, les buffers internes tant rutiliss si possible
+     */
+    void set(int algorithmId, byte[] keyId, int keyIdOffset, int keyIdLength,
+            byte[] signature, int signatureOffset, int signatureLength) {
+        algorithmName(algorithmId);
+        if (keyIdLength > 255 || signatureLength > 0xFFFF)
+            throw new IllegalArgumentException("Signature dtache trop longue");
+        this.algorithmId = algorithmId;
+        if (this.keyId.length < keyIdLength)
+            this.keyId = new byte[keyIdLength];
+        System.arraycopy(keyId, keyIdOffset, this.keyId, 0, keyIdLength);
+        this.keyIdLength = keyIdLength;
+        if (this.signature.length < signatureLength)
+            this.signature = new byte[signatureLength];
+        System.arraycopy(signature, signatureOffset, this.signature, 0, signatureLength);
+        this.signatureLength = signatureLength;
+    }
+
+    public int getAlgorithmId() {
+        return algorithmId;
+    }
+
+    public String getAlgorithm() {
+        return algorithmName(algorithmId);
+    }
+
+    /**
+     * @return une copie de l'identifiant de la cl
+     */
+    public byte[] getKeyId() {
+        return Arrays.copyOf(keyId, keyIdLength);
+    }
+
+    /**
+     * Comparaison de l'identifiant de la cl, sans copie
+     * @param id un identifiant de cl
+     * @return <code>true</code> si les identifiants sont gaux
+     */
+    public boolean hasKeyId(byte[] id) {
+        if (id.length != keyIdLength)
+            return false;
+        for (int i = 0; i < keyIdLength; i++) {
+            if (id[i] != keyId[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return une copie de la signature brute
+     */
+    public byte[] getSignature() {
+        return Arrays.copyOf(signature, signatureLength);
+    }
+
+    /**
+     * @return le buffer interne contenant la signature brute (voir {@link #getSignatureLength()})
+     */
+    byte[] signatureBuffer() {
+        return signature;
+    }
+
+    public int getSignatureLength() {
+        return signatureLength;
+    }
+
+    /**
+     * Encodage de l'enregistrement dans un buffer
+     * @param buffer le buffer de destination, d'au moins {@link #getEncodedLength()} octets
+     * @return le nombre d'octets crits
+     */
+    int encode(byte[] buffer) {
+        int p = 0;
+        buffer[p++] = (byte)algorithmId;
+        buffer[p++] = (byte)keyIdLength;
+        System.arraycopy(keyId, 0, buffer, p, keyIdLength);
+        p += keyIdLength;
+        buffer[p++] = (byte)(signatureLength >>> 8);
+        buffer[p++] = (byte)signatureLength;
+        System.arraycopy(signature, 0, buffer, p, signatureLength);
+        return p + signatureLength;
+    }
+
+    /**
+     * @return la longueur de l'enregistrement encod
+     */
+    public int getEncodedLength() {
+        return 4 + keyIdLength + signatureLength;
+    }
+
+    /**
+     * @return l'enregistrement encod
+     */
+    public byte[] getEncoded() {
+        byte[] encoded = new byte[getEncodedLength()];
+        encode(encoded);
+        return encoded;
+    }
+
+    /**
+     * Dcodage d'un enregistrement
+     * @param encoded l'enregistrement encod
+     * @return la signature dcode
+     * @throws IOException si l'enregistrement est invalide
+     */
+    public static DetachedSignature decode(byte[] encoded) throws IOException {
+        if (encoded.length < 4)
+            throw new IOException("Signature dtache tronque");
+        int keyIdLength = encoded[1] & 0xFF;
+        if (encoded.length < 4 + keyIdLength)
+            throw new IOException("Signature dtache tronque");
+        int signatureLength = (encoded[2 + keyIdLength] & 0xFF) << 8 | encoded[3 + keyIdLength] & 0xFF;
+        if (encoded.length != 4 + keyIdLength + signatureLength)
+            throw new IOException("Longueur de signature dtache incohrente");
+        DetachedSignature result = new DetachedSignature();
+        try {
+            result.set(encoded[0] & 0xFF, encoded, 2, keyIdLength, encoded, 4 + keyIdLength, signatureLength);
+        } catch (IllegalArgumentException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+        return result;
+    }
+
+    /**
+     * @return l'enregistrement encod en base64, sur une seule ligne
+     */
+    public String toBase64() {
+        return new String(Base64.encodeBase64(getEncoded()), StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Dcodage d'un enregistrement encod en base64
+     * @param text l'enregistrement encod en base64
+     * @return la signature dcode
+     * @throws IOException si l'enregistrement est invalide
+     */
+    public static DetachedSignature fromBase64(String text) throws IOException {
+        return decode(Base64.decodeBase64(text));
+    }
+
+    /**
+     * criture de la signature dans un fichier de signature dtache
+     * @param file le fichier de destination
+     * @throws IOException si l'criture choue
+     */
+    public void writeTo(File file) throws IOException {
+        Files.write(file.toPath(), getEncoded());
+    }
+
+    /**
+     * Lecture d'un fichier de signature dtache
+     * @param file le fichier  lire
+     * @return la signature lue
+     * @throws IOException si la lecture choue ou si le format est invalide
+     */
+    public static DetachedSignature readFrom(File file) throws IOException {
+        if (file.length() > MAX_RECORD_LENGTH)
+            throw new IOException("Fichier de signature trop volumineux : " + file);
+        return decode(Files.readAllBytes(file.toPath()));
+    }
+}
@@ -0,0 +1,66 @@
+package ui;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Lecture en flot d'une suite de signatures dtaches crite par
+ * {@link DetachedSignatureWriter}. Chaque lecture remplit une instance de
+ * {@link DetachedSignature} fournie par l'appelant : aucune allocation n'est
+ * faite par signature lue.
+ */
+public class DetachedSignatureReader implements Closeable {
+    // Le flot source
+    private final DataInputStream in;
+
+    // Le buffer de lecture des enregistrements
+    private byte[] buffer = new byte[256];
+
+    /**
+     * Construction d'un lecteur, l'en-tte tant lu et vrifi immdiatement
+     * @param in le flot source
+     * @throws IOException si l'en-tte est absent ou invalide
+     */
+    public DetachedSignatureReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        byte[] header = new byte[DetachedSignatureWriter.HEADER.length];
+        this.in.readFully(header);
+        if (!Arrays.equals(header, DetachedSignatureWriter.HEADER))
+            throw new IOException("Flot de signatures dtaches invalide");
+    }
+
+    /**
+     * Lecture de la signature suivante
+     * @param into la signature  remplir
+     * @return <code>false</code> si la fin du flot est atteinte
+     * @throws IOException si la lecture choue ou si un enregistrement est invalide
+     */
+    public boolean read(DetachedSignature into) throws IOException {
+        int algorithmId = in.read();
+        if (algorithmId == -1)
+            return false;
+        try {
+            int keyIdLength = in.readUnsignedByte();
+            in.readFully(buffer, 0, keyIdLength);
+            int signatureLength = in.readUnsignedShort();
+            if (buffer.length < keyIdLength + signatureLength)
+                buffer = Arrays.copyOf(buffer, keyIdLength + signatureLength);
+            in.readFully(buffer, keyIdLength, signatureLength);
+            into.set(algorithmId, buffer, 0, keyIdLength, buffer, keyIdLength, signatureLength);
+            return true;
+        } catch (EOFException ex) {
+            throw new IOException("Enregistrement de signature tronqu", ex);
+        } catch (IllegalArgumentException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
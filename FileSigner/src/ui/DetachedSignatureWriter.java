@@ -0,0 +1,66 @@
+package ui;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * criture en flot d'une suite de signatures dtaches au format binaire.
+ * Le flot commence par un en-tte identifiant le format, suivi des enregistrements
+ * dcrits dans {@link DetachedSignature}. Le buffer d'encodage est rutilis
+ * d'un enregistrement  l'autre.
+ */
+public class DetachedSignatureWriter implements Closeable, Flushable {
+    // En-tte du flot : "EDS" suivi du numro de version
+    static final byte[] HEADER = {'E', 'D', 'S', 1};
+
+    // Le flot de destination
+    private final OutputStream out;
+
+    // Le buffer d'encodage des enregistrements
+    private byte[] record = new byte[256];
+
+    // Le nombre d'enregistrements crits
+    private long count;
+
+    /**
+     * Construction d'un crivain, l'en-tte tant crit immdiatement
+     * @param out le flot de destination
+     * @throws IOException si l'criture de l'en-tte choue
+     */
+    public DetachedSignatureWriter(OutputStream out) throws IOException {
+        this.out = new BufferedOutputStream(out);
+        this.out.write(HEADER);
+    }
+
+    /**
+     * criture d'une signature
+     * @param signature la signature  crire
+     * @throws IOException si l'criture choue
+     */
+    public void write(DetachedSignature signature) throws IOException {
+        int length = signature.getEncodedLength();
+        if (record.length < length)
+            record = new byte[length];
+        out.write(record, 0, signature.encode(record));
+        count++;
+    }
+
+    /**
+     * @return le nombre de signatures crites
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
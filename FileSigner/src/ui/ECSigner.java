@@ -1,30 +1,55 @@
 package ui;
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.Key;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
+import java.security.Provider;
 import java.security.PublicKey;
 import java.security.Security;
 import java.security.Signature;
-import java.security.spec.ECGenParameterSpec;
+import java.security.SignatureException;
 import java.util.Enumeration;
+import java.util.Locale;
 import org.apache.commons.codec.binary.Base64;
 import org.bouncycastle.jce.ECNamedCurveTable;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
 /**
- * Une classe permettant designer des documents avec le DSA sur les courbes elliptiques
+ * Une classe permettant designer des documents avec le DSA sur les courbes elliptiques.
+ * Les donnes signes peuvent tre un fichier, un tableau d'octets, un buffer
+ * (tas ou direct), un flux ou un canal ; le mode condensat ne ralise que
+ * l'tape ECDSA sur un condensat calcul en amont.
  * @author Patrick Guichet
  */
 public class ECSigner {
-    // Installation du provider BouncyCastle
-    static {
-        Security.addProvider(new BouncyCastleProvider());
+    // Taille des lectures des flux
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    // Le provider BouncyCastle n'est install qu'au premier besoin : son
+    // initialisation est coteuse et les providers de la plate-forme
+    // suffisent aux algorithmes usuels
+    private static volatile boolean providerInstalled;
+
+    /**
+     * Installation du provider BouncyCastle, s'il ne l'est pas dj
+     */
+    public static void installProvider() {
+        if (providerInstalled)
+            return;
+        synchronized (ECSigner.class) {
+            if (Security.getProvider("BC") == null)
+                Security.addProvider(new BouncyCastleProvider());
+            providerInstalled = true;
+        }
     }
 
     /**
@@ -35,13 +60,13 @@ public class ECSigner {
         private final KeyPairGenerator kpg;
 
         /**
-         * Construction d'une instance de la classe
-         * @param curveName le nom officiel (NIST) de la courbe utilise
+         * Construction d'une instance de la classe, utilisant le backend choisi
+         * pour les cls EC (voir {@link CryptoBackend})
+         * @param curveName le nom officiel (NIST) de la courbe utilise, ou Ed25519, Ed448
          * @throws GeneralSecurityException si la construction du gnrateur choue
          */
         public ECKeyPairGenerator(String curveName) throws GeneralSecurityException {
-            this.kpg = KeyPairGenerator.getInstance("ECDSA");
-            kpg.initialize(new ECGenParameterSpec(curveName));
+            this.kpg = CryptoBackend.keyPairGenerator(curveName);
         }
 
         /**
@@ -49,7 +74,15 @@ public class ECSigner {
          * @return
          */
         public KeyPair getECKeyPair() {
-            return kpg.generateKeyPair();
+            long start = System.nanoTime();
+            try {
+                KeyPair keyPair = kpg.generateKeyPair();
+                Metrics.record(Metrics.Operation.KEYGEN, start, 0);
+                return keyPair;
+            } catch (RuntimeException ex) {
+                Metrics.error(Metrics.Operation.KEYGEN, start, ex);
+                throw ex;
+            }
         }
 
         /**
@@ -65,16 +98,191 @@ public class ECSigner {
         }
     }
 
-    // L'objet charg du calcul de la signature
-    private final Signature signer;
+    /**
+     * Objet signant propre  un thread, mmorisant la cl avec laquelle il a t initialis
+     * afin d'viter de le rinitialiser tant que la mme cl est utilise
+     */
+    private static final class Slot {
+        // L'objet charg du calcul de la signature (null en mode condensat
+        // tant qu'aucune cl n'a t utilise)
+        private Signature signature;
+        // La cl de la dernire initialisation (null si l'tat de l'objet est incertain)
+        private Key key;
+
+        private Slot(Signature signature) {
+            this.signature = signature;
+        }
+
+        private Signature forSigning(PrivateKey privateKey) throws GeneralSecurityException {
+            if (key != privateKey) {
+                key = null;
+                CryptoBackend.initSign(signature, privateKey);
+                key = privateKey;
+            }
+            return signature;
+        }
+
+        private Signature forVerifying(PublicKey publicKey) throws GeneralSecurityException {
+            if (key != publicKey) {
+                key = null;
+                CryptoBackend.initVerify(signature, publicKey);
+                key = publicKey;
+            }
+            return signature;
+        }
+
+        // en mode condensat, le provider dpend de la cl : l'objet est recr  chaque changement
+        private Signature forDigestSigning(PrivateKey privateKey) throws GeneralSecurityException {
+            if (key != privateKey) {
+                key = null;
+                signature = digestSignature(privateKey);
+                key = privateKey;
+            }
+            return signature;
+        }
+
+        private Signature forDigestVerifying(PublicKey publicKey) throws GeneralSecurityException {
+            if (key != publicKey) {
+                key = null;
+                signature = digestSignature(publicKey);
+                key = publicKey;
+            }
+            return signature;
+        }
+
+        private void reset() {
+            key = null;
+        }
+    }
+
+    /**
+     * Donnes  signer ou  vrifier, transmises  un objet signant
+     */
+    private interface Source {
+        /**
+         * @return le nombre d'octets transmis
+         */
+        long feed(Signature signer) throws GeneralSecurityException, IOException;
+    }
+
+    // L'algorithme appliquant ECDSA directement au condensat
+    static final String DIGEST_ALGORITHM = "NONEwithECDSA";
+
+    // L'algorithme de signature
+    private final String algorithm;
+
+    // Les objets chargs du calcul de la signature, un par thread : une mme
+    // instance de la classe peut ainsi tre partage entre plusieurs threads
+    private final ThreadLocal<Slot> slots;
+
+    // Les objets du mode condensat, un par thread
+    private final ThreadLocal<Slot> digestSlots = new ThreadLocal<Slot>() {
+        @Override
+        protected Slot initialValue() {
+            return new Slot(null);
+        }
+    };
+
+    // La taille des condensats attendue en mode condensat (0 tant qu'elle n'est pas connue)
+    private volatile int digestLength;
+
+    // Le cache des vrifications russies (null s'il n'est pas activ)
+    private volatile VerificationCache verificationCache;
 
     /**
      * Construction d'une instance de la classe
      * @param algorithm l'algorithme implment
      * @throws GeneralSecurityException si la construction de l'objet signant choue
      */
-    public ECSigner(String algorithm) throws GeneralSecurityException {
-        this.signer = Signature.getInstance(algorithm);
+    public ECSigner(final String algorithm) throws GeneralSecurityException {
+        // vrifie ds la construction que l'algorithme est disponible, au
+        // besoin aprs installation du provider BouncyCastle
+        try {
+            CryptoBackend.signature(algorithm);
+        } catch (NoSuchAlgorithmException ex) {
+            installProvider();
+            CryptoBackend.signature(algorithm);
+        }
+        this.algorithm = algorithm;
+        this.slots = new ThreadLocal<Slot>() {
+            @Override
+            protected Slot initialValue() {
+                try {
+                    return new Slot(CryptoBackend.signature(algorithm));
+                } catch (NoSuchAlgorithmException ex) {
+                    // impossible : l'algorithme a t trouv lors de la construction
+                    throw new IllegalStateException(ex);
+                }
+            }
+        };
+    }
+
+    /**
+     * Accs  l'algorithme de signature
+     * @return le nom de l'algorithme implment
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Activation du cache des vrifications : les vrifications d'un fichier
+     * inchang dj vrifi avec la mme signature et la mme cl ne relisent plus
+     * le fichier
+     * @param cache le cache  utiliser, ou null pour le dsactiver
+     */
+    public void setVerificationCache(VerificationCache cache) {
+        this.verificationCache = cache;
+    }
+
+    /**
+     * Calcul de la signature brute d'un fichier
+     * @param file le fichier  signer
+     * @param privateKey la cl prive pour initialiser la signature
+     * @return la signature sous forme brute
+     * @throws GeneralSecurityException si le calcul de la signature choue
+     * @throws IOException si la lecture du fichier choue
+     */
+    public byte[] sign(File file, PrivateKey privateKey)
+            throws GeneralSecurityException, IOException {
+        return sign(file, privateKey, null);
+    }
+
+    /**
+     * Calcul de la signature brute d'un fichier avec suivi de l'avancement
+     * @param file le fichier  signer
+     * @param privateKey la cl prive pour initialiser la signature
+     * @param progress le suivi de l'avancement (ventuellement null), qui peut interrompre le calcul
+     * @return la signature sous forme brute
+     * @throws GeneralSecurityException si le calcul de la signature choue
+     * @throws IOException si la lecture du fichier choue
+     * @throws java.util.concurrent.CancellationException si le suivi a interrompu le calcul
+     */
+    public byte[] sign(File file, PrivateKey privateKey, FileFeeder.Progress progress)
+            throws GeneralSecurityException, IOException {
+        return sign(source(file, progress), privateKey);
+    }
+
+    private byte[] sign(Source source, PrivateKey privateKey) throws GeneralSecurityException, IOException {
+        long start = System.nanoTime();
+        Slot slot = slots.get();
+        boolean done = false;
+        try {
+            Signature signer = slot.forSigning(privateKey);
+            long bytes = source.feed(signer);
+            byte[] tag = signer.sign();
+            done = true;
+            Metrics.record(Metrics.Operation.SIGN, start, bytes);
+            return tag;
+        } catch (GeneralSecurityException | IOException | RuntimeException ex) {
+            Metrics.error(Metrics.Operation.SIGN, start, ex);
+            throw ex;
+        } finally {
+            // en cas d'chec l'objet signant contient des octets partiels
+            // et devra tre rinitialis lors de l'appel suivant
+            if (!done)
+                slot.reset();
+        }
     }
 
     /**
@@ -87,19 +295,7 @@ public class ECSigner {
      */
     public String signFile(File file, PrivateKey privateKey)
             throws GeneralSecurityException, IOException {
-        signer.initSign(privateKey);
-        // le flot entrant
-        InputStream in = new BufferedInputStream(new FileInputStream(file));
-        // le buffer de lecture
-        byte[] buffer = new byte[1024];
-        // le nombre d'octets lus
-        int nl;
-        // boucle de lecture pour le calcul de la signature
-        while((nl = in.read(buffer)) != -1)
-            // remise  jour de l'objet signant avec les octets lus
-            signer.update(buffer, 0, nl);
-        in.close();
-        return Base64.encodeBase64String(signer.sign());
+        return Base64.encodeBase64String(sign(file, privateKey));
     }
 
     /**
@@ -115,6 +311,521 @@ public class ECSigner {
         return signFile(new File(fileName), privateKey);
     }
 
+    /**
+     * Calcul de la signature dtache d'un fichier, au format binaire compact
+     * @param file le fichier  signer
+     * @param privateKey la cl prive pour initialiser la signature
+     * @param keyId l'identifiant de la cl (voir {@link DetachedSignature#keyId})
+     * @return la signature dtache
+     * @throws GeneralSecurityException si le calcul de la signature choue
+     * @throws IOException si la lecture du fichier choue
+     */
+    public DetachedSignature signDetached(File file, PrivateKey privateKey, byte[] keyId)
+            throws GeneralSecurityException, IOException {
+        return signDetached(file, privateKey, keyId, null);
+    }
+
+    /**
+     * Calcul de la signature dtache d'un fichier avec suivi de l'avancement
+     * @param file le fichier  signer
+     * @param privateKey la cl prive pour initialiser la signature
+     * @param keyId l'identifiant de la cl (voir {@link DetachedSignature#keyId})
+     * @param progress le suivi de l'avancement (ventuellement null), qui peut interrompre le calcul
+     * @return la signature dtache
+     * @throws GeneralSecurityException si le calcul de la signature choue
+     * @throws IOException si la lecture du fichier choue
+     */
+    public DetachedSignature signDetached(File file, PrivateKey privateKey, byte[] keyId,
+            FileFeeder.Progress progress) throws GeneralSecurityException, IOException {
+        return new DetachedSignature(algorithm, keyId, sign(file, privateKey, progress));
+    }
+
+    /**
+     * Calcul de la signature brute d'un flux, lu jusqu' sa fin
+     * @param in le flux  signer (il n'est pas ferm)
+     * @param privateKey la cl prive pour initialiser la signature
+     * @return la signature sous forme brute
+     * @throws GeneralSecurityException si le calcul de la signature choue
+     * @throws IOException si la lecture du flux choue
+     */
+    public byte[] sign(InputStream in, PrivateKey privateKey)
+            throws GeneralSecurityException, IOException {
+        return sign(source(in), privateKey);
+    }
+
+    /**
+     * Calcul de la signature dtache d'un flux, lu jusqu' sa fin
+     * @param in le flux  signer (il n'est pas ferm)
+     * @param privateKey la cl prive pour initialiser la signature
+     * @param keyId l'identifiant de la cl (voir {@link DetachedSignature#keyId})
+     * @return la signature dtache
+     * @throws GeneralSecurityException si le calcul de la signature choue
+     * @throws IOException si la lecture du flux choue
+     */
+    public DetachedSignature signDetached(InputStream in, PrivateKey privateKey, byte[] keyId)
+            throws GeneralSecurityException, IOException {
+        return new DetachedSignature(algorithm, keyId, sign(in, privateKey));
+    }
+
+    /**
+     * Calcul de la signature brute d'un canal, lu jusqu' sa fin
+     * @param channel le canal  signer (il n'est pas ferm)
+     * @param privateKey la cl prive pour initialiser la signature
+     * @return la signature sous forme brute
+     * @throws GeneralSecurityException si le calcul de la signature choue
+     * @throws IOException si la lecture du canal choue
+     */
+    public byte[] sign(ReadableByteChannel channel, PrivateKey privateKey)
+            throws GeneralSecurityException, IOException {
+        return sign(source(channel), privateKey);
+    }
+
+    /**
+     * Calcul de la signature dtache d'un canal, lu jusqu' sa fin
+     * @param channel le canal  signer (il n'est pas ferm)
+     * @param privateKey la cl prive pour initialiser la signature
+     * @param keyId l'identifiant de la cl (voir {@link DetachedSignature#keyId})
+     * @return la signature dtache
+     * @throws GeneralSecurityException si le calcul de la signature choue
+     * @throws IOException si la lecture du canal choue
+     */
+    public DetachedSignature signDetached(ReadableByteChannel channel, PrivateKey privateKey, byte[] keyId)
+            throws GeneralSecurityException, IOException {
+        return new DetachedSignature(algorithm, keyId, sign(channel, privateKey));
+    }
+
+    /**
+     * Calcul de la signature brute d'un buffer, sans copie pour un buffer du tas
+     * @param data les octets restants du buffer sont signs et sa position est porte  sa limite
+     * @param privateKey la cl prive pour initialiser la signature
+     * @return la signature sous forme brute
+     * @throws GeneralSecurityException si le calcul de la signature choue
+     */
+    public byte[] sign(ByteBuffer data, PrivateKey privateKey) throws GeneralSecurityException {
+        try {
+            return sign(source(data), privateKey);
+        } catch (IOException ex) {
+            // impossible : aucune lecture n'a lieu
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Calcul de la signature dtache d'un buffer
+     * @param data les octets restants du buffer sont signs et sa position est porte  sa limite
+     * @param privateKey la cl prive pour initialiser la signature
+     * @param keyId l'identifiant de la cl (voir {@link DetachedSignature#keyId})
+     * @return la signature dtache
+     * @throws GeneralSecurityException si le calcul de la signature choue
+     */
+    public DetachedSignature signDetached(ByteBuffer data, PrivateKey privateKey, byte[] keyId)
+            throws GeneralSecurityException {
+        return new DetachedSignature(algorithm, keyId, sign(data, privateKey));
+    }
+
+    /**
+     * Calcul de la signature brute d'un tableau d'octets
+     * @param data les donnes  signer
+     * @param privateKey la cl prive pour initialiser la signature
+     * @return la signature sous forme brute
+     * @throws GeneralSecurityException si le calcul de la signature choue
+     */
+    public byte[] sign(byte[] data, PrivateKey privateKey) throws GeneralSecurityException {
+        return sign(ByteBuffer.wrap(data), privateKey);
+    }
+
+    /**
+     * Calcul de la signature dtache d'un tableau d'octets
+     * @param data les donnes  signer
+     * @param privateKey la cl prive pour initialiser la signature
+     * @param keyId l'identifiant de la cl (voir {@link DetachedSignature#keyId})
+     * @return la signature dtache
+     * @throws GeneralSecurityException si le calcul de la signature choue
+     */
+    public DetachedSignature signDetached(byte[] data, PrivateKey privateKey, byte[] keyId)
+            throws GeneralSecurityException {
+        return new DetachedSignature(algorithm, keyId, sign(data, privateKey));
+    }
+
+    /**
+     * Calcul de la signature brute d'un condensat calcul en amont : seule
+     * l'tape ECDSA est ralise, et la signature obtenue est celle que
+     * l'algorithme de l'instance produirait sur les donnes condenses
+     * @param digest le condensat, calcul avec {@link #getDigestAlgorithm()}
+     * @param privateKey la cl prive EC
+     * @return la signature sous forme brute
+     * @throws GeneralSecurityException si la taille du condensat est incorrecte ou si le calcul choue
+     */
+    public byte[] signDigest(byte[] digest, PrivateKey privateKey) throws GeneralSecurityException {
+        long start = System.nanoTime();
+        Slot slot = digestSlots.get();
+        boolean done = false;
+        try {
+            checkDigest(digest);
+            Signature signer = slot.forDigestSigning(privateKey);
+            signer.update(digest);
+            byte[] tag = signer.sign();
+            done = true;
+            Metrics.record(Metrics.Operation.SIGN, start, digest.length);
+            return tag;
+        } catch (GeneralSecurityException | RuntimeException ex) {
+            Metrics.error(Metrics.Operation.SIGN, start, ex);
+            throw ex;
+        } finally {
+            if (!done)
+                slot.reset();
+        }
+    }
+
+    /**
+     * Calcul de la signature dtache d'un condensat calcul en amont
+     * @param digest le condensat, calcul avec {@link #getDigestAlgorithm()}
+     * @param privateKey la cl prive EC
+     * @param keyId l'identifiant de la cl (voir {@link DetachedSignature#keyId})
+     * @return la signature dtache, vrifiable sur les donnes condenses
+     * @throws GeneralSecurityException si la taille du condensat est incorrecte ou si le calcul choue
+     */
+    public DetachedSignature signDigestDetached(byte[] digest, PrivateKey privateKey, byte[] keyId)
+            throws GeneralSecurityException {
+        return new DetachedSignature(algorithm, keyId, signDigest(digest, privateKey));
+    }
+
+    /**
+     * Vrification de la signature brute d'un fichier
+     * @param file le fichier  vrifier
+     * @param publicKey la cl publique initialisant la vrification
+     * @param tag la signature brute  vrifier
+     * @return <code>true</code> si la signature est correcte et <code>false</code> sinon
+     * @throws GeneralSecurityException  si la vrification de la signature choue
+     * @throws IOException si la lecture du fichier choue
+     */
+    public boolean verify(File file, PublicKey publicKey, byte[] tag)
+            throws GeneralSecurityException, IOException {
+        return verifyCached(file, publicKey, tag, 0, tag.length);
+    }
+
+    private boolean verifyCached(File file, PublicKey publicKey, byte[] tag, int offset, int length)
+            throws GeneralSecurityException, IOException {
+        VerificationCache cache = verificationCache;
+        if (cache != null)
+            return cache.verify(this, file, publicKey, tag, offset, length);
+        return verify(file, publicKey, tag, offset, length, null);
+    }
+
+    /**
+     * Vrification sans consultation du cache des vrifications
+     */
+    boolean verifyUncached(File file, PublicKey publicKey, byte[] tag, int offset, int length)
+            throws GeneralSecurityException, IOException {
+        return verify(file, publicKey, tag, offset, length, null);
+    }
+
+    private boolean verify(File file, PublicKey publicKey, byte[] tag, int offset, int length,
+            FileFeeder.Progress progress) throws GeneralSecurityException, IOException {
+        return verify(source(file, progress), publicKey, tag, offset, length);
+    }
+
+    private boolean verify(Source source, PublicKey publicKey, byte[] tag, int offset, int length)
+            throws GeneralSecurityException, IOException {
+        long start = System.nanoTime();
+        Slot slot = slots.get();
+        boolean done = false;
+        try {
+            Signature signer = slot.forVerifying(publicKey);
+            long bytes = source.feed(signer);
+            boolean valid = signer.verify(tag, offset, length);
+            done = true;
+            Metrics.record(Metrics.Operation.VERIFY, start, bytes);
+            return valid;
+        } catch (GeneralSecurityException | IOException | RuntimeException ex) {
+            Metrics.error(Metrics.Operation.VERIFY, start, ex);
+            throw ex;
+        } finally {
+            if (!done)
+                slot.reset();
+        }
+    }
+
+    /**
+     * Vrification de la signature dtache d'un fichier
+     * @param file le fichier  vrifier
+     * @param publicKey la cl publique initialisant la vrification
+     * @param signature la signature dtache, produite avec l'algorithme de l'instance
+     * @return <code>true</code> si la signature est correcte et <code>false</code> sinon
+     * @throws GeneralSecurityException  si la vrification de la signature choue
+     * @throws IOException si la lecture du fichier choue
+     */
+    public boolean verify(File file, PublicKey publicKey, DetachedSignature signature)
+            throws GeneralSecurityException, IOException {
+        return verify(file, publicKey, signature, null);
+    }
+
+    /**
+     * Vrification de la signature dtache d'un fichier avec suivi de l'avancement
+     * @param file le fichier  vrifier
+     * @param publicKey la cl publique initialisant la vrification
+     * @param signature la signature dtache, produite avec l'algorithme de l'instance
+     * @param progress le suivi de l'avancement (ventuellement null), qui peut interrompre la vrification
+     * @return <code>true</code> si la signature est correcte et <code>false</code> sinon
+     * @throws GeneralSecurityException  si la vrification de la signature choue
+     * @throws IOException si la lecture du fichier choue
+     */
+    public boolean verify(File file, PublicKey publicKey, DetachedSignature signature,
+            FileFeeder.Progress progress) throws GeneralSecurityException, IOException {
+        checkAlgorithm(signature);
+        if (progress == null)
+            return verifyCached(file, publicKey, signature.signatureBuffer(), 0, signature.getSignatureLength());
+        return verify(file, publicKey, signature.signatureBuffer(), 0, signature.getSignatureLength(), progress);
+    }
+
+    /**
+     * Vrification de la signature dtache d'un flux, lu jusqu' sa fin
+     * @param in le flux  vrifier (il n'est pas ferm)
+     * @param publicKey la cl publique initialisant la vrification
+     * @param signature la signature dtache, produite avec l'algorithme de l'instance
+     * @return <code>true</code> si la signature est correcte et <code>false</code> sinon
+     * @throws GeneralSecurityException  si la vrification de la signature choue
+     * @throws IOException si la lecture du flux choue
+     */
+    public boolean verify(InputStream in, PublicKey publicKey, DetachedSignature signature)
+            throws GeneralSecurityException, IOException {
+        checkAlgorithm(signature);
+        return verify(source(in), publicKey, signature.signatureBuffer(), 0, signature.getSignatureLength());
+    }
+
+    /**
+     * Vrification de la signature dtache d'un canal, lu jusqu' sa fin
+     * @param channel le canal  vrifier (il n'est pas ferm)
+     * @param publicKey la cl publique initialisant la vrification
+     * @param signature la signature dtache, produite avec l'algorithme de l'instance
+     * @return <code>true</code> si la signature est correcte et <code>false</code> sinon
+     * @throws GeneralSecurityException  si la vrification de la signature choue
+     * @throws IOException si la lecture du canal choue
+     */
+    public boolean verify(ReadableByteChannel channel, PublicKey publicKey, DetachedSignature signature)
+            throws GeneralSecurityException, IOException {
+        checkAlgorithm(signature);
+        return verify(source(channel), publicKey, signature.signatureBuffer(), 0, signature.getSignatureLength());
+    }
+
+    /**
+     * Vrification de la signature dtache d'un buffer
+     * @param data les octets restants du buffer sont vrifis et sa position est porte  sa limite
+     * @param publicKey la cl publique initialisant la vrification
+     * @param signature la signature dtache, produite avec l'algorithme de l'instance
+     * @return <code>true</code> si la signature est correcte et <code>false</code> sinon
+     * @throws GeneralSecurityException  si la vrification de la signature choue
+     */
+    public boolean verify(ByteBuffer data, PublicKey publicKey, DetachedSignature signature)
+            throws GeneralSecurityException {
+        checkAlgorithm(signature);
+        try {
+            return verify(source(data), publicKey, signature.signatureBuffer(), 0, signature.getSignatureLength());
+        } catch (IOException ex) {
+            // impossible : aucune lecture n'a lieu
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Vrification de la signature dtache d'un tableau d'octets
+     * @param data les donnes  vrifier
+     * @param publicKey la cl publique initialisant la vrification
+     * @param signature la signature dtache, produite avec l'algorithme de l'instance
+     * @return <code>true</code> si la signature est correcte et <code>false</code> sinon
+     * @throws GeneralSecurityException  si la vrification de la signature choue
+     */
+    public boolean verify(byte[] data, PublicKey publicKey, DetachedSignature signature)
+            throws GeneralSecurityException {
+        return verify(ByteBuffer.wrap(data), publicKey, signature);
+    }
+
+    /**
+     * Vrification de la signature brute d'un tableau d'octets
+     * @param data les donnes  vrifier
+     * @param publicKey la cl publique initialisant la vrification
+     * @param tag la signature brute  vrifier
+     * @return <code>true</code> si la signature est correcte et <code>false</code> sinon
+     * @throws GeneralSecurityException  si la vrification de la signature choue
+     */
+    public boolean verify(byte[] data, PublicKey publicKey, byte[] tag) throws GeneralSecurityException {
+        try {
+            return verify(source(ByteBuffer.wrap(data)), publicKey, tag, 0, tag.length);
+        } catch (IOException ex) {
+            // impossible : aucune lecture n'a lieu
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Vrification de la signature brute d'un condensat calcul en amont
+     * @param digest le condensat, calcul avec {@link #getDigestAlgorithm()}
+     * @param publicKey la cl publique EC
+     * @param tag la signature brute, produite avec l'algorithme de l'instance
+     * @return <code>true</code> si la signature est correcte et <code>false</code> sinon
+     * @throws GeneralSecurityException si la taille du condensat est incorrecte ou si la vrification choue
+     */
+    public boolean verifyDigest(byte[] digest, PublicKey publicKey, byte[] tag) throws GeneralSecurityException {
+        return verifyDigest(digest, publicKey, tag, 0, tag.length);
+    }
+
+    /**
+     * Vrification de la signature dtache d'un condensat calcul en amont
+     * @param digest le condensat, calcul avec {@link #getDigestAlgorithm()}
+     * @param publicKey la cl publique EC
+     * @param signature la signature dtache, produite avec l'algorithme de l'instance
+     * @return <code>true</code> si la signature est correcte et <code>false</code> sinon
+     * @throws GeneralSecurityException si la taille du condensat est incorrecte ou si la vrification choue
+     */
+    public boolean verifyDigest(byte[] digest, PublicKey publicKey, DetachedSignature signature)
+            throws GeneralSecurityException {
+        checkAlgorithm(signature);
+        return verifyDigest(digest, publicKey, signature.signatureBuffer(), 0, signature.getSignatureLength());
+    }
+
+    private boolean verifyDigest(byte[] digest, PublicKey publicKey, byte[] tag, int offset, int length)
+            throws GeneralSecurityException {
+        long start = System.nanoTime();
+        Slot slot = digestSlots.get();
+        boolean done = false;
+        try {
+            checkDigest(digest);
+            Signature signer = slot.forDigestVerifying(publicKey);
+            signer.update(digest);
+            boolean valid = signer.verify(tag, offset, length);
+            done = true;
+            Metrics.record(Metrics.Operation.VERIFY, start, digest.length);
+            return valid;
+        } catch (GeneralSecurityException | RuntimeException ex) {
+            Metrics.error(Metrics.Operation.VERIFY, start, ex);
+            throw ex;
+        } finally {
+            if (!done)
+                slot.reset();
+        }
+    }
+
+    /**
+     * Accs  l'algorithme de condensat du mode condensat
+     * @return le nom de l'algorithme de {@link MessageDigest} appliqu par l'algorithme
+     * de signature de l'instance (par exemple SHA-256 pour SHA256withECDSA), ou
+     * <code>null</code> pour NONEwithECDSA
+     * @throws NoSuchAlgorithmException si l'algorithme de l'instance n'est pas un algorithme ECDSA
+     */
+    public String getDigestAlgorithm() throws NoSuchAlgorithmException {
+        int with = algorithm.toUpperCase(Locale.ROOT).indexOf("WITH");
+        if (with < 0 || !algorithm.substring(with + 4).equalsIgnoreCase("ECDSA"))
+            throw new NoSuchAlgorithmException("Pas de mode condensat pour l'algorithme " + algorithm);
+        String hash = algorithm.substring(0, with).toUpperCase(Locale.ROOT);
+        if (hash.equals("NONE"))
+            return null;
+        // SHA256 -> SHA-256, les autres noms (SHA3-256...) sont inchangs
+        return hash.matches("SHA\\d+") ? "SHA-" + hash.substring(3) : hash;
+    }
+
+    private void checkDigest(byte[] digest) throws GeneralSecurityException {
+        int expected = digestLength;
+        if (expected == 0) {
+            String hash = getDigestAlgorithm();
+            expected = hash == null ? -1 : MessageDigest.getInstance(hash).getDigestLength();
+            digestLength = expected;
+        }
+        if (expected > 0 && digest.length != expected)
+            throw new SignatureException("Condensat de " + digest.length + " octets au lieu de " + expected);
+    }
+
+    private void checkAlgorithm(DetachedSignature signature) throws SignatureException {
+        if (!algorithm.equalsIgnoreCase(signature.getAlgorithm()))
+            throw new SignatureException("Signature produite avec l'algorithme " + signature.getAlgorithm());
+    }
+
+    /**
+     * Construction d'un objet NONEwithECDSA initialis avec une cl. La slection
+     * diffre du provider peut retenir un provider qui refuse la cl (une cl
+     * BouncyCastle prsente  SunEC) : chaque provider est donc essay  son tour.
+     * @param key une cl prive (signature) ou publique (vrification)
+     * @return l'objet signant initialis
+     * @throws GeneralSecurityException si aucun provider n'accepte la cl
+     */
+    static Signature digestSignature(Key key) throws GeneralSecurityException {
+        Provider[] providers = Security.getProviders("Signature." + DIGEST_ALGORITHM);
+        if (providers == null) {
+            installProvider();
+            providers = Security.getProviders("Signature." + DIGEST_ALGORITHM);
+            if (providers == null)
+                throw new NoSuchAlgorithmException("Algorithme indisponible : " + DIGEST_ALGORITHM);
+        }
+        InvalidKeyException last = null;
+        for (Provider provider : providers) {
+            Signature signature = Signature.getInstance(DIGEST_ALGORITHM, provider);
+            try {
+                if (key instanceof PrivateKey)
+                    signature.initSign((PrivateKey) key);
+                else
+                    signature.initVerify((PublicKey) key);
+                return signature;
+            } catch (InvalidKeyException ex) {
+                last = ex;
+            }
+        }
+        throw last;
+    }
+
+    private static Source source(final File file, final FileFeeder.Progress progress) {
+        return new Source() {
+            @Override
+            public long feed(Signature signer) throws GeneralSecurityException, IOException {
+                if (progress == null)
+                    return FileFeeder.feed(file, signer);
+                return FileFeeder.feed(file, FileFeeder.sink(FileFeeder.sink(signer), file.length(), progress));
+            }
+        };
+    }
+
+    private static Source source(final InputStream in) {
+        return new Source() {
+            @Override
+            public long feed(Signature signer) throws GeneralSecurityException, IOException {
+                byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+                long total = 0;
+                for (int n; (n = in.read(buffer)) >= 0;) {
+                    signer.update(buffer, 0, n);
+                    total += n;
+                }
+                return total;
+            }
+        };
+    }
+
+    private static Source source(final ReadableByteChannel channel) {
+        return new Source() {
+            @Override
+            public long feed(Signature signer) throws GeneralSecurityException, IOException {
+                // buffer du tas : l'objet signant en lit directement le tableau
+                ByteBuffer buffer = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+                long total = 0;
+                while (channel.read(buffer) >= 0) {
+                    buffer.flip();
+                    total += buffer.remaining();
+                    signer.update(buffer);
+                    buffer.clear();
+                }
+                return total;
+            }
+        };
+    }
+
+    private static Source source(final ByteBuffer data) {
+        return new Source() {
+            @Override
+            public long feed(Signature signer) throws GeneralSecurityException {
+                int length = data.remaining();
+                signer.update(data);
+                return length;
+            }
+        };
+    }
+
     /**
      * Vrification de la signature d'un fichier
      * @param file file le fichier  vrifier
@@ -126,19 +837,7 @@ public class ECSigner {
      */
     public boolean verifyFile(File file, PublicKey publicKey, String tagB64)
             throws GeneralSecurityException, IOException {
-        signer.initVerify(publicKey);
-        // le flot entrant
-        InputStream in = new BufferedInputStream(new FileInputStream(file));
-        // le buffer de lecture
-        byte[] buffer = new byte[1024];
-        // le nombre d'octets lus
-        int nl;
-        // boucle de lecture pour la vrification de la signature
-        while((nl = in.read(buffer)) != -1)
-            // remise  jour de l'objet signant avec les octets lus
-            signer.update(buffer, 0, nl);
-        in.close();
-        return signer.verify(Base64.decodeBase64(tagB64));
+        return verify(file, publicKey, Base64.decodeBase64(tagB64));
     }
 
     /**
@@ -1,9 +1,36 @@
 package ui;
+import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.GridLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.swing.BoxLayout;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JPasswordField;
+import javax.swing.JScrollPane;
+import javax.swing.Timer;
 
 import button.FileSelectionButton;
 import button.ToSignButton;
@@ -11,44 +38,220 @@ import button.ToVerifyButton;
 
 public class Editor extends JFrame{
 
-	KeyStoreTools kst;
+	private static final int THROUGHPUT_PERIOD = 500;
+
+	// Nombre de tches termines restant affiches
+	private static final int MAX_FINISHED_JOBS = 20;
+
+	// Dure de validit du certificat de la cl cre au premier lancement
+	private static final int VALIDITY_DAYS = 3650;
+
 	FileSelectionButton toVerify;
 	FileSelectionButton toSign;
-	
-	public Editor(){
+
+	private final ECSigner signer;
+	private final ExecutorService executor;
+	private final String alias;
+	private final char[] passwd;
+	private final Future<KeyStoreTools> kst;
+
+	private final JPanel jobsPanel;
+	private final Deque<FileJob> finishedJobs = new ArrayDeque<>();
+	private final JLabel throughput;
+	private final AtomicLong bytesProcessed = new AtomicLong();
+	private final AtomicInteger activeJobs = new AtomicInteger();
+	private long lastBytes;
+
+	/**
+	 * Construction de l'diteur, les signatures tant faites avec la cl prive
+	 * d'un keystore conserv entre les sessions
+	 * @param keyStoreFile le fichier du keystore, cr avec une paire de cls P-256 s'il n'existe pas
+	 * @param alias l'alias de la cl prive de signature
+	 * @param passwd le mot de passe du keystore et de la cl prive
+	 */
+	public Editor(final File keyStoreFile, final String alias, char[] passwd){
 		super("Cryptography Editor");
-		
+		this.alias = alias;
+		this.passwd = passwd.clone();
+
+		try {
+			this.signer = new ECSigner("SHA256withECDSA");
+		} catch (GeneralSecurityException ex) {
+			throw new IllegalStateException(ex);
+		}
+		this.executor = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors()), new DaemonThreadFactory("editor-job"));
+		// le keystore est ouvert, ou cr, sans bloquer l'affichage
+		this.kst = this.executor.submit(new Callable<KeyStoreTools>() {
+			@Override
+			public KeyStoreTools call() throws GeneralSecurityException, IOException {
+				return openKeyStore(keyStoreFile);
+			}
+		});
+
 		this.toVerify = new ToVerifyButton(this);
 		this.toSign = new ToSignButton(this);
-		
+
 		this.addWindowListener(new java.awt.event.WindowAdapter(){
 			public void windowClosing(java.awt.event.WindowEvent evt){
 				System.exit(0);
 			}
 		});
-		
+
 		JPanel buttonPanel = new JPanel();
 		buttonPanel.setLayout(new GridLayout(1, 2));
 		buttonPanel.add(this.toSign);
 		buttonPanel.add(this.toVerify);
-		/*this.setLayout(new GridLayout(1, 2));
-		this.setPreferredSize(new Dimension(500,500));
-		this.getContentPane().add(this.toSign);
-		this.getContentPane().add(this.toVerify);*/
-		this.getContentPane().add(buttonPanel);
+		buttonPanel.setPreferredSize(new Dimension(500, 80));
+
+		this.jobsPanel = new JPanel();
+		this.jobsPanel.setLayout(new BoxLayout(this.jobsPanel, BoxLayout.Y_AXIS));
+		JPanel jobsHolder = new JPanel(new BorderLayout());
+		jobsHolder.add(this.jobsPanel, BorderLayout.NORTH);
+
+		this.throughput = new JLabel(" ");
+		new Timer(THROUGHPUT_PERIOD, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				updateThroughput();
+			}
+		}).start();
+
+		this.getContentPane().add(buttonPanel, BorderLayout.NORTH);
+		this.getContentPane().add(new JScrollPane(jobsHolder), BorderLayout.CENTER);
+		this.getContentPane().add(this.throughput, BorderLayout.SOUTH);
 		this.setPreferredSize(new Dimension(500,500));
 	}
-	
+
+	/**
+	 * Usage : Editor [keystore [alias]], le keystore par dfaut tant
+	 * ~/.filesigner/editor.ks et l'alias par dfaut "editor"
+	 */
 	public static void main(String[] args) {
-		Editor editor = new Editor();
+		File keyStoreFile = args.length > 0 ? new File(args[0])
+				: new File(System.getProperty("user.home"), ".filesigner" + File.separator + "editor.ks");
+		String alias = args.length > 1 ? args[1] : "editor";
+		JPasswordField field = new JPasswordField();
+		int choice = JOptionPane.showConfirmDialog(null, field,
+				(keyStoreFile.exists() ? "Mot de passe du keystore " : "Mot de passe du nouveau keystore ") + keyStoreFile,
+				JOptionPane.OK_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE);
+		if (choice != JOptionPane.OK_OPTION) {
+			System.exit(0);
+		}
+		Editor editor = new Editor(keyStoreFile, alias, field.getPassword());
 		editor.pack();
 		editor.setVisible(true);
-		/*JFileChooser chooser = new JFileChooser();
-		chooser.showOpenDialog(null);
-		System.out.println(chooser.getName(chooser.getSelectedFile()));*/
+	}
+
+	/**
+	 * Ouverture du keystore ; au premier lancement il est cr avec une paire
+	 * de cls P-256 sous l'alias choisi, afin que les signatures restent
+	 * vrifiables lors des sessions suivantes
+	 */
+	private KeyStoreTools openKeyStore(File file) throws GeneralSecurityException, IOException {
+		if (file.exists()) {
+			KeyStoreTools tools = new KeyStoreTools(KeyStore.getDefaultType(), file, this.passwd);
+			if (tools.getCertificate(this.alias) == null) {
+				throw new KeyStoreException("Alias absent du keystore : " + this.alias);
+			}
+			return tools;
+		}
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cration du rpertoire impossible : " + dir);
+		}
+		KeyStoreTools tools = KeyStoreTools.create(KeyStore.getDefaultType(), file, this.passwd);
+		KeyPair keyPair = new ECSigner.ECKeyPairGenerator("P-256").getECKeyPair();
+		tools.importKeyPair(keyPair, this.alias, this.passwd, VALIDITY_DAYS);
+		tools.save(file, this.passwd);
+		return tools;
+	}
+
+	public void sign() {
+		submit(toSign.getJFC().getSelectedFiles(), true);
 	}
 
 	public void verify() {
-		System.out.println(toVerify.getJFC().getName(toVerify.getJFC().getSelectedFile()));	
+		submit(toVerify.getJFC().getSelectedFiles(), false);
+	}
+
+	private void submit(File[] files, boolean sign) {
+		for (File file : files) {
+			FileJob job = new FileJob(this, file, sign);
+			this.jobsPanel.add(job);
+			this.executor.execute(job.getWorker());
+		}
+		this.jobsPanel.revalidate();
+	}
+
+	/**
+	 * Notification, dans le thread de Swing, de la fin d'une tche : seules les
+	 * dernires tches termines restent affiches
+	 */
+	void jobFinished(FileJob job) {
+		this.finishedJobs.addLast(job);
+		if (this.finishedJobs.size() > MAX_FINISHED_JOBS) {
+			this.jobsPanel.remove(this.finishedJobs.removeFirst());
+			this.jobsPanel.revalidate();
+			this.jobsPanel.repaint();
+		}
+	}
+
+	ECSigner getSigner() {
+		return this.signer;
+	}
+
+	private KeyStoreTools getKeyStore() throws GeneralSecurityException, InterruptedException {
+		try {
+			return this.kst.get();
+		} catch (ExecutionException ex) {
+			throw new GeneralSecurityException("Ouverture du keystore impossible : " + ex.getCause().getLocalizedMessage(), ex.getCause());
+		}
+	}
+
+	/**
+	 * @return la cl prive de signature du keystore
+	 */
+	PrivateKey getPrivateKey() throws GeneralSecurityException, InterruptedException {
+		return getKeyStore().getPrivateKey(this.alias, this.passwd);
+	}
+
+	/**
+	 * @return la cl publique du certificat associ  la cl prive de signature
+	 */
+	PublicKey getPublicKey() throws GeneralSecurityException, InterruptedException {
+		Certificate cert = getKeyStore().getCertificate(this.alias);
+		if (cert == null) {
+			throw new KeyStoreException("Alias absent du keystore : " + this.alias);
+		}
+		return cert.getPublicKey();
+	}
+
+	/**
+	 * @param keyId l'identifiant de cl port par une signature
+	 * @return la cl publique d'un certificat du keystore, ou null si aucun ne correspond
+	 */
+	PublicKey findPublicKey(byte[] keyId) throws GeneralSecurityException, InterruptedException {
+		return getKeyStore().findPublicKey(keyId);
+	}
+
+	void jobStarted() {
+		this.activeJobs.incrementAndGet();
+	}
+
+	void jobDone() {
+		this.activeJobs.decrementAndGet();
+	}
+
+	void addBytes(long bytes) {
+		this.bytesProcessed.addAndGet(bytes);
+	}
+
+	private void updateThroughput() {
+		long bytes = this.bytesProcessed.get();
+		double rate = (bytes - this.lastBytes) / (THROUGHPUT_PERIOD / 1000.0) / (1024 * 1024);
+		this.lastBytes = bytes;
+		int active = this.activeJobs.get();
+		this.throughput.setText(active == 0 ? String.format("Aucune tche en cours, %.1f Mo traits", bytes / (1024.0 * 1024))
+				: String.format("%d tche(s) en cours, dbit : %.1f Mo/s", active, rate));
 	}
 }
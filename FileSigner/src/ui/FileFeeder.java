@@ -0,0 +1,267 @@
+package ui;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Lecture du contenu d'un fichier vers un objet signant ou un condensat.
+ * La stratgie de lecture est choisie selon la taille du fichier : les petits
+ * et moyens fichiers sont lus par un {@link FileChannel} dans un buffer direct,
+ * les gros fichiers sont projets en mmoire par fentres successives.
+ */
+public final class FileFeeder {
+
+    /**
+     * Les stratgies de lecture d'un fichier
+     */
+    public enum Strategy {
+        // Lecture par flot, par blocs de 1 Ko (mthode historique)
+        STREAM,
+        // Lecture par FileChannel dans un buffer direct
+        CHANNEL,
+        // Projection en mmoire par fentres (MappedByteBuffer)
+        MAPPED;
+
+        /**
+         * Choix de la stratgie adapte  la taille d'un fichier
+         * @param size la taille du fichier en octets
+         * @return la stratgie de lecture  utiliser
+         */
+        public static Strategy forSize(long size) {
+            return size >= MAPPED_THRESHOLD ? MAPPED : CHANNEL;
+        }
+    }
+
+    /**
+     * Destination des octets lus
+     */
+    public interface Sink {
+        /**
+         * Remise  jour de la destination avec les octets restant dans le buffer
+         * @param buffer les octets lus
+         * @throws GeneralSecurityException si la mise  jour choue
+         */
+        void update(ByteBuffer buffer) throws GeneralSecurityException;
+    }
+
+    /**
+     * Suivi de l'avancement d'une lecture
+     */
+    public interface Progress {
+        /**
+         * Notification de l'avancement, appele dans le thread de lecture
+         * @param done le nombre d'octets dj transmis
+         * @param total la taille du fichier
+         * @return <code>false</code> pour interrompre la lecture
+         */
+        boolean update(long done, long total);
+    }
+
+    // Nombre maximal d'octets transmis entre deux notifications d'avancement
+    public static final int PROGRESS_STEP = 1024 * 1024;
+
+    // Taille  partir de laquelle un fichier est projet en mmoire
+    public static final long MAPPED_THRESHOLD = 32L * 1024 * 1024;
+
+    // Taille des fentres de projection
+    public static final long MAPPED_WINDOW = 64L * 1024 * 1024;
+
+    // Taille du buffer direct de lecture par FileChannel
+    public static final int CHANNEL_BUFFER_SIZE = 256 * 1024;
+
+    // Les buffers directs sont coteux  allouer : chaque thread conserve le sien
+    private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(CHANNEL_BUFFER_SIZE);
+        }
+    };
+
+    private FileFeeder() {
+    }
+
+    /**
+     * Adaptation d'un objet signant en destination
+     * @param signer l'objet signant initialis
+     */
+    public static Sink sink(final Signature signer) {
+        return new Sink() {
+            @Override
+            public void update(ByteBuffer buffer) throws GeneralSecurityException {
+                signer.update(buffer);
+            }
+        };
+    }
+
+    /**
+     * Adaptation d'un condensat en destination
+     * @param digest le condensat
+     */
+    public static Sink sink(final MessageDigest digest) {
+        return new Sink() {
+            @Override
+            public void update(ByteBuffer buffer) {
+                digest.update(buffer);
+            }
+        };
+    }
+
+    /**
+     * Ajout du suivi de l'avancement  une destination : les buffers sont
+     * transmis par tranches d'au plus {@link #PROGRESS_STEP} octets, chacune
+     * suivie d'une notification
+     * @param sink la destination
+     * @param total la taille du fichier lu
+     * @param progress le suivi de l'avancement
+     * @return la destination suivie ; elle lve {@link CancellationException}
+     * lorsque le suivi demande l'interruption de la lecture
+     */
+    public static Sink sink(final Sink sink, final long total, final Progress progress) {
+        return new Sink() {
+            private long done;
+
+            @Override
+            public void update(ByteBuffer buffer) throws GeneralSecurityException {
+                int limit = buffer.limit();
+                while (buffer.hasRemaining()) {
+                    int step = Math.min(buffer.remaining(), PROGRESS_STEP);
+                    buffer.limit(buffer.position() + step);
+                    sink.update(buffer);
+                    buffer.limit(limit);
+                    done += step;
+                    if (!progress.update(done, total))
+                        throw new CancellationException("Lecture interrompue");
+                }
+            }
+        };
+    }
+
+    /**
+     * Remise  jour d'un objet signant avec le contenu d'un fichier
+     * @param file le fichier  lire
+     * @param signer l'objet signant initialis
+     * @return le nombre d'octets lus
+     * @throws GeneralSecurityException si la mise  jour de l'objet signant choue
+     * @throws IOException si la lecture du fichier choue
+     */
+    public static long feed(File file, Signature signer)
+            throws GeneralSecurityException, IOException {
+        return feed(file, sink(signer));
+    }
+
+    /**
+     * Remise  jour d'un condensat avec le contenu d'un fichier
+     * @param file le fichier  lire
+     * @param digest le condensat
+     * @return le nombre d'octets lus
+     * @throws IOException si la lecture du fichier choue
+     */
+    public static long feed(File file, MessageDigest digest) throws IOException {
+        try {
+            return feed(file, sink(digest));
+        } catch (GeneralSecurityException ex) {
+            // impossible : la mise  jour d'un condensat ne lve pas d'exception
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Transmission du contenu d'un fichier  une destination, selon la stratgie
+     * adapte  sa taille
+     * @param file le fichier  lire
+     * @param sink la destination des octets lus
+     * @return le nombre d'octets lus
+     * @throws GeneralSecurityException si la mise  jour de la destination choue
+     * @throws IOException si la lecture du fichier choue
+     */
+    public static long feed(File file, Sink sink)
+            throws GeneralSecurityException, IOException {
+        return feed(file, sink, Strategy.forSize(file.length()));
+    }
+
+    /**
+     * Transmission du contenu d'un fichier  une destination
+     * @param file le fichier  lire
+     * @param sink la destination des octets lus
+     * @param strategy la stratgie de lecture
+     * @return le nombre d'octets lus
+     * @throws GeneralSecurityException si la mise  jour de la destination choue
+     * @throws IOException si la lecture du fichier choue
+     */
+    public static long feed(File file, Sink sink, Strategy strategy)
+            throws GeneralSecurityException, IOException {
+        switch (strategy) {
+            case STREAM:
+                return feedStream(file, sink);
+            case MAPPED:
+                return feedMapped(file, sink);
+            default:
+                return feedChannel(file, sink);
+        }
+    }
+
+    private static long feedStream(File file, Sink sink)
+            throws GeneralSecurityException, IOException {
+        long total = 0;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            // le buffer de lecture
+            byte[] buffer = new byte[1024];
+            // le nombre d'octets lus
+            int nl;
+            while ((nl = in.read(buffer)) != -1) {
+                sink.update(ByteBuffer.wrap(buffer, 0, nl));
+                total += nl;
+            }
+        }
+        return total;
+    }
+
+    private static long feedChannel(File file, Sink sink)
+            throws GeneralSecurityException, IOException {
+        long total = 0;
+        ByteBuffer buffer = BUFFERS.get();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                // le buffer n'est transmis que lorsqu'il est plein
+                if (!buffer.hasRemaining()) {
+                    buffer.flip();
+                    total += buffer.remaining();
+                    sink.update(buffer);
+                    buffer.clear();
+                }
+            }
+            // transmission des derniers octets lus
+            buffer.flip();
+            total += buffer.remaining();
+            sink.update(buffer);
+        } finally {
+            buffer.clear();
+        }
+        return total;
+    }
+
+    private static long feedMapped(File file, Sink sink)
+            throws GeneralSecurityException, IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += MAPPED_WINDOW) {
+                // les fentres dj traites sont libres par le ramasse-miettes
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+                        position, Math.min(MAPPED_WINDOW, size - position));
+                sink.update(window);
+            }
+            return size;
+        }
+    }
+}
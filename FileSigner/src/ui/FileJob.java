@@ -0,0 +1,128 @@
+package ui;
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.security.PublicKey;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.SwingWorker;
+
+public class FileJob extends JPanel{
+
+	private final Editor editor;
+	private final File file;
+	private final boolean sign;
+
+	private final JProgressBar progressBar;
+	private final JLabel status;
+	private final JButton cancel;
+	private final Worker worker;
+
+	private class Worker extends SwingWorker<String, Void> implements FileFeeder.Progress{
+
+		private long reported;
+
+		@Override
+		protected String doInBackground() throws Exception {
+			editor.jobStarted();
+			try {
+				File sigFile = new File(file.getPath() + DetachedSignature.SUFFIX);
+				if (sign) {
+					byte[] keyId = DetachedSignature.keyId(editor.getPublicKey());
+					editor.getSigner().signDetached(file, editor.getPrivateKey(), keyId, this).writeTo(sigFile);
+					return "Sign : " + sigFile.getName();
+				}
+				if (!sigFile.isFile()) {
+					return "Signature absente : " + sigFile.getName();
+				}
+				DetachedSignature signature = DetachedSignature.readFrom(sigFile);
+				PublicKey publicKey = editor.findPublicKey(signature.getKeyId());
+				if (publicKey == null) {
+					return "Sign par une cl absente du keystore";
+				}
+				return editor.getSigner().verify(file, publicKey, signature, this) ? "Signature valide" : "Signature INVALIDE";
+			} finally {
+				editor.jobDone();
+			}
+		}
+
+		@Override
+		public boolean update(long done, long total) {
+			editor.addBytes(done - this.reported);
+			this.reported = done;
+			setProgress(total == 0 ? 100 : (int)(done * 100 / total));
+			return !isCancelled();
+		}
+
+		@Override
+		protected void done() {
+			cancel.setEnabled(false);
+			editor.jobFinished(FileJob.this);
+			if (isCancelled()) {
+				status.setText("Annul");
+				return;
+			}
+			try {
+				status.setText(get());
+				progressBar.setValue(100);
+			} catch (ExecutionException ex) {
+				Throwable cause = ex.getCause();
+				status.setText(cause instanceof CancellationException ? "Annul" : "Erreur : " + cause.getLocalizedMessage());
+			} catch (InterruptedException | CancellationException ex) {
+				status.setText("Annul");
+			}
+		}
+	}
+
+	public FileJob(Editor editor, File file, boolean sign){
+		super(new BorderLayout(5, 0));
+		this.editor = editor;
+		this.file = file;
+		this.sign = sign;
+
+		this.progressBar = new JProgressBar(0, 100);
+		this.progressBar.setStringPainted(true);
+		this.status = new JLabel("En attente");
+		this.cancel = new JButton("Annuler");
+		this.worker = new Worker();
+
+		this.cancel.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				// la lecture s'interrompt  la prochaine notification d'avancement
+				worker.cancel(false);
+			}
+		});
+		this.worker.addPropertyChangeListener(new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent evt) {
+				if ("progress".equals(evt.getPropertyName())) {
+					progressBar.setValue((Integer)evt.getNewValue());
+				} else if ("state".equals(evt.getPropertyName()) && evt.getNewValue() == SwingWorker.StateValue.STARTED) {
+					status.setText(FileJob.this.sign ? "Signature en cours" : "Vrification en cours");
+				}
+			}
+		});
+
+		JPanel center = new JPanel(new BorderLayout());
+		center.add(new JLabel((sign ? "Signer " : "Vrifier ") + file.getName()), BorderLayout.NORTH);
+		center.add(this.progressBar, BorderLayout.CENTER);
+		center.add(this.status, BorderLayout.SOUTH);
+		this.add(center, BorderLayout.CENTER);
+		this.add(this.cancel, BorderLayout.EAST);
+		this.setMaximumSize(new Dimension(Integer.MAX_VALUE, 70));
+	}
+
+	public SwingWorker<String, Void> getWorker() {
+		return this.worker;
+	}
+}
@@ -0,0 +1,333 @@
+package ui;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Re-signature incrmentale de gros fichiers peu modifis, en mode arbre de Merkle.
+ * Pour chaque fichier sign, un index annexe (fichier <code>.mkidx</code>) conserve
+ * la taille, la date de modification et, pour chaque bloc, un CRC32 et le condensat
+ * de la feuille. Lors d'une nouvelle signature :
+ * <ul>
+ * <li>si la taille et la date sont inchanges, aucun octet n'est relu ;</li>
+ * <li>sinon les blocs sont relus en parallle par lectures positionnelles et seuls
+ * ceux dont le CRC32 ou la longueur a chang sont de nouveau condenss.</li>
+ * </ul>
+ * L'index est authentifi par un HMAC-SHA256 portant aussi sur le chemin canonique
+ * du fichier sign, avec une cl propre  l'installation conserve dans un fichier
+ * lisible par son seul propritaire : un index forg, altr ou copi depuis un
+ * autre fichier est ignor et le fichier entirement relu. Les feuilles signes
+ * ont donc toutes t calcules par ce signataire. La taille, la date et le CRC32
+ * ne servent qu' dtecter les changements : une modification qui leur chapperait
+ * produirait une signature portant sur l'ancien contenu, rejete  la vrification.
+ */
+public class IncrementalSigner implements Closeable {
+
+    /**
+     * Rsultat d'une re-signature
+     */
+    public static final class Result {
+        private final MerkleSignature signature;
+        private final int rehashedChunks;
+        private final boolean unchanged;
+
+        private Result(MerkleSignature signature, int rehashedChunks, boolean unchanged) {
+            this.signature = signature;
+            this.rehashedChunks = rehashedChunks;
+            this.unchanged = unchanged;
+        }
+
+        public MerkleSignature getSignature() {
+            return signature;
+        }
+
+        /**
+         * @return le nombre de blocs dont le condensat a t recalcul
+         */
+        public int getRehashedChunks() {
+            return rehashedChunks;
+        }
+
+        /**
+         * @return <code>true</code> si le fichier n'a pas t relu (taille et date inchanges)
+         */
+        public boolean isUnchanged() {
+            return unchanged;
+        }
+    }
+
+    /**
+     * Le contenu d'un index annexe
+     */
+    private static final class Index {
+        private String hashAlgorithm;
+        private int chunkSize;
+        private long fileSize;
+        private long lastModified;
+        private int[] crcs;
+        private byte[][] leaves;
+    }
+
+    // Identification du format de l'index
+    private static final int MAGIC = 0x4D4B4958; // "MKIX"
+    private static final int VERSION = 3;
+
+    // Longueur du HMAC terminant l'index et de sa cl
+    private static final int MAC_LENGTH = 32;
+    private static final int KEY_LENGTH = 32;
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    // Dlai en de duquel la date de modification d'un fichier n'est pas juge fiable
+    private static final long RACY_DELAY = 2000;
+
+    // Extension des index annexes
+    public static final String INDEX_SUFFIX = ".mkidx";
+
+    // Chaque thread conserve son tableau de calcul des CRC32
+    private static final ThreadLocal<byte[]> ARRAYS = new ThreadLocal<>();
+
+    // Le signataire de Merkle sous-jacent
+    private final MerkleSigner merkle;
+
+    // La cl authentifiant les index
+    private final SecretKeySpec macKey;
+
+    /**
+     * Construction d'une instance de la classe
+     * @param merkle le signataire de Merkle fixant l'algorithme et la taille des blocs
+     * @param keyFile le fichier de la cl authentifiant les index, cr s'il n'existe pas
+     * @throws IOException si le fichier de la cl existe mais ne peut tre lu
+     */
+    public IncrementalSigner(MerkleSigner merkle, File keyFile) throws IOException {
+        this.merkle = merkle;
+        this.macKey = new SecretKeySpec(PrivateFiles.readKey(keyFile, KEY_LENGTH), MAC_ALGORITHM);
+    }
+
+    /**
+     * @param file un fichier sign
+     * @return le fichier d'index annexe associ
+     */
+    public static File indexFile(File file) {
+        return new File(file.getPath() + INDEX_SUFFIX);
+    }
+
+    /**
+     * Signature d'un fichier, en rutilisant l'index annexe s'il existe
+     * @param file le fichier  signer
+     * @param privateKey la cl prive de signature
+     * @return la nouvelle signature et le bilan de la re-signature
+     * @throws GeneralSecurityException si le calcul de la signature choue
+     * @throws IOException si la lecture du fichier ou l'criture de l'index choue
+     */
+    public Result sign(File file, PrivateKey privateKey)
+            throws GeneralSecurityException, IOException {
+        final int chunkSize = merkle.getChunkSize();
+        final String hashAlgorithm = merkle.getHashAlgorithm();
+        String path = file.getCanonicalPath();
+        Index previous = readIndex(indexFile(file), path);
+        if (previous != null && (previous.chunkSize != chunkSize
+                || !previous.hashAlgorithm.equals(hashAlgorithm)))
+            previous = null;
+
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            long lastModified = file.lastModified();
+            if (previous != null && previous.fileSize == size && previous.lastModified == lastModified)
+                return new Result(merkle.sign(privateKey, size, previous.leaves), 0, true);
+
+            int count = MerkleSignature.chunkCount(size, chunkSize);
+            final Index index = new Index();
+            index.hashAlgorithm = hashAlgorithm;
+            index.chunkSize = chunkSize;
+            index.fileSize = size;
+            // une date trop rcente ne permet pas d'exclure une modification ultrieure
+            // dans la mme unit de temps : l'index ne la retient pas
+            index.lastModified = System.currentTimeMillis() - lastModified < RACY_DELAY ? -1 : lastModified;
+            index.crcs = new int[count];
+            index.leaves = new byte[count][];
+
+            // chaque bloc n'est lu qu'une fois : son CRC32 est compar  celui de
+            // l'index et il n'est condens que s'il diffre
+            final Index old = previous;
+            final AtomicInteger rehashed = new AtomicInteger();
+            List<Callable<Void>> tasks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                final int chunk = i;
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws GeneralSecurityException, IOException {
+                        ByteBuffer buffer = MerkleSigner.readChunk(channel, size, chunk, chunkSize);
+                        index.crcs[chunk] = crc(buffer.duplicate());
+                        if (old != null && chunk < old.leaves.length
+                                && buffer.remaining() == chunkLength(old.fileSize, chunkSize, chunk)
+                                && index.crcs[chunk] == old.crcs[chunk]) {
+                            index.leaves[chunk] = old.leaves[chunk];
+                        } else {
+                            index.leaves[chunk] = MerkleSignature.leafHash(
+                                    MessageDigest.getInstance(hashAlgorithm), buffer);
+                            rehashed.incrementAndGet();
+                        }
+                        return null;
+                    }
+                });
+            }
+            merkle.invokeAll(tasks);
+            MerkleSignature signature = merkle.sign(privateKey, size, index.leaves);
+            writeIndex(indexFile(file), path, index);
+            return new Result(signature, rehashed.get(), false);
+        }
+    }
+
+    private static long chunkLength(long fileSize, int chunkSize, int index) {
+        return Math.max(0, Math.min(chunkSize, fileSize - (long)index * chunkSize));
+    }
+
+    /**
+     * Calcul du CRC32 du contenu d'un buffer
+     */
+    private static int crc(ByteBuffer buffer) {
+        byte[] array = ARRAYS.get();
+        if (array == null || array.length < buffer.remaining()) {
+            array = new byte[buffer.remaining()];
+            ARRAYS.set(array);
+        }
+        int length = buffer.remaining();
+        buffer.get(array, 0, length);
+        CRC32 crc = new CRC32();
+        crc.update(array, 0, length);
+        return (int)crc.getValue();
+    }
+
+    /**
+     * Calcul du HMAC d'un index
+     * @param path le chemin canonique du fichier sign
+     * @param content le contenu de l'index, HMAC exclu
+     * @param length la longueur de ce contenu
+     */
+    private byte[] mac(String path, byte[] content, int length) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(macKey);
+            mac.update(path.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte)0);
+            mac.update(content, 0, length);
+            return mac.doFinal();
+        } catch (NoSuchAlgorithmException | InvalidKeyException ex) {
+            // HmacSHA256 est toujours disponible
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Lecture d'un index annexe
+     * @param path le chemin canonique du fichier sign
+     * @return l'index lu, ou <code>null</code> s'il est absent, illisible ou non authentique
+     */
+    private Index readIndex(File file, String path) {
+        if (!file.isFile())
+            return null;
+        try {
+            byte[] content = Files.readAllBytes(file.toPath());
+            int length = content.length - MAC_LENGTH;
+            if (length < 0 || !MessageDigest.isEqual(mac(path, content, length),
+                    Arrays.copyOfRange(content, length, content.length)))
+                return null;
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(content, 0, length));
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION)
+                return null;
+            Index index = new Index();
+            index.hashAlgorithm = in.readUTF();
+            index.chunkSize = in.readInt();
+            index.fileSize = in.readLong();
+            index.lastModified = in.readLong();
+            int count = in.readInt();
+            int hashLength = in.readUnsignedShort();
+            if (index.chunkSize <= 0 || index.fileSize < 0 || hashLength == 0
+                    || count != MerkleSignature.chunks(index.fileSize, index.chunkSize)
+                    || count > length / (4 + hashLength))
+                return null;
+            index.crcs = new int[count];
+            index.leaves = new byte[count][hashLength];
+            for (int i = 0; i < count; i++) {
+                index.crcs[i] = in.readInt();
+                in.readFully(index.leaves[i]);
+            }
+            return index;
+        } catch (IOException ex) {
+            // un index illisible est ignor : le fichier est alors entirement relu
+            return null;
+        }
+    }
+
+    /**
+     * criture d'un index annexe dans un fichier temporaire propre  l'appel, forc
+     * sur disque puis renomm, pour ne jamais laisser un index partiellement crit
+     * mme lors de re-signatures concurrentes du mme fichier
+     */
+    private void writeIndex(File file, String path, Index index) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeUTF(index.hashAlgorithm);
+        out.writeInt(index.chunkSize);
+        out.writeLong(index.fileSize);
+        out.writeLong(index.lastModified);
+        out.writeInt(index.leaves.length);
+        out.writeShort(index.leaves[0].length);
+        for (int i = 0; i < index.leaves.length; i++) {
+            out.writeInt(index.crcs[i]);
+            out.write(index.leaves[i]);
+        }
+        byte[] content = bytes.toByteArray();
+        out.write(mac(path, content, content.length));
+
+        File tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            try (FileOutputStream fos = new FileOutputStream(tmp)) {
+                bytes.writeTo(fos);
+                // force l'criture du contenu avant le renommage
+                fos.getChannel().force(true);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            // sans effet aprs le renommage
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    /**
+     * Arrt du signataire de Merkle sous-jacent
+     */
+    @Override
+    public void close() {
+        merkle.close();
+    }
+}
@@ -0,0 +1,598 @@
+package ui;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.KeyStoreSpi;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.ProviderException;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keystore au format index, charg sans dchiffrer ses entres.
+ * Le fichier commence par un index (alias, type, date, position et longueur de
+ * chaque entre, puis un condensat dpendant du mot de passe) suivi des entres,
+ * chacune conserve dans un petit keystore JCEKS protg par le mot de passe du
+ * keystore. Seul l'index est lu au chargement ; une entre n'est lue et
+ * dchiffre que lors de son premier accs.
+ * <p>
+ * Le fichier charg reste ouvert jusqu' la sauvegarde ou au rechargement du
+ * keystore : les lectures diffres portent ainsi toujours sur le fichier dont
+ * l'index a t lu, mme s'il a t remplac depuis (par exemple par une
+ * sauvegarde atomique). Tous les accs  l'index sont protgs par son verrou.
+ * <p>
+ * Le format est manipul au travers de la classe {@link KeyStore} standard
+ * (voir {@link #load(File, char[])}) et peut tre converti depuis et vers les
+ * formats JCEKS et PKCS12 par {@link #copy}.
+ */
+public final class IndexedKeyStore extends KeyStoreSpi {
+    // Le type du keystore, tel qu'accept par KeyStoreTools
+    public static final String TYPE = "INDEXED";
+
+    // Identification du format
+    private static final int MAGIC = 0x494B5331; // "IKS1"
+
+    // Types des entres
+    private static final byte PRIVATE_KEY = 1;
+    private static final byte SECRET_KEY = 2;
+    private static final byte CERTIFICATE = 3;
+
+    // Complment du condensat de l'index
+    private static final byte[] INDEX_SALT = "IndexedKeyStore".getBytes(StandardCharsets.US_ASCII);
+
+    // Type des petits keystores contenant chaque entre
+    private static final String BLOB_TYPE = "JCEKS";
+
+    /**
+     * Paramtre de chargement dsignant un fichier : l'index seul est lu et les
+     * entres sont lues  la demande par des lectures positionnelles
+     */
+    public static final class FileParameter implements KeyStore.LoadStoreParameter {
+        private final File file;
+        private final KeyStore.PasswordProtection protection;
+
+        public FileParameter(File file, char[] password) {
+            this.file = file;
+            this.protection = new KeyStore.PasswordProtection(password);
+        }
+
+        @Override
+        public KeyStore.ProtectionParameter getProtectionParameter() {
+            return protection;
+        }
+    }
+
+    /**
+     * Une entre de l'index
+     */
+    private static final class Slot {
+        private final byte type;
+        private final long date;
+        // Position de l'entre dans le fichier source (si blob est null)
+        private long offset;
+        private int length;
+        // L'entre srialise, si elle est en mmoire
+        private byte[] blob;
+        // L'entre dsrialise lors du premier accs
+        private KeyStore opened;
+
+        private Slot(byte type, long date) {
+            this.type = type;
+            this.date = date;
+        }
+    }
+
+    // L'index des entres, dans l'ordre du fichier
+    private final Map<String, Slot> slots = new LinkedHashMap<>();
+
+    // Le fichier source des entres non encore lues, ouvert au chargement
+    // (null pour un chargement par flot ou aprs une sauvegarde)
+    private FileChannel source;
+
+    // Le mot de passe protgeant les entres srialises
+    private char[] storepass = new char[0];
+
+    /**
+     * Construction d'un keystore vide au format index,  charger par {@link KeyStore#load}
+     * @return le keystore
+     */
+    public static KeyStore newKeyStore() {
+        return new KeyStore(new IndexedKeyStore(), null, TYPE) {
+        };
+    }
+
+    /**
+     * Chargement d'un fichier au format index : seul l'index est lu
+     * @param file le fichier contenant le keystore
+     * @param password le mot de passe du keystore
+     * @return le keystore charg
+     * @throws GeneralSecurityException si le chargement choue
+     * @throws IOException si la lecture de l'index choue
+     */
+    public static KeyStore load(File file, char[] password)
+            throws GeneralSecurityException, IOException {
+        KeyStore ks = newKeyStore();
+        ks.load(new FileParameter(file, password));
+        return ks;
+    }
+
+    /**
+     * Copie de toutes les entres d'un keystore dans un autre, quels que soient
+     * leurs formats (par exemple de JCEKS ou PKCS12 vers le format index, ou l'inverse)
+     * @param from le keystore source
+     * @param fromKeyPassword le mot de passe des cls du keystore source
+     * @param to le keystore destination, dj charg
+     * @param toKeyPassword le mot de passe protgeant les cls dans le keystore destination
+     * @return le nombre d'entres copies
+     * @throws GeneralSecurityException si la lecture ou l'criture d'une entre choue
+     */
+    public static int copy(KeyStore from, char[] fromKeyPassword, KeyStore to, char[] toKeyPassword)
+            throws GeneralSecurityException {
+        int count = 0;
+        for (Enumeration<String> aliases = from.aliases(); aliases.hasMoreElements();) {
+            String alias = aliases.nextElement();
+            if (from.isCertificateEntry(alias)) {
+                to.setCertificateEntry(alias, from.getCertificate(alias));
+            } else {
+                to.setKeyEntry(alias, from.getKey(alias, fromKeyPassword), toKeyPassword,
+                        from.getCertificateChain(alias));
+            }
+            count++;
+        }
+        return count;
+    }
+
+    private Slot slot(String alias) {
+        synchronized (slots) {
+            return slots.get(alias);
+        }
+    }
+
+    /**
+     * Accs  l'entre dsrialise, lue et dchiffre lors du premier accs
+     * @throws KeyStoreException si l'entre ne peut tre lue ou dchiffre
+     */
+    private KeyStore open(String alias) throws KeyStoreException {
+        Slot slot = slot(alias);
+        if (slot == null)
+            return null;
+        synchronized (slot) {
+            if (slot.opened == null) {
+                char[] password;
+                byte[] bytes;
+                FileChannel channel;
+                synchronized (slots) {
+                    password = storepass;
+                    bytes = slot.blob;
+                    channel = source;
+                }
+                try {
+                    if (bytes == null) {
+                        try {
+                            bytes = read(channel, slot);
+                        } catch (ClosedChannelException ex) {
+                            // le keystore a t sauvegard entre-temps : l'entre est en mmoire
+                            synchronized (slots) {
+                                password = storepass;
+                                bytes = slot.blob;
+                            }
+                            if (bytes == null)
+                                throw ex;
+                        }
+                    }
+                    KeyStore blob = KeyStore.getInstance(BLOB_TYPE);
+                    blob.load(new ByteArrayInputStream(bytes), password);
+                    if (!blob.containsAlias(alias))
+                        throw new IOException("Entre " + alias + " incohrente avec l'index");
+                    slot.opened = blob;
+                } catch (GeneralSecurityException | IOException ex) {
+                    throw new KeyStoreException("Lecture de l'entre " + alias + " impossible", ex);
+                }
+            }
+            return slot.opened;
+        }
+    }
+
+    /**
+     * Lecture d'une entre srialise dans le fichier source
+     */
+    private static byte[] read(FileChannel channel, Slot slot) throws IOException {
+        if (channel == null)
+            throw new IOException("Keystore index incohrent");
+        byte[] bytes = new byte[slot.length];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, slot.offset + buffer.position()) < 0)
+                throw new IOException("Keystore index tronqu");
+        }
+        return bytes;
+    }
+
+    /**
+     * Fermeture du fichier source, dont les entres sont dsormais toutes en mmoire
+     * ou abandonnes ;  appeler sous le verrou de l'index
+     */
+    private void closeSource() throws IOException {
+        if (source != null) {
+            source.close();
+            source = null;
+        }
+    }
+
+    /**
+     * Srialisation d'une entre dans un petit keystore protg par le mot de passe
+     * du keystore ;  appeler sous le verrou de l'index
+     */
+    private byte[] wrap(KeyStore blob) throws KeyStoreException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            blob.store(bytes, storepass);
+            return bytes.toByteArray();
+        } catch (NoSuchAlgorithmException | CertificateException | IOException ex) {
+            throw new KeyStoreException(ex);
+        }
+    }
+
+    private static KeyStore newBlob() throws KeyStoreException {
+        try {
+            KeyStore blob = KeyStore.getInstance(BLOB_TYPE);
+            blob.load(null, null);
+            return blob;
+        } catch (NoSuchAlgorithmException | CertificateException | IOException ex) {
+            throw new KeyStoreException(ex);
+        }
+    }
+
+    private void put(String alias, byte type, KeyStore blob) throws KeyStoreException {
+        Slot slot = new Slot(type, System.currentTimeMillis());
+        slot.opened = blob;
+        synchronized (slots) {
+            if (type == CERTIFICATE) {
+                Slot previous = slots.get(alias);
+                if (previous != null && previous.type != CERTIFICATE)
+                    throw new KeyStoreException("L'alias " + alias + " dsigne une cl");
+            }
+            slot.blob = wrap(blob);
+            slots.put(alias, slot);
+        }
+    }
+
+    @Override
+    public Key engineGetKey(String alias, char[] password)
+            throws NoSuchAlgorithmException, UnrecoverableKeyException {
+        try {
+            KeyStore blob = open(alias);
+            return blob == null ? null : blob.getKey(alias, password);
+        } catch (KeyStoreException ex) {
+            UnrecoverableKeyException failure = new UnrecoverableKeyException(ex.getMessage());
+            failure.initCause(ex);
+            throw failure;
+        }
+    }
+
+    // Les mthodes suivantes ne peuvent lever d'exception contrle : un chec
+    // de lecture est signal par une ProviderException
+    @Override
+    public Certificate[] engineGetCertificateChain(String alias) {
+        try {
+            KeyStore blob = open(alias);
+            return blob == null ? null : blob.getCertificateChain(alias);
+        } catch (KeyStoreException ex) {
+            throw new ProviderException(ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public Certificate engineGetCertificate(String alias) {
+        try {
+            KeyStore blob = open(alias);
+            return blob == null ? null : blob.getCertificate(alias);
+        } catch (KeyStoreException ex) {
+            throw new ProviderException(ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public Date engineGetCreationDate(String alias) {
+        Slot slot = slot(alias);
+        return slot == null ? null : new Date(slot.date);
+    }
+
+    @Override
+    public void engineSetKeyEntry(String alias, Key key, char[] password, Certificate[] chain)
+            throws KeyStoreException {
+        KeyStore blob = newBlob();
+        blob.setKeyEntry(alias, key, password, chain);
+        put(alias, key instanceof PrivateKey ? PRIVATE_KEY : SECRET_KEY, blob);
+    }
+
+    @Override
+    public void engineSetKeyEntry(String alias, byte[] key, Certificate[] chain)
+            throws KeyStoreException {
+        KeyStore blob = newBlob();
+        blob.setKeyEntry(alias, key, chain);
+        put(alias, chain != null && chain.length > 0 ? PRIVATE_KEY : SECRET_KEY, blob);
+    }
+
+    @Override
+    public void engineSetCertificateEntry(String alias, Certificate cert)
+            throws KeyStoreException {
+        // le type de l'entre remplace est contrl par put, sous le verrou de l'index
+        KeyStore blob = newBlob();
+        blob.setCertificateEntry(alias, cert);
+        put(alias, CERTIFICATE, blob);
+    }
+
+    @Override
+    public void engineDeleteEntry(String alias) {
+        synchronized (slots) {
+            slots.remove(alias);
+        }
+    }
+
+    @Override
+    public Enumeration<String> engineAliases() {
+        synchronized (slots) {
+            return Collections.enumeration(Arrays.asList(slots.keySet().toArray(new String[0])));
+        }
+    }
+
+    @Override
+    public boolean engineContainsAlias(String alias) {
+        synchronized (slots) {
+            return slots.containsKey(alias);
+        }
+    }
+
+    @Override
+    public int engineSize() {
+        synchronized (slots) {
+            return slots.size();
+        }
+    }
+
+    @Override
+    public boolean engineIsKeyEntry(String alias) {
+        Slot slot = slot(alias);
+        return slot != null && slot.type != CERTIFICATE;
+    }
+
+    @Override
+    public boolean engineIsCertificateEntry(String alias) {
+        Slot slot = slot(alias);
+        return slot != null && slot.type == CERTIFICATE;
+    }
+
+    @Override
+    public boolean engineEntryInstanceOf(String alias, Class<? extends KeyStore.Entry> entryClass) {
+        Slot slot = slot(alias);
+        if (slot == null)
+            return false;
+        switch (slot.type) {
+            case PRIVATE_KEY:
+                return entryClass == KeyStore.PrivateKeyEntry.class;
+            case SECRET_KEY:
+                return entryClass == KeyStore.SecretKeyEntry.class;
+            default:
+                return entryClass == KeyStore.TrustedCertificateEntry.class;
+        }
+    }
+
+    @Override
+    public String engineGetCertificateAlias(Certificate cert) {
+        // parcours linaire : chaque entre consulte est alors dsrialise
+        for (Enumeration<String> aliases = engineAliases(); aliases.hasMoreElements();) {
+            String alias = aliases.nextElement();
+            if (cert.equals(engineGetCertificate(alias)))
+                return alias;
+        }
+        return null;
+    }
+
+    @Override
+    public void engineStore(OutputStream stream, char[] password)
+            throws IOException, NoSuchAlgorithmException, CertificateException {
+        if (password == null)
+            throw new IllegalArgumentException("Le mot de passe du keystore est requis");
+        synchronized (slots) {
+            String[] aliases = slots.keySet().toArray(new String[0]);
+            byte[][] blobs = new byte[aliases.length][];
+            for (int i = 0; i < aliases.length; i++) {
+                Slot slot = slots.get(aliases[i]);
+                // les entres sont conserves en mmoire : le fichier source peut tre remplac
+                if (slot.blob == null)
+                    slot.blob = read(source, slot);
+                if (!Arrays.equals(password, storepass)) {
+                    // changement de mot de passe : l'entre est de nouveau protge
+                    try {
+                        KeyStore blob = KeyStore.getInstance(BLOB_TYPE);
+                        blob.load(new ByteArrayInputStream(slot.blob), storepass);
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        blob.store(bytes, password);
+                        blobs[i] = bytes.toByteArray();
+                    } catch (KeyStoreException ex) {
+                        throw new IOException(ex);
+                    }
+                } else {
+                    blobs[i] = slot.blob;
+                }
+            }
+            // l'index a une taille fixe pour un ensemble d'alias donn : il est crit
+            // une premire fois pour mesurer sa taille, puis avec les positions relles
+            long[] offsets = new long[aliases.length];
+            long base = writeIndex(aliases, offsets, blobs, password).length;
+            for (int i = 0; i < aliases.length; i++) {
+                offsets[i] = base;
+                base += blobs[i].length;
+            }
+            DataOutputStream out = new DataOutputStream(stream);
+            out.write(writeIndex(aliases, offsets, blobs, password));
+            for (byte[] blob : blobs)
+                out.write(blob);
+            out.flush();
+            for (int i = 0; i < aliases.length; i++)
+                slots.get(aliases[i]).blob = blobs[i];
+            storepass = password.clone();
+            // toutes les entres sont en mmoire : le fichier source n'est plus lu
+            closeSource();
+        }
+    }
+
+    /**
+     * criture de l'index, suivi de son condensat dpendant du mot de passe
+     */
+    private byte[] writeIndex(String[] aliases, long[] offsets, byte[][] blobs, char[] password)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(aliases.length);
+        for (int i = 0; i < aliases.length; i++) {
+            Slot slot = slots.get(aliases[i]);
+            out.writeUTF(aliases[i]);
+            out.writeByte(slot.type);
+            out.writeLong(slot.date);
+            out.writeLong(offsets[i]);
+            out.writeInt(blobs[i].length);
+        }
+        MessageDigest md = indexDigest(password);
+        md.update(bytes.toByteArray());
+        out.write(md.digest());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Condensat protgeant l'index, initialis avec le mot de passe du keystore
+     */
+    private static MessageDigest indexDigest(char[] password) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+            md.update(bytes.duplicate());
+            if (bytes.hasArray())
+                Arrays.fill(bytes.array(), (byte)0);
+            md.update(INDEX_SALT);
+            return md;
+        } catch (NoSuchAlgorithmException ex) {
+            // SHA-256 est toujours disponible
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Override
+    public void engineLoad(InputStream stream, char[] password)
+            throws IOException, NoSuchAlgorithmException, CertificateException {
+        synchronized (slots) {
+            slots.clear();
+            closeSource();
+            storepass = password == null ? new char[0] : password.clone();
+            if (stream == null)
+                return;
+            // chargement par flot : les entres sont conserves en mmoire, toujours chiffres
+            DataInputStream in = new DataInputStream(stream);
+            long position = readIndex(in, password);
+            for (Slot slot : slots.values()) {
+                if (slot.offset != position)
+                    throw new IOException("Keystore index incohrent");
+                slot.blob = new byte[slot.length];
+                in.readFully(slot.blob);
+                position += slot.length;
+            }
+        }
+    }
+
+    @Override
+    public void engineLoad(KeyStore.LoadStoreParameter param)
+            throws IOException, NoSuchAlgorithmException, CertificateException {
+        if (!(param instanceof FileParameter)) {
+            super.engineLoad(param);
+            return;
+        }
+        FileParameter fileParam = (FileParameter)param;
+        synchronized (slots) {
+            slots.clear();
+            closeSource();
+            char[] password = fileParam.protection.getPassword();
+            storepass = password == null ? new char[0] : password.clone();
+            FileChannel channel = FileChannel.open(fileParam.file.toPath(), StandardOpenOption.READ);
+            try {
+                // seul l'index est lu ; le canal reste ouvert pour les lectures diffres
+                readIndex(new BufferedInputStream(Channels.newInputStream(channel)), password);
+            } catch (IOException | RuntimeException ex) {
+                slots.clear();
+                channel.close();
+                throw ex;
+            }
+            source = channel;
+        }
+    }
+
+    /**
+     * Lecture de l'index et contrle de son condensat (omis si le mot de passe est null)
+     * @return la position du premier octet suivant l'index
+     */
+    private long readIndex(InputStream stream, char[] password) throws IOException {
+        DigestInputStream digestStream = new DigestInputStream(stream,
+                indexDigest(password == null ? new char[0] : password));
+        DataInputStream in = new DataInputStream(digestStream);
+        if (in.readInt() != MAGIC)
+            throw new IOException("Ce fichier n'est pas un keystore index");
+        int count = in.readInt();
+        long position = 8;
+        for (int i = 0; i < count; i++) {
+            String alias = in.readUTF();
+            Slot slot = new Slot(in.readByte(), in.readLong());
+            slot.offset = in.readLong();
+            slot.length = in.readInt();
+            if (slot.length < 0 || slot.offset < 0)
+                throw new IOException("Keystore index incohrent");
+            slots.put(alias, slot);
+            // taille de l'entre d'index : alias en UTF modifi, type, date, position, longueur
+            position += 2 + modifiedUtfLength(alias) + 1 + 8 + 8 + 4;
+        }
+        digestStream.on(false);
+        byte[] expected = digestStream.getMessageDigest().digest();
+        byte[] actual = new byte[expected.length];
+        in.readFully(actual);
+        if (password != null && !MessageDigest.isEqual(expected, actual))
+            throw new IOException("Keystore index altr ou mot de passe incorrect");
+        return position + actual.length;
+    }
+
+    private static int modifiedUtfLength(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            length += c >= 0x0001 && c <= 0x007F ? 1 : c > 0x07FF ? 3 : 2;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,182 @@
+package ui;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache des cls prives dchiffres d'un keystore, avec dure de vie et
+ * taille maximale (les entres les moins rcemment utilises sont vinces).
+ * Une entre n'est servie que si le mot de passe fourni est celui qui a permis
+ * de la dchiffrer : le cache en conserve un condensat sal, jamais le mot de passe.
+ * <p>
+ * Chaque invalidation incrmente une gnration : une cl lue dans le keystore
+ * n'est mmorise que si aucune invalidation n'a eu lieu depuis le dbut de sa
+ * lecture, si bien qu'une lecture concurrente d'un remplacement ne peut remettre
+ * l'ancienne cl en cache.
+ */
+class KeyCache {
+
+    /**
+     * Une cl dchiffre
+     */
+    private static final class CachedKey {
+        private final PrivateKey key;
+        private final byte[] passwordDigest;
+        private final long expiresAt;
+
+        private CachedKey(PrivateKey key, byte[] passwordDigest, long expiresAt) {
+            this.key = key;
+            this.passwordDigest = passwordDigest;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    // Le sel des condensats de mots de passe, propre  l'instance
+    private final byte[] salt = new byte[16];
+
+    // Les entres, ordonnes par date d'accs
+    private final LinkedHashMap<String, CachedKey> entries;
+
+    // Le nombre d'invalidations, protg par le verrou du cache
+    private long generation;
+
+    private volatile long ttlNanos;
+    private volatile int maxSize;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Construction d'un cache
+     * @param ttlMillis la dure de vie des entres en millisecondes
+     * @param maxSize le nombre maximal d'entres
+     */
+    KeyCache(long ttlMillis, int maxSize) {
+        new SecureRandom().nextBytes(salt);
+        this.entries = new LinkedHashMap<String, CachedKey>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedKey> eldest) {
+                return size() > KeyCache.this.maxSize;
+            }
+        };
+        setPolicy(ttlMillis, maxSize);
+    }
+
+    /**
+     * Modification de la politique d'viction
+     * @param ttlMillis la dure de vie des entres en millisecondes
+     * @param maxSize le nombre maximal d'entres (0 dsactive le cache)
+     */
+    synchronized void setPolicy(long ttlMillis, int maxSize) {
+        if (ttlMillis < 0 || maxSize < 0)
+            throw new IllegalArgumentException("Politique de cache invalide");
+        this.ttlNanos = ttlMillis * 1000000L;
+        this.maxSize = maxSize;
+        // applique immdiatement la nouvelle taille maximale
+        while (entries.size() > maxSize)
+            entries.remove(entries.keySet().iterator().next());
+    }
+
+    /**
+     * Recherche d'une cl dchiffre
+     * @param alias l'alias de l'entre
+     * @param passwd le mot de passe fourni par l'appelant
+     * @return la cl, ou <code>null</code> si elle est absente, expire ou si le mot de passe diffre
+     */
+    PrivateKey get(String alias, char[] passwd) {
+        CachedKey entry;
+        synchronized (this) {
+            entry = entries.get(alias);
+            if (entry != null && System.nanoTime() - entry.expiresAt > 0) {
+                entries.remove(alias);
+                entry = null;
+            }
+        }
+        if (entry != null && MessageDigest.isEqual(entry.passwordDigest, digest(passwd))) {
+            hits.incrementAndGet();
+            return entry.key;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * @return la gnration courante,  lire avant de lire une cl dans le keystore
+     */
+    synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Mmorisation d'une cl dchiffre
+     * @param alias l'alias de l'entre
+     * @param passwd le mot de passe ayant permis de la dchiffrer
+     * @param key la cl dchiffre
+     * @param generation la gnration lue avant la lecture de la cl ; la cl
+     * n'est pas mmorise si une invalidation a eu lieu depuis
+     */
+    void put(String alias, char[] passwd, PrivateKey key, long generation) {
+        if (maxSize == 0)
+            return;
+        CachedKey entry = new CachedKey(key, digest(passwd), System.nanoTime() + ttlNanos);
+        synchronized (this) {
+            if (this.generation == generation)
+                entries.put(alias, entry);
+        }
+    }
+
+    synchronized void invalidate(String alias) {
+        generation++;
+        entries.remove(alias);
+    }
+
+    synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Condensat sal d'un mot de passe
+     */
+    private byte[] digest(char[] passwd) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(salt);
+            if (passwd == null) {
+                // distingue l'absence de mot de passe du mot de passe vide
+                md.update((byte)0);
+            } else {
+                md.update((byte)1);
+                ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(passwd));
+                md.update(bytes.duplicate());
+                // efface la copie encode du mot de passe
+                if (bytes.hasArray())
+                    Arrays.fill(bytes.array(), (byte)0);
+            }
+            return md.digest();
+        } catch (NoSuchAlgorithmException ex) {
+            // SHA-256 est toujours disponible
+            throw new IllegalStateException(ex);
+        }
+    }
+}
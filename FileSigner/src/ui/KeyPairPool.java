@@ -0,0 +1,234 @@
+package ui;
+import java.io.Closeable;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rserve de paires de cls ECDSA gnres  l'avance par des threads d'arrire-plan.
+ * Pour chaque courbe, une file borne est remplie jusqu'au seuil haut ds que
+ * sa taille descend au seuil bas. Lorsque la file est vide, la paire est gnre
+ * de manire synchrone dans le thread appelant.
+ */
+public class KeyPairPool implements Closeable {
+
+    /**
+     * La rserve d'une courbe
+     */
+    private final class CurvePool implements Runnable {
+        private final String curveName;
+        private final BlockingQueue<KeyPair> queue;
+        // Indique qu'un remplissage est en cours
+        private final AtomicBoolean refilling = new AtomicBoolean();
+
+        private CurvePool(String curveName) {
+            this.curveName = curveName;
+            this.queue = new ArrayBlockingQueue<>(highWatermark);
+        }
+
+        /**
+         * Dclenchement d'un remplissage si la file est au seuil bas
+         */
+        private void refillIfLow() {
+            if (queue.size() <= lowWatermark && !closed && refilling.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException ex) {
+                    refilling.set(false);
+                }
+            }
+        }
+
+        /**
+         * Remplissage de la file jusqu'au seuil haut
+         */
+        @Override
+        public void run() {
+            try {
+                while (!closed && queue.size() < highWatermark) {
+                    if (!queue.offer(generator(curveName).getECKeyPair()))
+                        break;
+                    generated.incrementAndGet();
+                }
+            } catch (GeneralSecurityException | RuntimeException ex) {
+                failures.incrementAndGet();
+            } finally {
+                refilling.set(false);
+            }
+        }
+    }
+
+    // Chaque thread conserve un gnrateur par courbe
+    private static final ThreadLocal<Map<String, ECSigner.ECKeyPairGenerator>> GENERATORS =
+            new ThreadLocal<Map<String, ECSigner.ECKeyPairGenerator>>() {
+        @Override
+        protected Map<String, ECSigner.ECKeyPairGenerator> initialValue() {
+            return new HashMap<>();
+        }
+    };
+
+    private final int lowWatermark;
+    private final int highWatermark;
+
+    // Les rserves, par nom de courbe
+    private final ConcurrentMap<String, CurvePool> pools = new ConcurrentHashMap<>();
+
+    // Les threads de gnration
+    private final ExecutorService executor;
+
+    private volatile boolean closed;
+
+    // Les mtriques de la rserve
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong generated = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Construction d'une rserve
+     * @param lowWatermark la taille de file dclenchant un remplissage
+     * @param highWatermark la capacit de chaque file
+     * @param threads le nombre de threads de gnration
+     */
+    public KeyPairPool(int lowWatermark, int highWatermark, int threads) {
+        if (lowWatermark < 0 || highWatermark < 1 || lowWatermark >= highWatermark)
+            throw new IllegalArgumentException("Seuils invalides : " + lowWatermark + "/" + highWatermark);
+        if (threads < 1)
+            throw new IllegalArgumentException("Nombre de threads invalide : " + threads);
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        // la gnration d'avance ne doit pas concurrencer les appelants
+        this.executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("key-pair-pool", Thread.MIN_PRIORITY));
+    }
+
+    /**
+     * Accs au gnrateur du thread courant pour une courbe
+     */
+    private static ECSigner.ECKeyPairGenerator generator(String curveName) throws GeneralSecurityException {
+        Map<String, ECSigner.ECKeyPairGenerator> generators = GENERATORS.get();
+        ECSigner.ECKeyPairGenerator generator = generators.get(curveName);
+        if (generator == null) {
+            generator = new ECSigner.ECKeyPairGenerator(curveName);
+            generators.put(curveName, generator);
+        }
+        return generator;
+    }
+
+    private CurvePool pool(String curveName) throws GeneralSecurityException {
+        CurvePool pool = pools.get(curveName);
+        if (pool == null) {
+            // vrifie que la courbe est connue avant de crer sa rserve
+            generator(curveName);
+            CurvePool created = new CurvePool(curveName);
+            pool = pools.putIfAbsent(curveName, created);
+            if (pool == null)
+                pool = created;
+        }
+        return pool;
+    }
+
+    /**
+     * Remplissage anticip de la rserve d'une courbe
+     * @param curveName le nom officiel de la courbe
+     * @throws GeneralSecurityException si la courbe n'est pas connue
+     */
+    public void prefill(String curveName) throws GeneralSecurityException {
+        pool(curveName).refillIfLow();
+    }
+
+    /**
+     * Obtention d'une paire de cls, prise dans la rserve si possible
+     * @param curveName le nom officiel de la courbe
+     * @return une paire de cls neuve
+     * @throws GeneralSecurityException si la gnration choue
+     */
+    public KeyPair take(String curveName) throws GeneralSecurityException {
+        CurvePool pool = pool(curveName);
+        KeyPair keyPair = pool.queue.poll();
+        pool.refillIfLow();
+        if (keyPair != null) {
+            hits.incrementAndGet();
+            return keyPair;
+        }
+        // rserve vide : gnration synchrone dans le thread appelant
+        misses.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            return generator(curveName).getECKeyPair();
+        } finally {
+            waitNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @param curveName le nom officiel de la courbe
+     * @return le nombre de paires disponibles pour cette courbe
+     */
+    public int available(String curveName) {
+        CurvePool pool = pools.get(curveName);
+        return pool == null ? 0 : pool.queue.size();
+    }
+
+    /**
+     * @return le nombre de paires servies depuis la rserve
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return le nombre de paires gnres de manire synchrone
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return la proportion de paires servies depuis la rserve
+     */
+    public double getHitRate() {
+        long h = hits.get(), total = h + misses.get();
+        return total == 0 ? 0 : (double)h / total;
+    }
+
+    /**
+     * @return le temps cumul pass par les appelants  attendre une gnration, en nanosecondes
+     */
+    public long getWaitNanos() {
+        return waitNanos.get();
+    }
+
+    /**
+     * @return le nombre de paires gnres en arrire-plan
+     */
+    public long getGenerated() {
+        return generated.get();
+    }
+
+    /**
+     * @return le nombre de remplissages interrompus par une erreur
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Arrt de la gnration en arrire-plan ; les paires en rserve restent disponibles
+     */
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdown();
+    }
+}
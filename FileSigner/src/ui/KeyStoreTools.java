@@ -1,28 +1,65 @@
 package ui;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyPair;
 import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.security.interfaces.DSAParams;
 import java.security.interfaces.DSAPrivateKey;
 import java.security.interfaces.DSAPublicKey;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 import javax.crypto.SecretKey;
 import javax.security.auth.x500.X500Principal;
@@ -33,12 +70,88 @@ import javax.security.auth.x500.X500Principal;
  */
 public class KeyStoreTools {
 
+    /**
+     * Les types d'entres d'un keystore
+     */
+    public enum EntryType {
+        CERTIFICATE, PRIVATE_KEY, SECRET_KEY
+    }
+
+    /**
+     * Bilan d'une importation de certificats
+     */
+    public static final class ImportReport {
+        private final int imported;
+        private final int duplicates;
+        private final long elapsedNanos;
+
+        private ImportReport(int imported, int duplicates, long elapsedNanos) {
+            this.imported = imported;
+            this.duplicates = duplicates;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getImported() {
+            return imported;
+        }
+
+        public int getDuplicates() {
+            return duplicates;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getCertificatesPerSecond() {
+            return (imported + duplicates) / (elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d certificats imports, %d doublons ignors en %.3f s (%.1f certificats/s)",
+                    imported, duplicates, elapsedNanos / 1e9, getCertificatesPerSecond());
+        }
+    }
+
+    // Dlimiteurs des blocs PEM
+    private static final String PEM_BEGIN = "-----BEGIN CERTIFICATE-----";
+    private static final String PEM_END = "-----END CERTIFICATE-----";
+
     // Le keystore de l'instance
     private KeyStore ks;
 
     // Le mot de passe du keystore
     private char[] storepass;
 
+    // Dure de vie par dfaut des cls prives dchiffres conserves en cache
+    public static final long DEFAULT_KEY_CACHE_TTL = 5 * 60 * 1000;
+
+    // Nombre maximal par dfaut de cls prives dchiffres conserves en cache
+    public static final int DEFAULT_KEY_CACHE_SIZE = 64;
+
+    // Le cache des cls prives dchiffres
+    private final KeyCache keyCache = new KeyCache(DEFAULT_KEY_CACHE_TTL, DEFAULT_KEY_CACHE_SIZE);
+
+    // L'index des certificats, construit lors de la premire recherche puis
+    // tenu  jour par les importations (null tant qu'il n'est pas construit)
+    private volatile CertificateIndex certIndex;
+
+    // La sauvegarde diffre (null si elle n'est pas active), ses paramtres
+    // et les modifications en attente, protgs par le verrou du keystore
+    private ScheduledExecutorService flusher;
+    private File writeBehindFile;
+    private char[] writeBehindPasswd;
+    private long writeBehindDelay;
+    private int pendingMutations;
+
+    // Les mtriques de la sauvegarde diffre
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushFailures = new AtomicLong();
+    private final AtomicLong lastFlushNanos = new AtomicLong();
+    private final AtomicLong lastFlushMutations = new AtomicLong();
+    private final AtomicLong flushedMutations = new AtomicLong();
+
     // Associations des OID pouvant apparatre dans un nom distingu
     //  complter avec les OID de pfixe 1.2.840.113549.1.9
     private static final Map<String, String> OID_MAP = new HashMap<>();
@@ -57,11 +170,25 @@ public class KeyStoreTools {
      */
     public KeyStoreTools(String type, File file, char[] passwd)
             throws GeneralSecurityException, IOException {
-        // Construction d'une instance d'un keystore de type type
-        ks = KeyStore.getInstance(type);
-        // Initialisation du keystore avec le contenu du fichier file
-        InputStream is = new BufferedInputStream(new FileInputStream(file));
-        ks.load(is, passwd);
+        long start = System.nanoTime();
+        try {
+            if (IndexedKeyStore.TYPE.equalsIgnoreCase(type)) {
+                // Le format index ne lit que l'index : les entres sont lues  la demande
+                ks = IndexedKeyStore.load(file, passwd);
+            } else {
+                // Construction d'une instance d'un keystore de type type
+                ks = KeyStore.getInstance(type);
+                // Initialisation du keystore avec le contenu du fichier file
+                try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+                    ks.load(is, passwd);
+                }
+            }
+            Metrics.record(Metrics.Operation.LOAD, start, file.length());
+        }
+        catch (GeneralSecurityException | IOException | RuntimeException ex) {
+            Metrics.error(Metrics.Operation.LOAD, start, ex);
+            throw ex;
+        }
         // Il faut garder le mot de passe du keystore pour l'utiliser par dfaut
         // lorsque l'utilisateur de la classe ne prcise pas de mot de passe
         // pour insrer une nouvelle entre dans le keystore de l'instance
@@ -80,9 +207,32 @@ public class KeyStoreTools {
         this(type, new File(fileName), passwd);
     }
 
+    /**
+     * Cre un keystore vide dans un fichier qui ne doit pas exister.
+     * @param type Le type du keystore
+     * @param file Le fichier du keystore cr
+     * @param passwd Le mot de passe du keystore
+     * @return Une instance manipulant le keystore cr.
+     */
+    public static KeyStoreTools create(String type, File file, char[] passwd)
+            throws GeneralSecurityException, IOException {
+        if (file.exists()) {
+            throw new IOException("Le fichier " + file + " existe dj");
+        }
+        KeyStore empty;
+        if (IndexedKeyStore.TYPE.equalsIgnoreCase(type)) {
+            empty = IndexedKeyStore.newKeyStore();
+        } else {
+            empty = KeyStore.getInstance(type);
+        }
+        empty.load(null, passwd);
+        saveAtomically(empty, file, passwd);
+        return new KeyStoreTools(type, file, passwd);
+    }
+
     /**
      * Renvoie un String donnant une description de la cl publique key selon
-     * un format dpendant de son algorithme (RSA ou DSA)
+     * un format dpendant de son algorithme (RSA, DSA ou EC)
      * @param key Une cl publique
      */
     public static String toString(PublicKey key) {
@@ -106,6 +256,13 @@ public class KeyStoreTools {
             sb.append("G : ").append(dsaParams.getG()).append('\n');
             sb.append("Cl publique :\n");
             sb.append("Y : ").append(dsaPk.getY());
+        } else if (key instanceof ECPublicKey) {
+            // Cas d'une cl EC
+            ECPublicKey ecPk = (ECPublicKey)key;
+            appendECParams(sb, ecPk.getParams());
+            sb.append("Cl publique :\n");
+            sb.append("W : (").append(ecPk.getW().getAffineX()).append(", ")
+                    .append(ecPk.getW().getAffineY()).append(')');
         } else {
             // Cas non pris en charge
             throw new IllegalArgumentException("Cl de type non trait");
@@ -116,7 +273,7 @@ public class KeyStoreTools {
 
     /**
      * Renvoie un String donnant une description de la cl prive key selon
-     * un format dpendant de son algorithme (RSA ou DSA).
+     * un format dpendant de son algorithme (RSA, DSA ou EC).
      * @param key Une cl prive
      */
     public static String toString(PrivateKey key) {
@@ -140,6 +297,12 @@ public class KeyStoreTools {
             sb.append("G : ").append(dsaParams.getG()).append('\n');
             sb.append("Cl prive :\n");
             sb.append("X : ").append(dsaPrk.getX());
+        } else if (key instanceof ECPrivateKey) {
+            // Cas d'une cl EC
+            ECPrivateKey ecPrk = (ECPrivateKey)key;
+            appendECParams(sb, ecPrk.getParams());
+            sb.append("Cl prive :\n");
+            sb.append("S : ").append(ecPrk.getS());
         } else {
             // Cas non pris en charge
             throw new IllegalArgumentException("Cl de type non trait");
@@ -148,6 +311,21 @@ public class KeyStoreTools {
         return sb.toString();
     }
 
+    /**
+     * Ajoute la description des paramtres du domaine d'une cl EC.
+     * @param sb La description en cours de construction
+     * @param params Les paramtres de la courbe
+     */
+    private static void appendECParams(StringBuilder sb, ECParameterSpec params) {
+        ECPoint g = params.getGenerator();
+        sb.append("Paramtres du domaine :\n");
+        sb.append("Taille du corps : ").append(params.getCurve().getField().getFieldSize()).append(" bits\n");
+        sb.append("A : ").append(params.getCurve().getA()).append('\n');
+        sb.append("B : ").append(params.getCurve().getB()).append('\n');
+        sb.append("G : (").append(g.getAffineX()).append(", ").append(g.getAffineY()).append(")\n");
+        sb.append("N : ").append(params.getOrder()).append('\n');
+    }
+
     /**
      * Accs au nom X500 du sujet du certificat.
      * @param cert Un certificat X.509
@@ -188,6 +366,136 @@ public class KeyStoreTools {
         return sb.toString();
     }
 
+    /**
+     * Renvoie les alias des entres du keystore de l'instance d'un type donn et
+     * dont le nom respecte un motif. Les alias sont produits au fur et  mesure
+     * du parcours du keystore, sans construire de liste intermdiaire.
+     * @param type Le type des entres recherches, ou null pour toutes les entres.
+     * @param aliasPattern Le motif des alias recherchs, ou null pour tous les alias.
+     */
+    public Iterable<String> aliases(final EntryType type, final Pattern aliasPattern) {
+        return new Iterable<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                final Enumeration<String> aliases;
+                try {
+                    aliases = ks.aliases();
+                }
+                catch (KeyStoreException ex) {
+                    // Cas d'un keystore non charg
+                    throw new IllegalStateException(ex);
+                }
+                return new Iterator<String>() {
+                    // Le prochain alias retenu, s'il a dj t trouv
+                    private String next;
+
+                    @Override
+                    public boolean hasNext() {
+                        while (next == null && aliases.hasMoreElements()) {
+                            String alias = aliases.nextElement();
+                            if (matches(alias, type, aliasPattern)) {
+                                next = alias;
+                            }
+                        }
+                        return next != null;
+                    }
+
+                    @Override
+                    public String next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        String alias = next;
+                        next = null;
+                        return alias;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Teste si l'entre nomme alias est du type et respecte le motif indiqus.
+     */
+    private boolean matches(String alias, EntryType type, Pattern aliasPattern) {
+        if (aliasPattern != null && !aliasPattern.matcher(alias).matches()) {
+            return false;
+        }
+        if (type == null) {
+            return true;
+        }
+        try {
+            switch (type) {
+                case CERTIFICATE:
+                    return ks.isCertificateEntry(alias);
+                case PRIVATE_KEY:
+                    return ks.entryInstanceOf(alias, KeyStore.PrivateKeyEntry.class);
+                default:
+                    return ks.entryInstanceOf(alias, KeyStore.SecretKeyEntry.class);
+            }
+        }
+        catch (KeyStoreException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * crit dans out la description des certificats contenus dans le keystore
+     * de l'instance, au fur et  mesure du parcours du keystore.
+     * @param out La destination des descriptions.
+     * @param aliasPattern Le motif des alias  dcrire, ou null pour tous les alias.
+     */
+    public void writeCertificates(Appendable out, Pattern aliasPattern)
+            throws GeneralSecurityException, IOException {
+        // Parcourt les alias identifiant les certificats du keystore
+        for (String alias : aliases(EntryType.CERTIFICATE, aliasPattern)) {
+            // Rcupre le certificat
+            Certificate cert = ks.getCertificate(alias);
+            // Prsente l'alias du certificat
+            out.append("Alias : ").append(alias).append('\n');
+            if (cert instanceof X509Certificate) {
+                // Cas d'un certificat X.509
+                out.append(toString((X509Certificate)cert));
+            }
+            else {
+                // Cas non pris en charge
+                out.append("Certificat de type non trait\n");
+            }
+            out.append('\n');
+        }
+    }
+
+    /**
+     * crit dans out la description des cls prives contenues dans le keystore
+     * de l'instance, au fur et  mesure du parcours du keystore.
+     * @param out La destination des descriptions.
+     * @param passwd Le mot de passe des cls prives.
+     * @param aliasPattern Le motif des alias  dcrire, ou null pour tous les alias.
+     */
+    public void writePrivateKeys(Appendable out, char[] passwd, Pattern aliasPattern)
+            throws GeneralSecurityException, IOException {
+        // Parcourt les alias identifiant les cls prives du keystore
+        for (String alias : aliases(EntryType.PRIVATE_KEY, aliasPattern)) {
+            // Prsente l'alias de la cl...
+            out.append("Alias : ").append(alias).append('\n');
+            // ...puis la rcuprer
+            try {
+                // Dcrit la cl prive
+                out.append(toString(getPrivateKey(alias, passwd)));
+            }
+            catch (UnrecoverableKeyException ex) {
+                // Cas o la cl ne peut tre rcupre (mot de passe invalide...)
+                out.append("Cl prive non rcuprable : ").append(ex.getLocalizedMessage()).append('\n');
+            }
+            out.append('\n');
+        }
+    }
+
     /**
      * Renvoie un String dcrivant la liste des descriptions des certificats
      * contenus dans le keystore de l'instance.
@@ -195,26 +503,12 @@ public class KeyStoreTools {
     public String listCertificates()
             throws GeneralSecurityException {
         StringBuilder sb = new StringBuilder();
-        // Rcupre tous les alias identifiant les entres du keystore
-        Enumeration<String> aliases = ks.aliases();
-        while (aliases.hasMoreElements()) {
-            String alias = aliases.nextElement();
-            // Teste si l'entre nomme par l'alias courant est un certificat
-            if (ks.isCertificateEntry(alias)) {
-                // Si c'est le cas la rcuprer
-                Certificate cert = ks.getCertificate(alias);
-                // Prsente l'alias du certificat
-                sb.append("Alias : ").append(alias).append('\n');
-                if (cert instanceof X509Certificate) {
-                    // Cas d'un certificat X.509
-                    sb.append(toString((X509Certificate)cert));
-                }
-                else {
-                    // Cas non pris en charge
-                    sb.append("Certificat de type non trait\n");
-                }
-                sb.append('\n');
-            }
+        try {
+            writeCertificates(sb, null);
+        }
+        catch (IOException ex) {
+            // Impossible : un StringBuilder ne lve pas d'IOException
+            throw new IllegalStateException(ex);
         }
         // Retourne la chaine construite, dcrivant les certificats du keystore
         return sb.toString();
@@ -228,32 +522,97 @@ public class KeyStoreTools {
     public String listPrivateKeys(char[] passwd)
             throws GeneralSecurityException {
         StringBuilder sb = new StringBuilder();
-        // Rcupre tous les alias identifiant les entres du keystore
-        Enumeration<String> aliases = ks.aliases();
-        while (aliases.hasMoreElements()) {
-            String alias = aliases.nextElement();
-            // Teste si l'entre nomme par l'alias courant est une cl prive
-            if (ks.entryInstanceOf(alias, KeyStore.PrivateKeyEntry.class)) {
-                // Si c'est le cas, prsenter l'alias du certificat...
-                sb.append("Alias : ").append(alias).append('\n');
-                // ...puis la rcuprer
-                PrivateKey key;
-                try {
-                    key = (PrivateKey)ks.getKey(alias, passwd);
-                    // Dcrit la cl prive
-                    sb.append(toString(key));
-                }
-                catch (UnrecoverableKeyException ex) {
-                    // Cas o la cl ne peut tre rcupre (mot de passe invalide...)
-                    sb.append("Cl prive non rcuprable : ").append(ex.getLocalizedMessage()).append('\n');
-                }
-                sb.append('\n');
-            }
+        try {
+            writePrivateKeys(sb, passwd, null);
+        }
+        catch (IOException ex) {
+            // Impossible : un StringBuilder ne lve pas d'IOException
+            throw new IllegalStateException(ex);
         }
         // Retourne la chaine construite, dcrivant les cls prives du keystore
         return sb.toString();
     }
 
+    /**
+     * Accs  la cl prive nomme alias. Les cls dchiffres sont conserves
+     * en cache : seul le premier accs (ou le premier aprs expiration) paie le
+     * dchiffrement de l'entre.
+     * @param alias L'alias de la cl prive.
+     * @param passwd Le mot de passe de la cl prive.
+     * @return La cl prive, ou null si l'alias n'existe pas.
+     */
+    public PrivateKey getPrivateKey(String alias, char[] passwd)
+            throws GeneralSecurityException {
+        long start = System.nanoTime();
+        try {
+            PrivateKey key = findPrivateKey(alias, passwd);
+            Metrics.record(Metrics.Operation.GET_KEY, start, 0);
+            return key;
+        }
+        catch (GeneralSecurityException | RuntimeException ex) {
+            Metrics.error(Metrics.Operation.GET_KEY, start, ex);
+            throw ex;
+        }
+    }
+
+    private PrivateKey findPrivateKey(String alias, char[] passwd)
+            throws GeneralSecurityException {
+        PrivateKey key = keyCache.get(alias, passwd);
+        if (key != null) {
+            return key;
+        }
+        // Une entre remplace pendant la lecture n'est pas mise en cache
+        long generation = keyCache.generation();
+        Key entry = ks.getKey(alias, passwd);
+        if (entry == null) {
+            return null;
+        }
+        if (!(entry instanceof PrivateKey)) {
+            throw new KeyStoreException("L'entre " + alias + " n'est pas une cl prive");
+        }
+        key = (PrivateKey)entry;
+        keyCache.put(alias, passwd, key, generation);
+        return key;
+    }
+
+    /**
+     * Modifie la politique du cache des cls prives dchiffres.
+     * @param ttlMillis La dure de vie des cls en cache, en millisecondes.
+     * @param maxSize Le nombre maximal de cls en cache (0 dsactive le cache).
+     */
+    public void setKeyCachePolicy(long ttlMillis, int maxSize) {
+        keyCache.setPolicy(ttlMillis, maxSize);
+    }
+
+    /**
+     * Retire du cache la cl prive nomme alias.
+     * @param alias L'alias de la cl prive.
+     */
+    public void invalidateKey(String alias) {
+        keyCache.invalidate(alias);
+    }
+
+    /**
+     * Vide le cache des cls prives dchiffres.
+     */
+    public void invalidateKeys() {
+        keyCache.invalidateAll();
+    }
+
+    /**
+     * Renvoie le nombre d'accs aux cls prives servis par le cache.
+     */
+    public long getKeyCacheHits() {
+        return keyCache.getHits();
+    }
+
+    /**
+     * Renvoie le nombre d'accs aux cls prives ayant ncessit un dchiffrement.
+     */
+    public long getKeyCacheMisses() {
+        return keyCache.getMisses();
+    }
+
     /**
      * Insre dans le keystore manipul une cl secrte key identifi par le nom
      * alias et ventuellement protg par le mot de passe optionnel passwd.
@@ -263,13 +622,19 @@ public class KeyStoreTools {
      */
     public void importSecretKey(SecretKey key, String alias, char[] passwd)
             throws GeneralSecurityException {
-        if (passwd == null) {
-            // Insre la cl secrte dans le keystore avec le mot de passe du keystore
-            ks.setKeyEntry(alias, key, storepass, null);
-        }
-        else {
-            // Insre la cl secrte dans le keystore avec le mot de passe passwd
-            ks.setKeyEntry(alias, key, passwd, null);
+        synchronized (ks) {
+            if (passwd == null) {
+                // Insre la cl secrte dans le keystore avec le mot de passe du keystore
+                ks.setKeyEntry(alias, key, storepass, null);
+            }
+            else {
+                // Insre la cl secrte dans le keystore avec le mot de passe passwd
+                ks.setKeyEntry(alias, key, passwd, null);
+            }
+            reindex(alias, null);
+            mutated();
+            // L'alias pouvait dsigner une cl prive conserve en cache
+            invalidateKey(alias);
         }
     }
 
@@ -280,8 +645,68 @@ public class KeyStoreTools {
      */
     public void importCertificate(Certificate cert, String alias)
             throws GeneralSecurityException {
-        // Insre le certificat dans le keystore
-        ks.setCertificateEntry(alias, cert);
+        synchronized (ks) {
+            // Insre le certificat dans le keystore
+            ks.setCertificateEntry(alias, cert);
+            reindex(alias, cert);
+            mutated();
+            // L'alias pouvait dsigner une cl prive conserve en cache
+            invalidateKey(alias);
+        }
+    }
+
+    /**
+     * Insre dans le keystore une paire de cls sous le nom alias, la cl publique
+     * tant porte par un certificat auto-sign de sujet CN=alias.
+     * @param keyPair La paire de cls  insrer (EC ou RSA).
+     * @param alias L'alias  associer avec la cl prive insre.
+     * @param passwd Le mot de passe protgeant la cl prive.
+     * @param validityDays La dure de validit du certificat, en jours.
+     * @return Le certificat cr.
+     */
+    public X509Certificate importKeyPair(KeyPair keyPair, String alias, char[] passwd, int validityDays)
+            throws GeneralSecurityException {
+        String keyAlgorithm = keyPair.getPublic().getAlgorithm();
+        String algorithm;
+        if ("EC".equals(keyAlgorithm) || "ECDSA".equals(keyAlgorithm)) {
+            algorithm = "SHA256withECDSA";
+        }
+        else if ("RSA".equals(keyAlgorithm)) {
+            algorithm = "SHA256withRSA";
+        }
+        else {
+            throw new KeyStoreException("Type de cl non support : " + keyAlgorithm);
+        }
+        X500Principal subject = new X500Principal("CN=\"" + alias.replace("\\", "\\\\").replace("\"", "\\\"") + "\"");
+        X509Certificate cert = selfSignedCertificate(keyPair, subject, algorithm, validityDays);
+        synchronized (ks) {
+            ks.setKeyEntry(alias, keyPair.getPrivate(), passwd, new Certificate[] { cert });
+            reindex(alias, cert);
+            mutated();
+            // L'alias pouvait dsigner une cl prive conserve en cache
+            invalidateKey(alias);
+        }
+        return cert;
+    }
+
+    /**
+     * Cre un certificat auto-sign.
+     * Le gnrateur de bcprov est dprci au profit de bcpkix, absent du classpath.
+     */
+    @SuppressWarnings("deprecation")
+    private static X509Certificate selfSignedCertificate(KeyPair keyPair, X500Principal subject,
+            String algorithm, int validityDays) throws GeneralSecurityException {
+        long now = System.currentTimeMillis();
+        org.bouncycastle.x509.X509V3CertificateGenerator generator =
+                new org.bouncycastle.x509.X509V3CertificateGenerator();
+        generator.setSerialNumber(BigInteger.valueOf(now));
+        generator.setIssuerDN(subject);
+        generator.setSubjectDN(subject);
+        generator.setNotBefore(new Date(now));
+        generator.setNotAfter(new Date(now + validityDays * 86400000L));
+        generator.setPublicKey(keyPair.getPublic());
+        generator.setSignatureAlgorithm(algorithm);
+        return generator.generate(keyPair.getPrivate());
     }
 
     /**
@@ -305,20 +730,520 @@ public class KeyStoreTools {
         }
     }
 
+    /**
+     * Importe dans le keystore tous les certificats d'un paquet (PEM, DER ou PKCS#7).
+     * Les blocs PEM sont analyss en parallle. Chaque certificat est identifi par
+     * l'empreinte SHA-256 de son encodage ; les certificats dj prsents dans le
+     * keystore, sous quelque alias que ce soit, ou en double dans le paquet sont ignors. Le keystore n'est modifi
+     * qu'une fois tout le paquet analys avec succs.
+     * @param bundle Le fichier contenant les certificats  insrer.
+     * @return Le bilan de l'importation.
+     */
+    public ImportReport importCertificateBundle(File bundle)
+            throws GeneralSecurityException, IOException {
+        long start = System.nanoTime();
+        List<Certificate> certs = parseCertificates(Files.readAllBytes(bundle.toPath()));
+        // Calcule les alias et carte les doublons avant toute modification
+        Map<String, Certificate> batch = new LinkedHashMap<>();
+        int duplicates = 0;
+        // Un certificat dj prsent l'est peut-tre sous un autre alias que
+        // son empreinte : la recherche passe par l'index des empreintes
+        CertificateIndex index = certificateIndex();
+        for (Certificate cert : certs) {
+            String alias = fingerprint(cert);
+            if (batch.containsKey(alias) || ks.containsAlias(alias) || index.byFingerprint(alias) != null) {
+                duplicates++;
+            }
+            else {
+                batch.put(alias, cert);
+            }
+        }
+        applyBatch(batch);
+        return new ImportReport(batch.size(), duplicates, System.nanoTime() - start);
+    }
+
+    /**
+     * Importe un paquet de certificats (voir {@link #importCertificateBundle(File)})
+     * puis sauvegarde le keystore dans le fichier store en une seule criture :
+     * le fichier est crit  ct puis renomm, et le keystore en mmoire est
+     * restaur si la sauvegarde choue.
+     * @param bundle Le fichier contenant les certificats  insrer.
+     * @param store Le fichier dans lequel sauvegarder le keystore.
+     * @param passwd Le mot de passe protgeant le fichier cr.
+     * @return Le bilan de l'importation.
+     */
+    public ImportReport importCertificateBundle(File bundle, File store, char[] passwd)
+            throws GeneralSecurityException, IOException {
+        long start = System.nanoTime();
+        ImportReport report;
+        synchronized (ks) {
+            Set<String> before = new HashSet<>(Collections.list(ks.aliases()));
+            report = importCertificateBundle(bundle);
+            try {
+                saveAtomically(store, passwd);
+            }
+            catch (GeneralSecurityException | IOException | RuntimeException ex) {
+                // Annule l'importation pour que le keystore reflte le fichier
+                for (String alias : Collections.list(ks.aliases())) {
+                    if (!before.contains(alias)) {
+                        ks.deleteEntry(alias);
+                        reindex(alias, null);
+                    }
+                }
+                throw ex;
+            }
+        }
+        return new ImportReport(report.getImported(), report.getDuplicates(), System.nanoTime() - start);
+    }
+
+    /**
+     * Insre un lot de certificats : en cas d'chec, les insertions dj faites
+     * sont annules.
+     */
+    private void applyBatch(Map<String, Certificate> batch)
+            throws GeneralSecurityException {
+        synchronized (ks) {
+            List<String> done = new ArrayList<>(batch.size());
+            try {
+                for (Map.Entry<String, Certificate> entry : batch.entrySet()) {
+                    importCertificate(entry.getValue(), entry.getKey());
+                    done.add(entry.getKey());
+                }
+            }
+            catch (GeneralSecurityException | RuntimeException ex) {
+                for (String alias : done) {
+                    ks.deleteEntry(alias);
+                    reindex(alias, null);
+                }
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Analyse le contenu d'un paquet de certificats. Les paquets PEM sont
+     * dcoups en autant de groupes de blocs que de processeurs, analyss en
+     * parallle ; les autres formats sont analyss d'un seul tenant.
+     */
+    private static List<Certificate> parseCertificates(byte[] content)
+            throws GeneralSecurityException, IOException {
+        String text = new String(content, StandardCharsets.ISO_8859_1);
+        List<String> blocks = new ArrayList<>();
+        int from = 0;
+        while ((from = text.indexOf(PEM_BEGIN, from)) >= 0) {
+            int to = text.indexOf(PEM_END, from);
+            if (to < 0) {
+                throw new CertificateException("Bloc PEM non termin");
+            }
+            to += PEM_END.length();
+            blocks.add(text.substring(from, to));
+            from = to;
+        }
+        if (blocks.isEmpty()) {
+            // Cas d'un paquet DER ou PKCS#7
+            return new ArrayList<>(CertificateFactory.getInstance("X509")
+                    .generateCertificates(new ByteArrayInputStream(content)));
+        }
+        int groups = Math.min(blocks.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(groups, new DaemonThreadFactory("certificate-import"));
+        try {
+            List<Future<Collection<? extends Certificate>>> futures = new ArrayList<>(groups);
+            for (int g = 0; g < groups; g++) {
+                // Chaque groupe reoit une suite contigu de blocs pour conserver l'ordre
+                StringBuilder group = new StringBuilder();
+                for (String block : blocks.subList(g * blocks.size() / groups, (g + 1) * blocks.size() / groups)) {
+                    group.append(block).append('\n');
+                }
+                final byte[] groupBytes = group.toString().getBytes(StandardCharsets.ISO_8859_1);
+                futures.add(executor.submit(new Callable<Collection<? extends Certificate>>() {
+                    @Override
+                    public Collection<? extends Certificate> call() throws CertificateException {
+                        // Une usine par tche : les usines ne sont pas partages entre threads
+                        return CertificateFactory.getInstance("X509")
+                                .generateCertificates(new ByteArrayInputStream(groupBytes));
+                    }
+                }));
+            }
+            List<Certificate> certs = new ArrayList<>(blocks.size());
+            for (Future<Collection<? extends Certificate>> future : futures) {
+                certs.addAll(future.get());
+            }
+            return certs;
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Analyse des certificats interrompue", ex);
+        }
+        catch (ExecutionException ex) {
+            if (ex.getCause() instanceof GeneralSecurityException) {
+                throw (GeneralSecurityException)ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Renvoie l'empreinte SHA-256 d'un certificat, en hexadcimal.
+     * @param cert Un certificat.
+     */
+    public static String fingerprint(Certificate cert)
+            throws GeneralSecurityException {
+        byte[] hash = MessageDigest.getInstance("SHA-256").digest(cert.getEncoded());
+        StringBuilder sb = new StringBuilder(2 * hash.length);
+        for (byte b : hash) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Renvoie l'index des certificats, construit par un parcours complet du
+     * keystore lors du premier appel.
+     */
+    private CertificateIndex certificateIndex()
+            throws GeneralSecurityException {
+        CertificateIndex index = certIndex;
+        if (index == null) {
+            synchronized (ks) {
+                index = certIndex;
+                if (index == null) {
+                    index = new CertificateIndex();
+                    // Indexe les certificats de confiance comme ceux des cls prives
+                    for (Enumeration<String> aliases = ks.aliases(); aliases.hasMoreElements();) {
+                        String alias = aliases.nextElement();
+                        Certificate cert = ks.getCertificate(alias);
+                        if (cert != null) {
+                            index.put(alias, cert);
+                        }
+                    }
+                    certIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Met  jour l'index des certificats, s'il est construit, aprs la
+     * modification de l'entre alias (cert est null si l'entre n'a plus de certificat).
+     */
+    private void reindex(String alias, Certificate cert)
+            throws GeneralSecurityException {
+        CertificateIndex index = certIndex;
+        if (index != null) {
+            if (cert == null) {
+                index.remove(alias);
+            }
+            else {
+                index.put(alias, cert);
+            }
+        }
+    }
+
+    /**
+     * Renvoie le certificat nomm alias, ou le premier certificat de la chane
+     * d'une cl prive.
+     * @param alias L'alias de l'entre.
+     * @return Le certificat, ou null si l'entre n'en contient pas.
+     */
+    public Certificate getCertificate(String alias)
+            throws GeneralSecurityException {
+        return ks.getCertificate(alias);
+    }
+
+    /**
+     * Recherche un certificat du keystore par son empreinte SHA-256.
+     * @param fingerprint L'empreinte en hexadcimal (voir {@link #fingerprint}).
+     * @return Le certificat, ou null s'il est absent.
+     */
+    public Certificate findCertificateByFingerprint(String fingerprint)
+            throws GeneralSecurityException {
+        return certificateIndex().byFingerprint(fingerprint);
+    }
+
+    /**
+     * Recherche un certificat X.509 du keystore par la valeur de son extension
+     * SubjectKeyIdentifier.
+     * @param subjectKeyId L'identifiant de cl du sujet.
+     * @return Le certificat, ou null s'il est absent.
+     */
+    public Certificate findCertificateBySubjectKeyIdentifier(byte[] subjectKeyId)
+            throws GeneralSecurityException {
+        return certificateIndex().bySubjectKeyId(subjectKeyId);
+    }
+
+    /**
+     * Recherche les certificats X.509 du keystore dlivrs  un sujet.
+     * @param subject Le nom distingu du sujet.
+     * @return Les certificats du sujet, ventuellement aucun.
+     */
+    public List<Certificate> findCertificatesBySubject(X500Principal subject)
+            throws GeneralSecurityException {
+        return certificateIndex().bySubject(subject);
+    }
+
+    /**
+     * Recherche la cl publique permettant de vrifier une signature dtache,
+     * d'aprs l'identifiant de cl qu'elle porte (voir {@link DetachedSignature#keyId}).
+     * @param keyId L'identifiant de la cl.
+     * @return La cl publique, ou null si aucun certificat du keystore ne la contient.
+     */
+    public PublicKey findPublicKey(byte[] keyId)
+            throws GeneralSecurityException {
+        Certificate cert = certificateIndex().byKeyId(keyId);
+        return cert == null ? null : cert.getPublicKey();
+    }
+
+    /**
+     * Sauvegarde le keystore dans un fichier temporaire voisin de file, forc
+     * sur disque, puis le renomme en file : un arrt brutal laisse soit l'ancien
+     * fichier, soit le nouveau, jamais un fichier partiellement crit.
+     */
+    private void saveAtomically(File file, char[] passwd)
+            throws GeneralSecurityException, IOException {
+        saveAtomically(ks, file, passwd);
+    }
+
+    private static void saveAtomically(KeyStore ks, File file, char[] passwd)
+            throws GeneralSecurityException, IOException {
+        long start = System.nanoTime();
+        try {
+            storeAtomically(ks, file, passwd);
+            Metrics.record(Metrics.Operation.SAVE, start, file.length());
+        }
+        catch (GeneralSecurityException | IOException | RuntimeException ex) {
+            Metrics.error(Metrics.Operation.SAVE, start, ex);
+            throw ex;
+        }
+    }
+
+    private static void storeAtomically(KeyStore ks, File file, char[] passwd)
+            throws GeneralSecurityException, IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        // Le fichier temporaire, propre  l'appel, n'est lisible que par son propritaire
+        File tmp = PrivateFiles.createTempFile(file);
+        try {
+            try (FileOutputStream fos = new FileOutputStream(tmp)) {
+                // Certains keystores ferment le flot  la fin de store : le descripteur
+                // doit rester ouvert pour tre forc sur disque
+                OutputStream os = new BufferedOutputStream(new FilterOutputStream(fos) {
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        out.write(b, off, len);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        flush();
+                    }
+                });
+                synchronized (ks) {
+                    ks.store(os, passwd);
+                }
+                os.flush();
+                // Force l'criture du contenu avant le renommage
+                fos.getFD().sync();
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            // Sans effet aprs le renommage
+            Files.deleteIfExists(tmp.toPath());
+        }
+        // Force l'criture du rpertoire pour rendre le renommage durable
+        // (impossible sur certains systmes, o le renommage reste atomique)
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+        catch (IOException ex) {
+            // Cas d'un systme ne permettant pas d'ouvrir un rpertoire
+        }
+    }
+
     /**
      * Sauvegarde l'tat courant du keystore manipul dans le fichier file en le
-     * protgeant avec le mot de passe passwd.
+     * protgeant avec le mot de passe passwd. L'criture passe par un fichier
+     * temporaire renomm ensuite : le fichier n'est jamais laiss corrompu.
      * @param file Le fichier dans lequel sauvegarder le keystore de l'instance.
      * @param passwd Le mot de passe protgeant le fichier cr.
      */
     public void save(File file, char[] passwd)
             throws GeneralSecurityException, IOException {
-        // Srialise le contenu du keystore dans le flot attach au fichier file
-        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(file))) {
-            ks.store(os, passwd);
+        saveAtomically(file, passwd);
+    }
+
+    /**
+     * Exporte toutes les entres du keystore manipul dans un nouveau fichier de
+     * type type (par exemple JCEKS, PKCS12 ou IndexedKeyStore.TYPE), ce qui permet
+     * de convertir un keystore vers le format index ou depuis celui-ci.
+     * @param type Le type du keystore cr.
+     * @param file Le fichier dans lequel sauvegarder le keystore cr.
+     * @param passwd Le mot de passe protgeant le fichier cr.
+     * @param keypasswd Le mot de passe des cls, conserv dans le keystore cr.
+     * @return Le nombre d'entres exportes.
+     */
+    public int export(String type, File file, char[] passwd, char[] keypasswd)
+            throws GeneralSecurityException, IOException {
+        KeyStore target;
+        if (IndexedKeyStore.TYPE.equalsIgnoreCase(type)) {
+            target = IndexedKeyStore.newKeyStore();
+        } else {
+            target = KeyStore.getInstance(type);
+        }
+        target.load(null, passwd);
+        int count;
+        synchronized (ks) {
+            count = IndexedKeyStore.copy(ks, keypasswd, target, keypasswd);
+        }
+        saveAtomically(target, file, passwd);
+        return count;
+    }
+
+    /**
+     * Active la sauvegarde diffre : aprs chaque modification du keystore, une
+     * sauvegarde dans le fichier file est programme au bout de delayMillis ; les
+     * modifications survenant entre-temps sont regroupes dans cette mme sauvegarde.
+     * @param file Le fichier dans lequel sauvegarder le keystore de l'instance.
+     * @param passwd Le mot de passe protgeant le fichier cr.
+     * @param delayMillis Le dlai de regroupement des modifications, en millisecondes.
+     */
+    public void enableWriteBehind(File file, char[] passwd, long delayMillis) {
+        if (delayMillis < 0) {
+            throw new IllegalArgumentException("Dlai invalide : " + delayMillis);
+        }
+        synchronized (ks) {
+            if (flusher == null) {
+                flusher = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("keystore-write-behind"));
+            }
+            writeBehindFile = file;
+            writeBehindPasswd = passwd.clone();
+            writeBehindDelay = delayMillis;
+        }
+    }
+
+    /**
+     * Dsactive la sauvegarde diffre aprs avoir sauvegard les modifications en attente.
+     */
+    public void disableWriteBehind()
+            throws GeneralSecurityException, IOException {
+        ScheduledExecutorService executor;
+        synchronized (ks) {
+            flush();
+            executor = flusher;
+            flusher = null;
+            writeBehindFile = null;
+            if (writeBehindPasswd != null) {
+                Arrays.fill(writeBehindPasswd, '\0');
+                writeBehindPasswd = null;
+            }
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Sauvegarde immdiatement les modifications en attente de sauvegarde diffre.
+     */
+    public void flush()
+            throws GeneralSecurityException, IOException {
+        synchronized (ks) {
+            if (writeBehindFile == null || pendingMutations == 0) {
+                return;
+            }
+            int mutations = pendingMutations;
+            long start = System.nanoTime();
+            try {
+                saveAtomically(writeBehindFile, writeBehindPasswd);
+            }
+            catch (GeneralSecurityException | IOException | RuntimeException ex) {
+                flushFailures.incrementAndGet();
+                throw ex;
+            }
+            pendingMutations = 0;
+            lastFlushNanos.set(System.nanoTime() - start);
+            lastFlushMutations.set(mutations);
+            flushedMutations.addAndGet(mutations);
+            flushCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Enregistre une modification du keystore et programme si besoin la sauvegarde
+     * diffre. Doit tre appele en dtenant le verrou du keystore.
+     */
+    private void mutated() {
+        if (flusher == null) {
+            return;
+        }
+        if (pendingMutations++ == 0) {
+            flusher.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        flush();
+                    }
+                    catch (GeneralSecurityException | IOException | RuntimeException ex) {
+                        // Les modifications restent en attente : nouvelle tentative plus tard
+                        synchronized (ks) {
+                            if (flusher != null && pendingMutations > 0) {
+                                flusher.schedule(this, writeBehindDelay, TimeUnit.MILLISECONDS);
+                            }
+                        }
+                    }
+                }
+            }, writeBehindDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Renvoie le nombre de modifications en attente de sauvegarde diffre.
+     */
+    public int getPendingMutations() {
+        synchronized (ks) {
+            return pendingMutations;
         }
     }
 
+    /**
+     * Renvoie le nombre de sauvegardes diffres effectues.
+     */
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    /**
+     * Renvoie le nombre de sauvegardes diffres ayant chou.
+     */
+    public long getFlushFailures() {
+        return flushFailures.get();
+    }
+
+    /**
+     * Renvoie la dure de la dernire sauvegarde diffre, en nanosecondes.
+     */
+    public long getLastFlushNanos() {
+        return lastFlushNanos.get();
+    }
+
+    /**
+     * Renvoie le nombre de modifications regroupes dans la dernire sauvegarde diffre.
+     */
+    public long getLastFlushMutations() {
+        return lastFlushMutations.get();
+    }
+
+    /**
+     * Renvoie le nombre total de modifications sauvegardes de manire diffre.
+     */
+    public long getFlushedMutations() {
+        return flushedMutations.get();
+    }
+
     /**
      * Dmonstration de la classe.
      * @param args
@@ -0,0 +1,111 @@
+package ui;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogramme de dures  classes logarithmiques : la classe i compte les
+ * dures comprises entre 2^(i-1) et 2^i - 1 nanosecondes (la classe 0 compte
+ * les dures nulles). L'enregistrement ne fait aucune allocation et ne prend
+ * aucun verrou ; les centiles sont estims par la borne suprieure de leur
+ * classe, soit  un facteur 2 prs au plus.
+ */
+public final class LatencyHistogram {
+    // Une classe par bit significatif d'une dure positive, plus les dures nulles
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Enregistrement d'une dure
+     * @param nanos la dure en nanosecondes (une dure ngative compte pour 0)
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        counts.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(nanos));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+            // un autre thread a enregistr une dure entre-temps
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * @return la dure moyenne en nanosecondes
+     */
+    public double getMeanNanos() {
+        long n = count.get();
+        return n == 0 ? 0 : (double)totalNanos.get() / n;
+    }
+
+    /**
+     * Estimation d'un centile
+     * @param quantile le centile recherch, entre 0 et 1
+     * @return la borne suprieure de la classe contenant le centile, en nanosecondes
+     */
+    public long getQuantileNanos(double quantile) {
+        if (quantile < 0 || quantile > 1)
+            throw new IllegalArgumentException("Centile invalide : " + quantile);
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0)
+            return 0;
+        long rank = (long)Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= Math.max(rank, 1))
+                return Math.min(upperBound(i), maxNanos.get());
+        }
+        return maxNanos.get();
+    }
+
+    /**
+     * @return le nombre de dures enregistres dans chaque classe
+     */
+    public long[] getBucketCounts() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            snapshot[i] = counts.get(i);
+        return snapshot;
+    }
+
+    /**
+     * @param bucket l'indice d'une classe
+     * @return la plus grande dure compte dans cette classe, en nanosecondes
+     */
+    public static long upperBound(int bucket) {
+        return bucket == 0 ? 0 : bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+
+    /**
+     * Remise  zro ; les enregistrements concurrents peuvent tre partiellement conservs
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            counts.set(i, 0);
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+}
@@ -0,0 +1,258 @@
+package ui;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Signature d'un ensemble de fichiers par un manifeste : les condensats des
+ * fichiers sont calculs en parallle, puis une seule signature ECDSA couvre
+ * le manifeste tri (voir {@link SignedManifest}). Pour de nombreux petits
+ * fichiers, le cot n'est plus domin par une opration sur la courbe par
+ * fichier mais par le calcul des condensats.
+ */
+public class ManifestSigner implements Closeable {
+    // Algorithme de condensat par dfaut
+    public static final String DEFAULT_HASH_ALGORITHM = "SHA-256";
+
+    private final ECSigner signer;
+    private final String hashAlgorithm;
+
+    // Le pool calculant les condensats des fichiers
+    private final ForkJoinPool pool;
+
+    // Le dernier manifeste dont la signature a t vrifie, avec sa cl : un
+    // manifeste tant immuable, les vrifications isoles suivantes de ses
+    // fichiers n'ont pas  refaire l'opration sur la courbe
+    private volatile Object[] verified;
+
+    /**
+     * Construction d'une instance utilisant SHA-256 et un thread par processeur disponible
+     * @param signatureAlgorithm l'algorithme de signature du manifeste
+     * @throws GeneralSecurityException si un algorithme n'est pas disponible
+     */
+    public ManifestSigner(String signatureAlgorithm) throws GeneralSecurityException {
+        this(signatureAlgorithm, DEFAULT_HASH_ALGORITHM, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Construction d'une instance de la classe
+     * @param signatureAlgorithm l'algorithme de signature du manifeste
+     * @param hashAlgorithm l'algorithme de condensat des fichiers
+     * @param parallelism le nombre de threads calculant les condensats
+     * @throws GeneralSecurityException si un algorithme n'est pas disponible
+     */
+    public ManifestSigner(String signatureAlgorithm, String hashAlgorithm, int parallelism)
+            throws GeneralSecurityException {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Nombre de threads invalide : " + parallelism);
+        // le manifeste doit tre condens par l'algorithme de signature lui-mme
+        if (signatureAlgorithm.toUpperCase(Locale.ROOT).startsWith("NONEWITH"))
+            throw new IllegalArgumentException("Algorithme de signature sans condensat refus : "
+                    + signatureAlgorithm);
+        this.signer = new ECSigner(signatureAlgorithm);
+        MessageDigest.getInstance(hashAlgorithm);
+        this.hashAlgorithm = hashAlgorithm;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    public String getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    /**
+     * Signature de tous les fichiers d'une arborescence
+     * @param root le rpertoire racine, dont les chemins du manifeste sont relatifs
+     * @param privateKey la cl prive de signature
+     * @return le manifeste sign
+     * @throws GeneralSecurityException si le calcul de la signature choue
+     * @throws IOException si le parcours ou la lecture d'un fichier choue
+     */
+    public SignedManifest signTree(File root, PrivateKey privateKey)
+            throws GeneralSecurityException, IOException {
+        if (!root.isDirectory())
+            throw new IOException("Rpertoire introuvable : " + root);
+        final List<File> files = new ArrayList<>();
+        Files.walkFileTree(root.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile())
+                    files.add(path.toFile());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return sign(root, files, privateKey);
+    }
+
+    /**
+     * Signature d'un ensemble de fichiers
+     * @param root le rpertoire dont les chemins du manifeste sont relatifs
+     * @param files les fichiers, tous situs sous la racine
+     * @param privateKey la cl prive de signature
+     * @return le manifeste sign
+     * @throws GeneralSecurityException si le calcul de la signature choue
+     * @throws IOException si la lecture d'un fichier choue
+     */
+    public SignedManifest sign(File root, List<File> files, PrivateKey privateKey)
+            throws GeneralSecurityException, IOException {
+        // tri des entres dans l'ordre canonique des chemins relatifs
+        String[] paths = new String[files.size()];
+        for (int i = 0; i < paths.length; i++)
+            paths[i] = relativePath(root, files.get(i));
+        Arrays.sort(paths);
+        for (int i = 1; i < paths.length; i++) {
+            if (paths[i - 1].equals(paths[i]))
+                throw new IllegalArgumentException("Fichier prsent deux fois : " + paths[i]);
+        }
+        long[] sizes = new long[paths.length];
+        byte[][] digests = hashFiles(root, paths, sizes, hashAlgorithm);
+        byte[] tag = signer.sign(SignedManifest.toBeSigned(hashAlgorithm, paths, sizes, digests), privateKey);
+        return new SignedManifest(hashAlgorithm, signer.getAlgorithm(), paths, sizes, digests, tag);
+    }
+
+    /**
+     * Vrification de la signature du manifeste seul, sans lecture des fichiers.
+     * L'algorithme inscrit dans le manifeste n'est pas couvert par la signature :
+     * seul l'algorithme de cette instance est utilis, et un manifeste en
+     * annonant un autre est rejet.
+     * @param publicKey la cl publique de vrification
+     * @param manifest le manifeste sign
+     * @return <code>true</code> si la signature est correcte et <code>false</code> sinon
+     * @throws GeneralSecurityException si la vrification choue
+     */
+    public boolean verifyManifest(PublicKey publicKey, SignedManifest manifest) throws GeneralSecurityException {
+        Object[] last = verified;
+        if (last != null && last[0] == manifest && last[1] == publicKey)
+            return true;
+        if (!signer.getAlgorithm().equalsIgnoreCase(manifest.getSignatureAlgorithm()))
+            return false;
+        boolean valid = signer.verify(manifest.toBeSigned(), publicKey, manifest.getSignature());
+        if (valid)
+            verified = new Object[] { manifest, publicKey };
+        return valid;
+    }
+
+    /**
+     * Vrification d'un ensemble de fichiers : la signature du manifeste puis,
+     * en parallle, le condensat de chacun de ses fichiers
+     * @param root le rpertoire dont les chemins du manifeste sont relatifs
+     * @param publicKey la cl publique de vrification
+     * @param manifest le manifeste sign
+     * @return <code>true</code> si la signature et tous les fichiers sont corrects et <code>false</code> sinon
+     * @throws GeneralSecurityException si la vrification choue
+     * @throws IOException si la lecture d'un fichier choue
+     */
+    public boolean verify(File root, PublicKey publicKey, SignedManifest manifest)
+            throws GeneralSecurityException, IOException {
+        // la vrification peu coteuse prcde la lecture des fichiers
+        if (!verifyManifest(publicKey, manifest))
+            return false;
+        String[] paths = manifest.getPaths().toArray(new String[manifest.getEntryCount()]);
+        long[] sizes = new long[paths.length];
+        byte[][] digests = hashFiles(root, paths, sizes, manifest.getHashAlgorithm());
+        for (int i = 0; i < paths.length; i++) {
+            if (sizes[i] != manifest.getSize(i) || !MessageDigest.isEqual(digests[i], manifest.digest(i)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Vrification d'un fichier isol, seul ce fichier tant lu
+     * @param root le rpertoire dont les chemins du manifeste sont relatifs
+     * @param file le fichier  vrifier, situ sous la racine
+     * @param publicKey la cl publique de vrification
+     * @param manifest le manifeste sign
+     * @return <code>true</code> si la signature est correcte et si le fichier figure dans le
+     * manifeste avec le mme contenu, <code>false</code> sinon
+     * @throws GeneralSecurityException si la vrification choue
+     * @throws IOException si la lecture du fichier choue
+     */
+    public boolean verifyFile(File root, File file, PublicKey publicKey, SignedManifest manifest)
+            throws GeneralSecurityException, IOException {
+        int index = manifest.indexOf(relativePath(root, file));
+        if (index < 0 || file.length() != manifest.getSize(index) || !verifyManifest(publicKey, manifest))
+            return false;
+        MessageDigest digest = MessageDigest.getInstance(manifest.getHashAlgorithm());
+        FileFeeder.feed(file, digest);
+        return MessageDigest.isEqual(digest.digest(), manifest.digest(index));
+    }
+
+    /**
+     * Chemin d'un fichier relatif  la racine, spar par des '/'
+     */
+    static String relativePath(File root, File file) {
+        Path base = root.toPath().toAbsolutePath().normalize();
+        Path path = file.toPath().toAbsolutePath().normalize();
+        if (!path.startsWith(base) || path.equals(base))
+            throw new IllegalArgumentException("Fichier hors de la racine " + root + " : " + file);
+        return base.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Calcul en parallle des condensats des fichiers
+     * @param sizes les tailles des fichiers, compltes par la mthode
+     * @return les condensats, dans l'ordre des chemins
+     */
+    private byte[][] hashFiles(final File root, final String[] paths, final long[] sizes,
+            final String hashAlgorithm) throws GeneralSecurityException, IOException {
+        final byte[][] digests = new byte[paths.length][];
+        List<Callable<Void>> tasks = new ArrayList<>(paths.length);
+        for (int i = 0; i < paths.length; i++) {
+            final int index = i;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws GeneralSecurityException, IOException {
+                    MessageDigest digest = MessageDigest.getInstance(hashAlgorithm);
+                    sizes[index] = FileFeeder.feed(new File(root, paths[index]), digest);
+                    digests[index] = digest.digest();
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Void> future : pool.invokeAll(tasks))
+                future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Calcul des condensats interrompu", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            // selon la version, le pool enveloppe les exceptions contrles des tches
+            while (cause != null && cause.getClass() == RuntimeException.class && cause.getCause() != null)
+                cause = cause.getCause();
+            if (cause instanceof GeneralSecurityException)
+                throw (GeneralSecurityException)cause;
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            throw new IOException(cause);
+        }
+        return digests;
+    }
+
+    /**
+     * Arrt du pool de calcul des condensats
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+}
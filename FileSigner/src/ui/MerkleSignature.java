@@ -0,0 +1,270 @@
+package ui;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Signature d'un fichier dcoup en blocs de taille fixe : les condensats des
+ * blocs forment les feuilles d'un arbre de Merkle dont seule la racine est signe.
+ * Le conteneur conserve les paramtres de l'arbre et les condensats des feuilles,
+ * ce qui permet de vrifier un bloc isol sans relire le reste du fichier.
+ * <p>
+ * Une feuille vaut H(0x00 || bloc), un noeud interne H(0x01 || gauche || droite) ;
+ * un noeud sans frre est remont tel quel au niveau suprieur.
+ */
+public final class MerkleSignature {
+    // Identification du format
+    private static final int MAGIC = 0x4D524B4C; // "MRKL"
+    private static final int VERSION = 1;
+
+    private static final byte LEAF = 0x00;
+    private static final byte NODE = 0x01;
+
+    private final String hashAlgorithm;
+    private final String signatureAlgorithm;
+    private final int chunkSize;
+    private final long fileSize;
+    private final byte[][] leaves;
+    private final byte[] signature;
+
+    MerkleSignature(String hashAlgorithm, String signatureAlgorithm, int chunkSize,
+            long fileSize, byte[][] leaves, byte[] signature) {
+        this.hashAlgorithm = hashAlgorithm;
+        this.signatureAlgorithm = signatureAlgorithm;
+        this.chunkSize = chunkSize;
+        this.fileSize = fileSize;
+        this.leaves = leaves;
+        this.signature = signature;
+    }
+
+    public String getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    public String getSignatureAlgorithm() {
+        return signatureAlgorithm;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public int getChunkCount() {
+        return leaves.length;
+    }
+
+    /**
+     * @param index le numro du bloc
+     * @return une copie du condensat du bloc
+     */
+    public byte[] getLeaf(int index) {
+        return leaves[index].clone();
+    }
+
+    byte[][] leaves() {
+        return leaves;
+    }
+
+    /**
+     * @return une copie de la signature de la racine
+     */
+    public byte[] getSignature() {
+        return signature.clone();
+    }
+
+    /**
+     * Nombre de blocs d'un fichier
+     * @param fileSize la taille du fichier
+     * @param chunkSize la taille des blocs
+     * @return le nombre de blocs (un bloc vide pour un fichier vide)
+     */
+    static int chunkCount(long fileSize, int chunkSize) {
+        long count = chunks(fileSize, chunkSize);
+        if (count > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Trop de blocs : " + count);
+        return (int)count;
+    }
+
+    /**
+     * Nombre de blocs d'un fichier, sans limite ni dbordement
+     * @param fileSize la taille du fichier, positive
+     * @param chunkSize la taille des blocs, strictement positive
+     * @return le nombre de blocs (un bloc vide pour un fichier vide)
+     */
+    static long chunks(long fileSize, int chunkSize) {
+        // fileSize + chunkSize - 1 dborderait pour les tailles proches de Long.MAX_VALUE
+        return Math.max(1, fileSize / chunkSize + (fileSize % chunkSize == 0 ? 0 : 1));
+    }
+
+    /**
+     * Calcul du condensat d'une feuille
+     * @param digest le condensat  utiliser (rinitialis par l'appel)
+     * @param chunk le contenu du bloc
+     */
+    static byte[] leafHash(MessageDigest digest, ByteBuffer chunk) {
+        digest.reset();
+        digest.update(LEAF);
+        digest.update(chunk);
+        return digest.digest();
+    }
+
+    /**
+     * Calcul de la racine de l'arbre
+     * @param digest le condensat  utiliser (rinitialis par l'appel)
+     * @param leaves les condensats des feuilles
+     */
+    static byte[] root(MessageDigest digest, byte[][] leaves) {
+        byte[][] level = leaves;
+        while (level.length > 1) {
+            byte[][] next = new byte[(level.length + 1) / 2][];
+            for (int i = 0; i < next.length; i++) {
+                if (2 * i + 1 < level.length) {
+                    digest.reset();
+                    digest.update(NODE);
+                    digest.update(level[2 * i]);
+                    digest.update(level[2 * i + 1]);
+                    next[i] = digest.digest();
+                } else {
+                    next[i] = level[2 * i];
+                }
+            }
+            level = next;
+        }
+        return level[0];
+    }
+
+    /**
+     * Construction du message effectivement sign : les paramtres de l'arbre et sa racine
+     */
+    static byte[] toBeSigned(String hashAlgorithm, int chunkSize, long fileSize, byte[] root) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeUTF(hashAlgorithm);
+            out.writeInt(chunkSize);
+            out.writeLong(fileSize);
+            out.write(root);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException ex) {
+            // impossible sur un flot en mmoire
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * @return le message sign, recalcul  partir des feuilles du conteneur
+     * @throws NoSuchAlgorithmException si l'algorithme de condensat n'est pas disponible
+     */
+    byte[] toBeSigned() throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance(hashAlgorithm);
+        return toBeSigned(hashAlgorithm, chunkSize, fileSize, root(digest, leaves));
+    }
+
+    /**
+     * Srialisation du conteneur
+     * @param os le flot de destination
+     * @throws IOException si l'criture choue
+     */
+    public void writeTo(OutputStream os) throws IOException {
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeUTF(hashAlgorithm);
+        out.writeUTF(signatureAlgorithm);
+        out.writeInt(chunkSize);
+        out.writeLong(fileSize);
+        out.writeInt(leaves.length);
+        out.writeShort(leaves[0].length);
+        for (byte[] leaf : leaves)
+            out.write(leaf);
+        out.writeShort(signature.length);
+        out.write(signature);
+        out.flush();
+    }
+
+    /**
+     * @return le conteneur srialis
+     */
+    public byte[] getEncoded() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            writeTo(bytes);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return la taille des condensats d'un algorithme
+     * @throws IOException si l'algorithme n'est pas disponible ou de taille inconnue
+     */
+    private static int digestLength(String hashAlgorithm) throws IOException {
+        try {
+            int length = MessageDigest.getInstance(hashAlgorithm).getDigestLength();
+            if (length <= 0)
+                throw new IOException("Taille des condensats inconnue : " + hashAlgorithm);
+            return length;
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException("Algorithme de condensat indisponible : " + hashAlgorithm, ex);
+        }
+    }
+
+    /**
+     * Dsrialisation d'un conteneur
+     * @param is le flot source
+     * @return le conteneur lu
+     * @throws IOException si la lecture choue ou si le format est invalide
+     */
+    public static MerkleSignature readFrom(InputStream is) throws IOException {
+        DataInputStream in = new DataInputStream(is);
+        if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION)
+            throw new IOException("Format de signature de Merkle invalide");
+        String hashAlgorithm = in.readUTF();
+        String signatureAlgorithm = in.readUTF();
+        int chunkSize = in.readInt();
+        long fileSize = in.readLong();
+        int count = in.readInt();
+        int hashLength = in.readUnsignedShort();
+        // les bornes sont contrles avant le calcul du nombre de blocs attendu
+        if (chunkSize <= 0 || fileSize < 0 || count != chunks(fileSize, chunkSize)
+                || hashLength != digestLength(hashAlgorithm))
+            throw new IOException("Paramtres de l'arbre de Merkle incohrents");
+        // le nombre annonc n'est pas cru : le tableau crot avec la lecture
+        byte[][] leaves = new byte[Math.min(count, 1024)][];
+        for (int i = 0; i < count; i++) {
+            if (i == leaves.length)
+                leaves = Arrays.copyOf(leaves, (int)Math.min(count, 2L * leaves.length));
+            leaves[i] = new byte[hashLength];
+            in.readFully(leaves[i]);
+        }
+        byte[] signature = new byte[in.readUnsignedShort()];
+        in.readFully(signature);
+        return new MerkleSignature(hashAlgorithm, signatureAlgorithm, chunkSize, fileSize, leaves, signature);
+    }
+
+    /**
+     * Dsrialisation d'un conteneur
+     * @param encoded le conteneur srialis
+     * @return le conteneur lu
+     * @throws IOException si le format est invalide
+     */
+    public static MerkleSignature decode(byte[] encoded) throws IOException {
+        return readFrom(new ByteArrayInputStream(encoded));
+    }
+}
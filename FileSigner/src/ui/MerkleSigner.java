@@ -0,0 +1,289 @@
+package ui;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Signature par arbre de Merkle : le fichier est dcoup en blocs de taille fixe
+ * dont les condensats sont calculs en parallle, puis seule la racine de l'arbre
+ * est signe par ECDSA (voir {@link MerkleSignature}). La vrification est elle
+ * aussi parallle et un bloc isol peut tre vrifi sans lire le reste du fichier.
+ */
+public class MerkleSigner implements Closeable {
+    // Taille par dfaut des blocs
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    // Algorithme de condensat par dfaut
+    public static final String DEFAULT_HASH_ALGORITHM = "SHA-256";
+
+    // Chaque thread conserve son buffer direct de lecture des blocs
+    private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<>();
+
+    private final String signatureAlgorithm;
+    private final String hashAlgorithm;
+    private final int chunkSize;
+
+    // Le pool calculant les condensats des blocs
+    private final ForkJoinPool pool;
+
+    /**
+     * Construction d'une instance utilisant SHA-256, des blocs de 1 Mo et un
+     * thread par processeur disponible
+     * @param signatureAlgorithm l'algorithme de signature de la racine
+     * @throws GeneralSecurityException si un algorithme n'est pas disponible
+     */
+    public MerkleSigner(String signatureAlgorithm) throws GeneralSecurityException {
+        this(signatureAlgorithm, DEFAULT_HASH_ALGORITHM, DEFAULT_CHUNK_SIZE,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Construction d'une instance de la classe
+     * @param signatureAlgorithm l'algorithme de signature de la racine
+     * @param hashAlgorithm l'algorithme de condensat des blocs et des noeuds
+     * @param chunkSize la taille des blocs
+     * @param parallelism le nombre de threads calculant les condensats
+     * @throws GeneralSecurityException si un algorithme n'est pas disponible
+     */
+    public MerkleSigner(String signatureAlgorithm, String hashAlgorithm, int chunkSize, int parallelism)
+            throws GeneralSecurityException {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("Taille de bloc invalide : " + chunkSize);
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Nombre de threads invalide : " + parallelism);
+        // la racine doit tre condense par l'algorithme de signature lui-mme
+        if (signatureAlgorithm.toUpperCase(Locale.ROOT).startsWith("NONEWITH"))
+            throw new IllegalArgumentException("Algorithme de signature sans condensat refus : "
+                    + signatureAlgorithm);
+        // la construction d'un ECSigner vrifie l'algorithme et installe au besoin le provider
+        new ECSigner(signatureAlgorithm);
+        MessageDigest.getInstance(hashAlgorithm);
+        this.signatureAlgorithm = signatureAlgorithm;
+        this.hashAlgorithm = hashAlgorithm;
+        this.chunkSize = chunkSize;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    public String getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Signature d'un fichier
+     * @param file le fichier  signer
+     * @param privateKey la cl prive de signature
+     * @return la signature de Merkle du fichier
+     * @throws GeneralSecurityException si le calcul de la signature choue
+     * @throws IOException si la lecture du fichier choue
+     */
+    public MerkleSignature sign(File file, PrivateKey privateKey)
+            throws GeneralSecurityException, IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            byte[][] leaves = hashChunks(channel, size, chunkSize, hashAlgorithm);
+            return sign(privateKey, size, leaves);
+        }
+    }
+
+    /**
+     * Signature de la racine d'un arbre dont les feuilles sont connues
+     * @param privateKey la cl prive de signature
+     * @param fileSize la taille du fichier
+     * @param leaves les condensats des blocs
+     */
+    MerkleSignature sign(PrivateKey privateKey, long fileSize, byte[][] leaves)
+            throws GeneralSecurityException {
+        byte[] root = MerkleSignature.root(MessageDigest.getInstance(hashAlgorithm), leaves);
+        Signature signer = CryptoBackend.signature(signatureAlgorithm);
+        CryptoBackend.initSign(signer, privateKey);
+        signer.update(MerkleSignature.toBeSigned(hashAlgorithm, chunkSize, fileSize, root));
+        return new MerkleSignature(hashAlgorithm, signatureAlgorithm, chunkSize, fileSize,
+                leaves, signer.sign());
+    }
+
+    /**
+     * Vrification de la signature de la racine, calcule  partir des feuilles du conteneur.
+     * L'algorithme inscrit dans le conteneur n'tant pas couvert par la signature, seul
+     * l'algorithme de l'instance est employ et un conteneur en annonant un autre est rejet.
+     */
+    private boolean verifyRoot(PublicKey publicKey, MerkleSignature signature)
+            throws GeneralSecurityException {
+        if (!signatureAlgorithm.equalsIgnoreCase(signature.getSignatureAlgorithm()))
+            return false;
+        Signature verifier = CryptoBackend.signature(signatureAlgorithm);
+        CryptoBackend.initVerify(verifier, publicKey);
+        verifier.update(signature.toBeSigned());
+        return verifier.verify(signature.getSignature());
+    }
+
+    /**
+     * Vrification de la signature d'un fichier
+     * @param file le fichier  vrifier
+     * @param publicKey la cl publique de vrification
+     * @param signature la signature de Merkle du fichier
+     * @return <code>true</code> si la signature est correcte et <code>false</code> sinon
+     * @throws GeneralSecurityException si la vrification choue
+     * @throws IOException si la lecture du fichier choue
+     */
+    public boolean verify(File file, PublicKey publicKey, MerkleSignature signature)
+            throws GeneralSecurityException, IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            // les vrifications peu coteuses prcdent la lecture du fichier
+            if (size != signature.getFileSize() || !verifyRoot(publicKey, signature))
+                return false;
+            byte[][] leaves = hashChunks(channel, size, signature.getChunkSize(), signature.getHashAlgorithm());
+            return Arrays.deepEquals(leaves, signature.leaves());
+        }
+    }
+
+    /**
+     * Vrification d'un bloc isol d'un fichier, seul ce bloc tant lu
+     * @param file le fichier  vrifier
+     * @param index le numro du bloc
+     * @param publicKey la cl publique de vrification
+     * @param signature la signature de Merkle du fichier
+     * @return <code>true</code> si le bloc et la signature sont corrects et <code>false</code> sinon
+     * @throws GeneralSecurityException si la vrification choue
+     * @throws IOException si la lecture du fichier choue
+     */
+    public boolean verifyChunk(File file, int index, PublicKey publicKey, MerkleSignature signature)
+            throws GeneralSecurityException, IOException {
+        if (index < 0 || index >= signature.getChunkCount())
+            throw new IndexOutOfBoundsException("Bloc inexistant : " + index);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size != signature.getFileSize() || !verifyRoot(publicKey, signature))
+                return false;
+            byte[] leaf = hashChunk(channel, size, index, signature.getChunkSize(),
+                    MessageDigest.getInstance(signature.getHashAlgorithm()));
+            return MessageDigest.isEqual(leaf, signature.leaves()[index]);
+        }
+    }
+
+    /**
+     * Calcul du condensat d'un bloc par une lecture positionnelle
+     * @param channel le canal du fichier (les lectures positionnelles peuvent tre concurrentes)
+     * @param size la taille du fichier
+     * @param index le numro du bloc
+     * @param chunkSize la taille des blocs
+     * @param digest le condensat  utiliser
+     */
+    static byte[] hashChunk(FileChannel channel, long size, int index, int chunkSize, MessageDigest digest)
+            throws IOException {
+        return MerkleSignature.leafHash(digest, readChunk(channel, size, index, chunkSize));
+    }
+
+    /**
+     * Lecture positionnelle d'un bloc dans le buffer propre au thread appelant
+     * @return le buffer, prt  tre lu, valable jusqu' la lecture suivante du mme thread
+     */
+    static ByteBuffer readChunk(FileChannel channel, long size, int index, int chunkSize)
+            throws IOException {
+        ByteBuffer buffer = BUFFERS.get();
+        if (buffer == null || buffer.capacity() < chunkSize) {
+            buffer = ByteBuffer.allocateDirect(chunkSize);
+            BUFFERS.set(buffer);
+        }
+        long position = (long)index * chunkSize;
+        int length = (int)Math.max(0, Math.min(chunkSize, size - position));
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Fin de fichier inattendue au bloc " + index);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Calcul en parallle des condensats de tous les blocs d'un fichier
+     */
+    byte[][] hashChunks(FileChannel channel, long size, int chunkSize, String hashAlgorithm)
+            throws GeneralSecurityException, IOException {
+        int count = MerkleSignature.chunkCount(size, chunkSize);
+        List<Integer> indexes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            indexes.add(i);
+        return hashChunks(channel, size, chunkSize, hashAlgorithm, indexes, new byte[count][]);
+    }
+
+    /**
+     * Calcul en parallle des condensats de certains blocs d'un fichier
+     * @param indexes les numros des blocs  traiter
+     * @param leaves le tableau des condensats, complt par la mthode
+     * @return le tableau des condensats
+     */
+    byte[][] hashChunks(final FileChannel channel, final long size, final int chunkSize,
+            final String hashAlgorithm, List<Integer> indexes, final byte[][] leaves)
+            throws GeneralSecurityException, IOException {
+        List<Callable<Void>> tasks = new ArrayList<>(indexes.size());
+        for (final int index : indexes) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws GeneralSecurityException, IOException {
+                    leaves[index] = hashChunk(channel, size, index, chunkSize,
+                            MessageDigest.getInstance(hashAlgorithm));
+                    return null;
+                }
+            });
+        }
+        invokeAll(tasks);
+        return leaves;
+    }
+
+    /**
+     * Excution de tches par le pool, les exceptions contrles des tches tant relances
+     * @param tasks les tches
+     */
+    void invokeAll(List<Callable<Void>> tasks) throws GeneralSecurityException, IOException {
+        try {
+            for (Future<Void> future : pool.invokeAll(tasks))
+                future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Calcul des condensats interrompu", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            // selon la version, le pool enveloppe les exceptions contrles des tches
+            while (cause != null && cause.getClass() == RuntimeException.class && cause.getCause() != null)
+                cause = cause.getCause();
+            if (cause instanceof GeneralSecurityException)
+                throw (GeneralSecurityException)cause;
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Arrt du pool de calcul des condensats
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+}
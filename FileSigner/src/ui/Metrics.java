@@ -0,0 +1,322 @@
+package ui;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Mesures des oprations coteuses : signature, vrification, gnration de
+ * cls, accs aux cls prives, chargement et sauvegarde des keystores. Pour
+ * chaque opration sont conservs un histogramme des dures, le nombre d'octets
+ * traits et le nombre d'checs par type d'exception. L'enregistrement d'une
+ * opration russie ne fait aucune allocation ; les mesures sont consultables
+ * directement, par JMX ({@link #registerMBeans()}) ou transmises  des
+ * destinations ajoutes par {@link #addSink(MetricsSink)}. Les choix de
+ * {@link CryptoBackend} sont exposs avec elles.
+ */
+public final class Metrics {
+
+    /**
+     * Les oprations mesures
+     */
+    public enum Operation {
+        SIGN, VERIFY, KEYGEN, GET_KEY, LOAD, SAVE
+    }
+
+    /**
+     * Les mesures d'une opration
+     */
+    public static final class OperationMetrics implements OperationMetricsMXBean {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong errorCount = new AtomicLong();
+        private final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<>();
+
+        private OperationMetrics() {
+        }
+
+        /**
+         * @return l'histogramme des dures des oprations russies
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        @Override
+        public long getCount() {
+            return latency.getCount();
+        }
+
+        @Override
+        public long getErrorCount() {
+            return errorCount.get();
+        }
+
+        @Override
+        public Map<String, Long> getErrors() {
+            Map<String, Long> result = new TreeMap<>();
+            for (Map.Entry<String, AtomicLong> entry : errors.entrySet())
+                result.put(entry.getKey(), entry.getValue().get());
+            return result;
+        }
+
+        @Override
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        @Override
+        public double getMeanNanos() {
+            return latency.getMeanNanos();
+        }
+
+        @Override
+        public long getMaxNanos() {
+            return latency.getMaxNanos();
+        }
+
+        @Override
+        public long getP50Nanos() {
+            return latency.getQuantileNanos(0.5);
+        }
+
+        @Override
+        public long getP99Nanos() {
+            return latency.getQuantileNanos(0.99);
+        }
+
+        @Override
+        public long getP999Nanos() {
+            return latency.getQuantileNanos(0.999);
+        }
+
+        @Override
+        public void reset() {
+            latency.reset();
+            bytes.set(0);
+            errorCount.set(0);
+            errors.clear();
+        }
+
+        private void error(Throwable error) {
+            errorCount.incrementAndGet();
+            String type = error.getClass().getName();
+            AtomicLong count = errors.get(type);
+            if (count == null) {
+                AtomicLong created = new AtomicLong();
+                count = errors.putIfAbsent(type, created);
+                if (count == null)
+                    count = created;
+            }
+            count.incrementAndGet();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%d oprations, %d checs, %d octets, moyenne %.3f ms, p50 %.3f ms, p99 %.3f ms, max %.3f ms",
+                    getCount(), getErrorCount(), getBytes(), getMeanNanos() / 1e6, getP50Nanos() / 1e6,
+                    getP99Nanos() / 1e6, getMaxNanos() / 1e6);
+        }
+    }
+
+    // Le domaine JMX des mesures
+    public static final String JMX_DOMAIN = "ui";
+
+    // Les mesures, indexes par le rang de l'opration
+    private static final OperationMetrics[] METRICS = new OperationMetrics[Operation.values().length];
+    static {
+        for (int i = 0; i < METRICS.length; i++)
+            METRICS[i] = new OperationMetrics();
+    }
+
+    // Les destinations des mesures, remplaces en bloc pour tre parcourues sans verrou
+    private static volatile MetricsSink[] sinks = new MetricsSink[0];
+
+    private static volatile boolean enabled = true;
+
+    private Metrics() {
+    }
+
+    /**
+     * @param operation une opration
+     * @return les mesures de cette opration
+     */
+    public static OperationMetrics get(Operation operation) {
+        return METRICS[operation.ordinal()];
+    }
+
+    /**
+     * Activation ou dsactivation de l'enregistrement des mesures
+     * @param enable <code>true</code> pour enregistrer les mesures
+     */
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enregistrement d'une opration russie
+     * @param operation l'opration mesure
+     * @param startNanos la valeur de {@link System#nanoTime()} au dbut de l'opration
+     * @param bytes le nombre d'octets traits
+     */
+    public static void record(Operation operation, long startNanos, long bytes) {
+        if (!enabled)
+            return;
+        long nanos = System.nanoTime() - startNanos;
+        OperationMetrics metrics = METRICS[operation.ordinal()];
+        metrics.latency.record(nanos);
+        if (bytes > 0)
+            metrics.bytes.addAndGet(bytes);
+        for (MetricsSink sink : sinks)
+            sink.record(operation, nanos, bytes);
+    }
+
+    /**
+     * Enregistrement d'une opration en chec
+     * @param operation l'opration mesure
+     * @param startNanos la valeur de {@link System#nanoTime()} au dbut de l'opration
+     * @param error l'exception ayant interrompu l'opration
+     */
+    public static void error(Operation operation, long startNanos, Throwable error) {
+        if (!enabled)
+            return;
+        long nanos = System.nanoTime() - startNanos;
+        METRICS[operation.ordinal()].error(error);
+        for (MetricsSink sink : sinks)
+            sink.error(operation, nanos, error);
+    }
+
+    /**
+     * Ajout d'une destination des mesures
+     * @param sink la destination
+     */
+    public static synchronized void addSink(MetricsSink sink) {
+        MetricsSink[] current = sinks;
+        MetricsSink[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = sink;
+        sinks = updated;
+    }
+
+    /**
+     * Retrait d'une destination des mesures
+     * @param sink la destination
+     */
+    public static synchronized void removeSink(MetricsSink sink) {
+        MetricsSink[] current = sinks;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == sink) {
+                MetricsSink[] updated = new MetricsSink[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                sinks = updated;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Enregistrement des mesures de chaque opration auprs du serveur JMX de la
+     * plate-forme, sous les noms <code>ui:type=Metrics,operation=...</code>, et
+     * des choix de backend sous le nom <code>ui:type=CryptoBackend</code>
+     * @throws JMException si l'enregistrement choue
+     */
+    public static synchronized void registerMBeans() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (Operation operation : Operation.values()) {
+            ObjectName name = objectName(operation);
+            if (!server.isRegistered(name))
+                server.registerMBean(get(operation), name);
+        }
+        CryptoBackend.registerMBean();
+    }
+
+    /**
+     * Retrait des mesures du serveur JMX de la plate-forme
+     * @throws JMException si le retrait choue
+     */
+    public static synchronized void unregisterMBeans() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (Operation operation : Operation.values()) {
+            ObjectName name = objectName(operation);
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+        }
+        CryptoBackend.unregisterMBean();
+    }
+
+    /**
+     * Enregistrement d'une interface JMX auprs du serveur de la plate-forme
+     * sous le nom <code>ui:type=...,name=...</code>,  la place de celle
+     * enregistre auparavant sous ce nom
+     * @param mbean l'interface JMX
+     * @param type le type de l'objet expos
+     * @param name le nom de l'instance expose
+     * @return le nom JMX de l'interface
+     * @throws JMException si l'enregistrement choue
+     */
+    static ObjectName registerMBean(Object mbean, String type, String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+        synchronized (Metrics.class) {
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+            server.registerMBean(mbean, objectName);
+        }
+        return objectName;
+    }
+
+    /**
+     * Retrait d'une interface JMX enregistre par {@link #registerMBean(Object, String, String)},
+     * sans effet si elle ne l'est plus
+     */
+    static void unregisterMBean(ObjectName objectName) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        synchronized (Metrics.class) {
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+        }
+    }
+
+    /**
+     * @param operation une opration
+     * @return le nom JMX de ses mesures
+     * @throws JMException si le nom est invalide
+     */
+    public static ObjectName objectName(Operation operation) throws JMException {
+        return new ObjectName(JMX_DOMAIN + ":type=Metrics,operation=" + operation.name().toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Remise  zro de toutes les mesures
+     */
+    public static void reset() {
+        for (OperationMetrics metrics : METRICS)
+            metrics.reset();
+    }
+
+    /**
+     * @return un rsum des mesures de toutes les oprations, une ligne par opration,
+     * suivi des backends choisis s'il y en a
+     */
+    public static String summary() {
+        StringBuilder sb = new StringBuilder();
+        for (Operation operation : Operation.values())
+            sb.append(operation).append(" : ").append(get(operation)).append('\n');
+        Map<String, CryptoBackend.Backend> selections = CryptoBackend.getSelections();
+        if (!selections.isEmpty())
+            sb.append("BACKENDS : ").append(selections).append('\n');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,25 @@
+package ui;
+
+/**
+ * Destination des mesures enregistres par {@link Metrics}, par exemple pour les
+ * transmettre  un systme de supervision. Les mthodes sont appeles dans le
+ * thread ayant effectu l'opration : elles doivent tre rapides et ne pas
+ * lever d'exception.
+ */
+public interface MetricsSink {
+    /**
+     * Enregistrement d'une opration russie
+     * @param operation l'opration mesure
+     * @param nanos sa dure en nanosecondes
+     * @param bytes le nombre d'octets traits (0 si l'opration ne traite pas d'octets)
+     */
+    void record(Metrics.Operation operation, long nanos, long bytes);
+
+    /**
+     * Enregistrement d'une opration en chec
+     * @param operation l'opration mesure
+     * @param nanos sa dure en nanosecondes
+     * @param error l'exception ayant interrompu l'opration
+     */
+    void error(Metrics.Operation operation, long nanos, Throwable error);
+}
@@ -0,0 +1,31 @@
+package ui;
+import java.util.Map;
+
+/**
+ * Interface JMX des mesures d'une opration (voir {@link Metrics#registerMBeans()}).
+ * Les dures sont exprimes en nanosecondes.
+ */
+public interface OperationMetricsMXBean {
+    long getCount();
+
+    long getErrorCount();
+
+    /**
+     * @return le nombre d'checs par type d'exception
+     */
+    Map<String, Long> getErrors();
+
+    long getBytes();
+
+    double getMeanNanos();
+
+    long getMaxNanos();
+
+    long getP50Nanos();
+
+    long getP99Nanos();
+
+    long getP999Nanos();
+
+    void reset();
+}
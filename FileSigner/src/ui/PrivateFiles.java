@@ -0,0 +1,77 @@
+package ui;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+
+/**
+ * criture de fichiers lisibles par leur seul propritaire (cls, jetons
+ * d'accs) : le fichier est cr avec ces permissions avant d'tre rempli,
+ * puis renomm  sa place, si bien qu'il n'est jamais expos, mme partiel.
+ */
+final class PrivateFiles {
+
+    private PrivateFiles() {
+    }
+
+    /**
+     * Cration d'un fichier temporaire voisin de file, lisible par son seul propritaire
+     * @param file le fichier que le fichier temporaire remplacera
+     * @return le fichier temporaire, vide
+     * @throws IOException si la cration choue
+     */
+    static File createTempFile(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            Files.setPosixFilePermissions(tmp.toPath(), PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException ex) {
+            // systme de fichiers sans permissions POSIX
+            tmp.setReadable(false, false);
+            tmp.setReadable(true, true);
+            tmp.setWritable(false, false);
+            tmp.setWritable(true, true);
+        }
+        return tmp;
+    }
+
+    /**
+     * criture d'un fichier lisible par son seul propritaire, l'ancien contenu
+     * tant remplac d'un seul coup
+     * @param file le fichier crit
+     * @param content son contenu
+     * @throws IOException si l'criture choue
+     */
+    static void write(File file, byte[] content) throws IOException {
+        File tmp = createTempFile(file);
+        try {
+            Files.write(tmp.toPath(), content);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    /**
+     * Lecture d'une cl secrte, tire au hasard et crite si le fichier n'existe pas
+     * @param file le fichier de la cl
+     * @param length la longueur de la cl
+     * @return la cl
+     * @throws IOException si le fichier existe mais ne contient pas une cl de cette longueur
+     */
+    static byte[] readKey(File file, int length) throws IOException {
+        if (file.isFile()) {
+            byte[] key = Files.readAllBytes(file.toPath());
+            if (key.length != length)
+                throw new IOException("Cl invalide : " + file);
+            return key;
+        }
+        byte[] key = new byte[length];
+        new SecureRandom().nextBytes(key);
+        write(file, key);
+        return key;
+    }
+}
@@ -0,0 +1,214 @@
+package ui;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Manifeste sign d'un ensemble de fichiers : le condensat de chaque fichier
+ * est inscrit dans une liste trie par chemin relatif, et seule cette liste
+ * est signe par ECDSA (voir {@link ManifestSigner}). Un fichier isol peut
+ * ainsi tre vrifi sans relire les autres.
+ * <p>
+ * Le message sign est canonique : les entres (chemin relatif spar par
+ * des '/', taille, condensat) sont tries selon l'ordre naturel des chemins.
+ */
+public final class SignedManifest {
+    // Identification du format
+    private static final int MAGIC = 0x4D4E4654; // "MNFT"
+    private static final int VERSION = 1;
+
+    private final String hashAlgorithm;
+    private final String signatureAlgorithm;
+    // Les entres, tries par chemin
+    private final String[] paths;
+    private final long[] sizes;
+    private final byte[][] digests;
+    private final byte[] signature;
+
+    SignedManifest(String hashAlgorithm, String signatureAlgorithm, String[] paths, long[] sizes,
+            byte[][] digests, byte[] signature) {
+        this.hashAlgorithm = hashAlgorithm;
+        this.signatureAlgorithm = signatureAlgorithm;
+        this.paths = paths;
+        this.sizes = sizes;
+        this.digests = digests;
+        this.signature = signature;
+    }
+
+    public String getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    public String getSignatureAlgorithm() {
+        return signatureAlgorithm;
+    }
+
+    public int getEntryCount() {
+        return paths.length;
+    }
+
+    /**
+     * @return les chemins relatifs des fichiers, dans l'ordre du manifeste
+     */
+    public List<String> getPaths() {
+        return Collections.unmodifiableList(Arrays.asList(paths));
+    }
+
+    /**
+     * Recherche d'une entre
+     * @param path le chemin relatif, spar par des '/'
+     * @return le numro de l'entre, ou une valeur ngative si le chemin est absent
+     */
+    public int indexOf(String path) {
+        int index = Arrays.binarySearch(paths, path);
+        return index < 0 ? -1 : index;
+    }
+
+    public long getSize(int index) {
+        return sizes[index];
+    }
+
+    /**
+     * @param index le numro de l'entre
+     * @return une copie du condensat du fichier
+     */
+    public byte[] getDigest(int index) {
+        return digests[index].clone();
+    }
+
+    byte[] digest(int index) {
+        return digests[index];
+    }
+
+    /**
+     * @return une copie de la signature du manifeste
+     */
+    public byte[] getSignature() {
+        return signature.clone();
+    }
+
+    /**
+     * Construction du message effectivement sign : l'algorithme de condensat et les entres tries
+     * @param paths les chemins, tris et sans doublon
+     */
+    static byte[] toBeSigned(String hashAlgorithm, String[] paths, long[] sizes, byte[][] digests) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeUTF(hashAlgorithm);
+            writeEntries(out, paths, sizes, digests);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException ex) {
+            // impossible sur un flot en mmoire
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * @return le message sign, recalcul  partir des entres du manifeste
+     */
+    byte[] toBeSigned() {
+        return toBeSigned(hashAlgorithm, paths, sizes, digests);
+    }
+
+    private static void writeEntries(DataOutputStream out, String[] paths, long[] sizes, byte[][] digests)
+            throws IOException {
+        out.writeInt(paths.length);
+        out.writeShort(paths.length == 0 ? 0 : digests[0].length);
+        for (int i = 0; i < paths.length; i++) {
+            out.writeUTF(paths[i]);
+            out.writeLong(sizes[i]);
+            out.write(digests[i]);
+        }
+    }
+
+    /**
+     * Srialisation du manifeste
+     * @param os le flot de destination
+     * @throws IOException si l'criture choue
+     */
+    public void writeTo(OutputStream os) throws IOException {
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeUTF(hashAlgorithm);
+        out.writeUTF(signatureAlgorithm);
+        writeEntries(out, paths, sizes, digests);
+        out.writeShort(signature.length);
+        out.write(signature);
+        out.flush();
+    }
+
+    /**
+     * @return le manifeste srialis
+     */
+    public byte[] getEncoded() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            writeTo(bytes);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Dsrialisation d'un manifeste
+     * @param is le flot source
+     * @return le manifeste lu
+     * @throws IOException si la lecture choue ou si le format est invalide
+     */
+    public static SignedManifest readFrom(InputStream is) throws IOException {
+        DataInputStream in = new DataInputStream(is);
+        if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION)
+            throw new IOException("Format de manifeste invalide");
+        String hashAlgorithm = in.readUTF();
+        String signatureAlgorithm = in.readUTF();
+        int count = in.readInt();
+        int hashLength = in.readUnsignedShort();
+        if (count < 0 || (count > 0 && hashLength == 0))
+            throw new IOException("Paramtres du manifeste incohrents");
+        // la taille annonce n'est pas crue : les tableaux croissent avec la lecture
+        String[] paths = new String[Math.min(count, 1024)];
+        long[] sizes = new long[paths.length];
+        byte[][] digests = new byte[paths.length][];
+        for (int i = 0; i < count; i++) {
+            if (i == paths.length) {
+                int capacity = (int)Math.min(count, 2L * paths.length);
+                paths = Arrays.copyOf(paths, capacity);
+                sizes = Arrays.copyOf(sizes, capacity);
+                digests = Arrays.copyOf(digests, capacity);
+            }
+            paths[i] = in.readUTF();
+            sizes[i] = in.readLong();
+            digests[i] = new byte[hashLength];
+            in.readFully(digests[i]);
+            // l'ordre canonique garantit aussi l'absence de doublons
+            if (sizes[i] < 0 || (i > 0 && paths[i - 1].compareTo(paths[i]) >= 0))
+                throw new IOException("Entres du manifeste non tries ou invalides");
+        }
+        byte[] signature = new byte[in.readUnsignedShort()];
+        in.readFully(signature);
+        return new SignedManifest(hashAlgorithm, signatureAlgorithm, paths, sizes, digests, signature);
+    }
+
+    /**
+     * Dsrialisation d'un manifeste
+     * @param encoded le manifeste srialis
+     * @return le manifeste lu
+     * @throws IOException si le format est invalide
+     */
+    public static SignedManifest decode(byte[] encoded) throws IOException {
+        return readFrom(new ByteArrayInputStream(encoded));
+    }
+}
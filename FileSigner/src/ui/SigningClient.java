@@ -0,0 +1,136 @@
+package ui;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.SignatureException;
+import java.security.spec.X509EncodedKeySpec;
+
+/**
+ * Client du service local de signature ({@link SigningService}). Une instance
+ * correspond  une connexion, authentifie par le jeton d'accs du service,
+ * et ne doit tre utilise que par un thread  la fois.
+ */
+public class SigningClient implements Closeable {
+    // Taille des blocs de donnes envoys
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    /**
+     * Connexion au service coutant sur l'interface de bouclage
+     * @param port le port du service
+     * @param token le jeton d'accs du service (voir {@link SigningService#readToken})
+     * @throws IOException si la connexion choue ou si le service refuse le jeton
+     */
+    public SigningClient(int port, byte[] token) throws IOException {
+        this(InetAddress.getLoopbackAddress(), port, token);
+    }
+
+    /**
+     * Connexion  un service
+     * @param address l'adresse du service
+     * @param port le port du service
+     * @param token le jeton d'accs du service (voir {@link SigningService#readToken})
+     * @throws IOException si la connexion choue ou si le service refuse le jeton
+     */
+    public SigningClient(InetAddress address, int port, byte[] token) throws IOException {
+        if (token.length > SigningService.MAX_TOKEN_LENGTH)
+            throw new IllegalArgumentException("Jeton trop long : " + token.length);
+        this.socket = new Socket(address, port);
+        try {
+            this.socket.setTcpNoDelay(true);
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeShort(token.length);
+            out.write(token);
+            response();
+        } catch (GeneralSecurityException ex) {
+            socket.close();
+            throw new IOException("Authentification refuse par le service", ex);
+        } catch (IOException | RuntimeException ex) {
+            socket.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Signature d'un condensat
+     * @param alias l'alias de la cl prive du service
+     * @param digest le condensat (SHA-256 pour une signature vrifiable avec SHA256withECDSA)
+     * @return la signature DER
+     * @throws GeneralSecurityException si le service refuse ou choue la signature
+     * @throws IOException si la communication choue
+     */
+    public byte[] signDigest(String alias, byte[] digest) throws GeneralSecurityException, IOException {
+        if (digest.length > SigningService.MAX_DIGEST_LENGTH)
+            throw new IllegalArgumentException("Condensat trop long : " + digest.length);
+        out.writeByte(SigningService.SIGN_DIGEST);
+        out.writeUTF(alias);
+        out.writeShort(digest.length);
+        out.write(digest);
+        return response();
+    }
+
+    /**
+     * Signature SHA256withECDSA d'un flux de donnes, condens par le service
+     * @param alias l'alias de la cl prive du service
+     * @param data les donnes  signer, lues jusqu' la fin du flux
+     * @return la signature DER
+     * @throws GeneralSecurityException si le service refuse ou choue la signature
+     * @throws IOException si la lecture des donnes ou la communication choue
+     */
+    public byte[] sign(String alias, InputStream data) throws GeneralSecurityException, IOException {
+        out.writeByte(SigningService.SIGN_DATA);
+        out.writeUTF(alias);
+        byte[] chunk = new byte[CHUNK_SIZE];
+        for (int n; (n = data.read(chunk)) >= 0;) {
+            if (n > 0) {
+                out.writeInt(n);
+                out.write(chunk, 0, n);
+            }
+        }
+        out.writeInt(0);
+        return response();
+    }
+
+    /**
+     * Accs  la cl publique d'une cl du service
+     * @param alias l'alias de la cl
+     * @return la cl publique de son certificat
+     * @throws GeneralSecurityException si le certificat est absent ou si la cl ne peut tre dcode
+     * @throws IOException si la communication choue
+     */
+    public PublicKey getPublicKey(String alias) throws GeneralSecurityException, IOException {
+        out.writeByte(SigningService.PUBLIC_KEY);
+        out.writeUTF(alias);
+        return KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(response()));
+    }
+
+    private byte[] response() throws GeneralSecurityException, IOException {
+        out.flush();
+        int status = in.readUnsignedByte();
+        if (status == SigningService.ERROR)
+            throw new SignatureException("Refus du service : " + in.readUTF());
+        if (status != SigningService.OK)
+            throw new IOException("Rponse inconnue : " + status);
+        byte[] result = new byte[in.readUnsignedShort()];
+        in.readFully(result);
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,515 @@
+package ui;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.Console;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Signature continue des fichiers dposs dans des rpertoires surveills.
+ * Les vnements de cration et de modification sont regroups : un fichier
+ * n'est sign que lorsque sa taille et sa date de modification sont restes
+ * identiques pendant le dlai de stabilisation. Les signatures sont calcules
+ * par un nombre born de threads et crites  ct des fichiers, au format
+ * {@link DetachedSignature} (suffixe <code>.sig</code>). Lorsque la file des
+ * signatures  calculer est pleine, le thread de surveillance attend qu'une
+ * place se libre ; les vnements perdus entre-temps par le systme donnent
+ * lieu  un nouveau parcours des rpertoires.
+ */
+public class SigningDaemon implements Closeable {
+    // Extension des fichiers temporaires d'criture des signatures
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /**
+     * Un fichier en attente de stabilisation
+     */
+    private static final class Pending {
+        // Date du premier vnement, point de dpart de la latence de bout en bout
+        private final long firstEventNanos;
+        private long lastChangeNanos;
+        private long size = -1;
+        private long lastModified = -1;
+
+        private Pending(long firstEventNanos) {
+            this.firstEventNanos = firstEventNanos;
+            this.lastChangeNanos = firstEventNanos;
+        }
+    }
+
+    private final ECSigner signer;
+    private final PrivateKey privateKey;
+    private final byte[] keyId;
+    private final long settleNanos;
+
+    private final WatchService watcher;
+    private final Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+
+    // Les fichiers en attente de stabilisation et ceux en cours de signature
+    private final ConcurrentMap<Path, Pending> pending = new ConcurrentHashMap<>();
+    private final Set<Path> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+
+    private final ThreadPoolExecutor executor;
+    private final Thread watchThread;
+    private volatile boolean closed;
+
+    // Les mtriques du dmon
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong signed = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong rescans = new AtomicLong();
+    private final AtomicLong backpressureNanos = new AtomicLong();
+    private volatile Exception lastError;
+
+    private final SigningQueueMXBean mbean = new SigningQueueMXBean() {
+        @Override
+        public int getQueueDepth() {
+            return executor.getQueue().size();
+        }
+
+        @Override
+        public int getInFlightCount() {
+            return inFlight.size();
+        }
+
+        @Override
+        public long getCompletedCount() {
+            return latency.getCount();
+        }
+
+        @Override
+        public long getFailureCount() {
+            return failures.get();
+        }
+
+        @Override
+        public double getMeanNanos() {
+            return latency.getMeanNanos();
+        }
+
+        @Override
+        public long getMaxNanos() {
+            return latency.getMaxNanos();
+        }
+
+        @Override
+        public long getP50Nanos() {
+            return latency.getQuantileNanos(0.5);
+        }
+
+        @Override
+        public long getP99Nanos() {
+            return latency.getQuantileNanos(0.99);
+        }
+
+        @Override
+        public long getP999Nanos() {
+            return latency.getQuantileNanos(0.999);
+        }
+    };
+
+    // Le nom JMX de l'interface enregistre par registerMBean, ou null
+    private volatile ObjectName mbeanName;
+
+    /**
+     * Construction d'un dmon de signature
+     * @param signer l'objet signant
+     * @param privateKey la cl prive de signature
+     * @param keyId l'identifiant de la cl inscrit dans les signatures (voir {@link DetachedSignature#keyId})
+     * @param workers le nombre de threads de signature
+     * @param queueCapacity la capacit de la file des signatures  calculer
+     * @param settleMillis le dlai pendant lequel un fichier doit rester inchang avant d'tre sign
+     * @throws IOException si le service de surveillance ne peut tre cr
+     */
+    public SigningDaemon(ECSigner signer, PrivateKey privateKey, byte[] keyId, int workers,
+            int queueCapacity, final long settleMillis) throws IOException {
+        if (workers < 1 || queueCapacity < 1 || settleMillis < 0)
+            throw new IllegalArgumentException("Paramtres du dmon invalides");
+        this.signer = signer;
+        this.privateKey = privateKey;
+        this.keyId = keyId;
+        this.settleNanos = settleMillis * 1000000L;
+        this.watcher = FileSystems.getDefault().newWatchService();
+        this.executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new DaemonThreadFactory("signing-daemon"),
+                new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                // contre-pression : le thread de surveillance attend une place dans la file
+                if (executor.isShutdown())
+                    throw new RejectedExecutionException("Dmon arrt");
+                long start = System.nanoTime();
+                try {
+                    executor.getQueue().put(r);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException(ex);
+                } finally {
+                    backpressureNanos.addAndGet(System.nanoTime() - start);
+                }
+            }
+        });
+        this.watchThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watchLoop(Math.max(10, settleMillis / 4));
+            }
+        }, "signing-daemon-watcher");
+        this.watchThread.setDaemon(true);
+    }
+
+    /**
+     * Surveillance d'un rpertoire et de ses sous-rpertoires ; les fichiers
+     * dj prsents sans signature  jour sont signs
+     * @param dir le rpertoire  surveiller
+     * @throws IOException si le rpertoire ne peut tre surveill
+     */
+    public void watch(File dir) throws IOException {
+        register(dir.toPath(), true);
+    }
+
+    /**
+     * Dmarrage de la surveillance
+     */
+    public void start() {
+        watchThread.start();
+    }
+
+    private void register(Path root, final boolean scan) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!directories.containsValue(dir)) {
+                    WatchKey key = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY);
+                    directories.put(key, dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (scan && attrs.isRegularFile() && needsSignature(file, attrs))
+                    changed(file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static boolean isSignable(Path file) {
+        String name = file.getFileName().toString();
+        return !name.endsWith(DetachedSignature.SUFFIX) && !name.endsWith(TMP_SUFFIX);
+    }
+
+    /**
+     * Un fichier doit tre sign si sa signature est absente ou plus ancienne que lui
+     */
+    private static boolean needsSignature(Path file, BasicFileAttributes attrs) throws IOException {
+        if (!isSignable(file))
+            return false;
+        Path sig = signatureFile(file);
+        return !Files.exists(sig)
+                || Files.getLastModifiedTime(sig).compareTo(attrs.lastModifiedTime()) < 0;
+    }
+
+    private static Path signatureFile(Path file) {
+        return file.resolveSibling(file.getFileName() + DetachedSignature.SUFFIX);
+    }
+
+    private void changed(Path file) {
+        long now = System.nanoTime();
+        Pending p = pending.get(file);
+        if (p == null) {
+            Pending created = new Pending(now);
+            p = pending.putIfAbsent(file, created);
+            if (p == null)
+                return;
+        }
+        synchronized (p) {
+            p.lastChangeNanos = now;
+        }
+    }
+
+    private void watchLoop(long tickMillis) {
+        try {
+            while (!closed) {
+                WatchKey key = watcher.poll(tickMillis, TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    processEvents(key);
+                    key = watcher.poll();
+                }
+                submitStableFiles();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ex) {
+            // arrt du dmon
+        }
+    }
+
+    private void processEvents(WatchKey key) {
+        Path dir = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // des vnements ont t perdus : les rpertoires sont de nouveau parcourus
+                rescans.incrementAndGet();
+                for (Path watched : directories.values())
+                    registerQuietly(watched, true);
+                continue;
+            }
+            if (dir == null)
+                continue;
+            Path path = dir.resolve((Path)event.context());
+            if (Files.isDirectory(path)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE)
+                    registerQuietly(path, true);
+            } else if (isSignable(path)) {
+                changed(path);
+            }
+        }
+        if (!key.reset())
+            directories.remove(key);
+    }
+
+    private void registerQuietly(Path dir, boolean scan) {
+        try {
+            register(dir, scan);
+        } catch (IOException ex) {
+            lastError = ex;
+        }
+    }
+
+    /**
+     * Soumission des fichiers rests inchangs pendant le dlai de stabilisation
+     */
+    private void submitStableFiles() {
+        long now = System.nanoTime();
+        for (Iterator<Map.Entry<Path, Pending>> it = pending.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Path, Pending> entry = it.next();
+            final Path file = entry.getKey();
+            final Pending p = entry.getValue();
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (IOException ex) {
+                // fichier supprim entre-temps
+                it.remove();
+                continue;
+            }
+            final long size = attrs.size();
+            final long lastModified = attrs.lastModifiedTime().toMillis();
+            synchronized (p) {
+                if (size != p.size || lastModified != p.lastModified) {
+                    p.size = size;
+                    p.lastModified = lastModified;
+                    p.lastChangeNanos = now;
+                }
+                if (now - p.lastChangeNanos < settleNanos || inFlight.contains(file))
+                    continue;
+            }
+            it.remove();
+            inFlight.add(file);
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        sign(file, p, size, lastModified);
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                inFlight.remove(file);
+                return;
+            }
+        }
+    }
+
+    private void sign(Path file, Pending p, long size, long lastModified) {
+        try {
+            DetachedSignature signature = signer.signDetached(file.toFile(), privateKey, keyId);
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            if (attrs.size() != size || attrs.lastModifiedTime().toMillis() != lastModified) {
+                // le fichier a chang pendant la signature : il attend une nouvelle stabilisation
+                pending.putIfAbsent(file, p);
+                return;
+            }
+            Path sig = signatureFile(file);
+            Path tmp = sig.resolveSibling(sig.getFileName() + TMP_SUFFIX);
+            signature.writeTo(tmp.toFile());
+            Files.move(tmp, sig, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            signed.incrementAndGet();
+            latency.record(System.nanoTime() - p.firstEventNanos);
+        } catch (GeneralSecurityException | IOException | RuntimeException ex) {
+            failures.incrementAndGet();
+            lastError = ex;
+        } finally {
+            inFlight.remove(file);
+        }
+    }
+
+    /**
+     * Enregistrement auprs du serveur JMX de la plate-forme, sous le nom
+     * <code>ui:type=SigningDaemon,name=...</code>, de la profondeur de la file,
+     * du nombre de signatures en cours et de leur latence de bout en bout,
+     * depuis le premier vnement du fichier ; l'interface est retire 
+     * l'arrt du dmon
+     * @param name le nom de l'instance
+     * @throws JMException si l'enregistrement choue
+     */
+    public void registerMBean(String name) throws JMException {
+        mbeanName = Metrics.registerMBean(mbean, "SigningDaemon", name);
+    }
+
+    /**
+     * @return le nombre de fichiers en attente de stabilisation
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return le nombre de signatures en attente d'un thread de signature
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return le nombre de signatures en cours de calcul ou en file
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * @return l'histogramme des dures entre le premier vnement d'un fichier et l'criture de sa signature
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getSigned() {
+        return signed.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return le nombre de parcours complets provoqus par des pertes d'vnements
+     */
+    public long getRescans() {
+        return rescans.get();
+    }
+
+    /**
+     * @return le temps cumul pass par le thread de surveillance  attendre une place dans la file, en nanosecondes
+     */
+    public long getBackpressureNanos() {
+        return backpressureNanos.get();
+    }
+
+    /**
+     * @return la dernire erreur rencontre, ou null
+     */
+    public Exception getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Arrt de la surveillance ; les signatures dj soumises sont termines
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        ObjectName name = mbeanName;
+        if (name != null) {
+            try {
+                Metrics.unregisterMBean(name);
+            } catch (JMException ex) {
+                // le serveur JMX ne connat dj plus l'interface
+            }
+        }
+        watchThread.interrupt();
+        watcher.close();
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Lancement du dmon sur les rpertoires donns, la cl tant lue dans un keystore.
+     * Usage : SigningDaemon type keystore alias rpertoire...
+     * Les mots de passe du keystore et de la cl sont lus sur la console ou l'entre standard.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.err.println("Usage : SigningDaemon type keystore alias rpertoire...");
+            System.exit(2);
+        }
+        char[] storepass = readPassword("Mot de passe du keystore : ");
+        char[] keypass = readPassword("Mot de passe de la cl : ");
+        KeyStoreTools kst = new KeyStoreTools(args[0], new File(args[1]), storepass);
+        PrivateKey key = kst.getPrivateKey(args[2], keypass);
+        if (key == null)
+            throw new GeneralSecurityException("Cl prive absente : " + args[2]);
+        Certificate cert = kst.getCertificate(args[2]);
+        byte[] keyId = cert == null ? new byte[0] : DetachedSignature.keyId(cert.getPublicKey());
+        int workers = Runtime.getRuntime().availableProcessors();
+        final SigningDaemon daemon = new SigningDaemon(new ECSigner("SHA256withECDSA"), key, keyId,
+                workers, workers * 16, 1000);
+        for (int i = 3; i < args.length; i++)
+            daemon.watch(new File(args[i]));
+        daemon.registerMBean(args[2]);
+        daemon.start();
+        while (true) {
+            Thread.sleep(10000);
+            System.out.printf("%d signs, %d checs, %d en attente, file %d, latence p50 %.1f ms, p99 %.1f ms%n",
+                    daemon.getSigned(), daemon.getFailures(), daemon.getPendingCount(), daemon.getQueueDepth(),
+                    daemon.getLatency().getQuantileNanos(0.5) / 1e6, daemon.getLatency().getQuantileNanos(0.99) / 1e6);
+        }
+    }
+
+    private static BufferedReader stdin;
+
+    static char[] readPassword(String prompt) throws IOException {
+        Console console = System.console();
+        if (console != null)
+            return console.readPassword(prompt);
+        if (stdin == null)
+            stdin = new BufferedReader(new InputStreamReader(System.in));
+        String line = stdin.readLine();
+        return line == null ? new char[0] : line.toCharArray();
+    }
+}
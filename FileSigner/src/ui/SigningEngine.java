@@ -0,0 +1,163 @@
+package ui;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Moteur de signature concurrent : la signature et la vrification des fichiers
+ * sont rparties sur un pool de threads partageant une mme instance de {@link ECSigner}
+ */
+public class SigningEngine implements Closeable {
+    // L'objet signant partag (il gre un objet Signature par thread)
+    private final ECSigner signer;
+
+    // Le pool de threads excutant les calculs
+    private final ExecutorService executor;
+
+    // Le nombre de threads du pool
+    private final int parallelism;
+
+    /**
+     * Construction d'une instance utilisant un thread par processeur disponible
+     * @param algorithm l'algorithme de signature
+     * @throws GeneralSecurityException si la construction de l'objet signant choue
+     */
+    public SigningEngine(String algorithm) throws GeneralSecurityException {
+        this(algorithm, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Construction d'une instance de la classe
+     * @param algorithm l'algorithme de signature
+     * @param threads le nombre de threads du pool
+     * @throws GeneralSecurityException si la construction de l'objet signant choue
+     */
+    public SigningEngine(String algorithm, int threads) throws GeneralSecurityException {
+        if (threads < 1)
+            throw new IllegalArgumentException("Nombre de threads invalide : " + threads);
+        this.signer = new ECSigner(algorithm);
+        this.parallelism = threads;
+        this.executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("signing-engine"));
+    }
+
+    /**
+     * Accs au nombre de threads du moteur
+     * @return le nombre de threads du pool
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Soumission asynchrone de la signature d'un fichier
+     * @param file le fichier  signer
+     * @param privateKey la cl prive de signature
+     * @return la signature  venir, encode en base64
+     */
+    public Future<String> submitSign(final File file, final PrivateKey privateKey) {
+        return executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws GeneralSecurityException, IOException {
+                return signer.signFile(file, privateKey);
+            }
+        });
+    }
+
+    /**
+     * Soumission asynchrone de la vrification de la signature d'un fichier
+     * @param file le fichier  vrifier
+     * @param publicKey la cl publique de vrification
+     * @param tagB64 l'encodage en Base64 de la signature  vrifier
+     * @return le rsultat  venir de la vrification
+     */
+    public Future<Boolean> submitVerify(final File file, final PublicKey publicKey, final String tagB64) {
+        return executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws GeneralSecurityException, IOException {
+                return signer.verifyFile(file, publicKey, tagB64);
+            }
+        });
+    }
+
+    /**
+     * Signature en parallle d'une liste de fichiers
+     * @param files les fichiers  signer
+     * @param privateKey la cl prive de signature
+     * @return les signatures encodes en base64, dans l'ordre des fichiers
+     * @throws GeneralSecurityException si le calcul d'une signature choue
+     * @throws IOException si la lecture d'un fichier choue
+     * @throws InterruptedException si l'attente des rsultats est interrompue
+     */
+    public List<String> signAll(List<File> files, PrivateKey privateKey)
+            throws GeneralSecurityException, IOException, InterruptedException {
+        List<Future<String>> futures = new ArrayList<>(files.size());
+        for (File file : files)
+            futures.add(submitSign(file, privateKey));
+        List<String> tags = new ArrayList<>(files.size());
+        for (Future<String> future : futures)
+            tags.add(get(future));
+        return tags;
+    }
+
+    /**
+     * Vrification en parallle des signatures d'une liste de fichiers
+     * @param files les fichiers  vrifier
+     * @param publicKey la cl publique de vrification
+     * @param tagsB64 les signatures encodes en base64, dans l'ordre des fichiers
+     * @return les rsultats des vrifications, dans l'ordre des fichiers
+     * @throws GeneralSecurityException si une vrification choue
+     * @throws IOException si la lecture d'un fichier choue
+     * @throws InterruptedException si l'attente des rsultats est interrompue
+     */
+    public List<Boolean> verifyAll(List<File> files, PublicKey publicKey, List<String> tagsB64)
+            throws GeneralSecurityException, IOException, InterruptedException {
+        if (files.size() != tagsB64.size())
+            throw new IllegalArgumentException("Autant de signatures que de fichiers sont attendues");
+        List<Future<Boolean>> futures = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++)
+            futures.add(submitVerify(files.get(i), publicKey, tagsB64.get(i)));
+        List<Boolean> results = new ArrayList<>(files.size());
+        for (Future<Boolean> future : futures)
+            results.add(get(future));
+        return results;
+    }
+
+    /**
+     * Attente d'un rsultat en restituant l'exception d'origine en cas d'chec
+     */
+    private static <T> T get(Future<T> future)
+            throws GeneralSecurityException, IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof GeneralSecurityException)
+                throw (GeneralSecurityException)cause;
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if (cause instanceof Error)
+                throw (Error)cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Arrt du moteur : les calculs dj soumis sont mens  terme
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
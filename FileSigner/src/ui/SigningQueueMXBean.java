@@ -0,0 +1,32 @@
+package ui;
+
+/**
+ * Interface JMX d'un service de signature  file d'attente (voir
+ * {@link SigningDaemon#registerMBean} et {@link SigningService#registerMBean}).
+ * Les dures, de bout en bout, sont exprimes en nanosecondes.
+ */
+public interface SigningQueueMXBean {
+    /**
+     * @return le nombre de signatures en attente d'un thread de signature
+     */
+    int getQueueDepth();
+
+    /**
+     * @return le nombre de signatures reues dont le rsultat n'est pas encore rendu
+     */
+    int getInFlightCount();
+
+    long getCompletedCount();
+
+    long getFailureCount();
+
+    double getMeanNanos();
+
+    long getMaxNanos();
+
+    long getP50Nanos();
+
+    long getP99Nanos();
+
+    long getP999Nanos();
+}
@@ -0,0 +1,735 @@
+package ui;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.cert.Certificate;
+import java.security.interfaces.ECPrivateKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Service local de signature : les cls prives restent dans le processus du
+ * service et les clients, connects sur l'interface de bouclage, envoient des
+ * condensats ou des donnes et reoivent les signatures ECDSA.
+ * <p>
+ * Exposition : tout processus de la machine peut se connecter  l'interface
+ * de bouclage, et le service signe des condensats bruts avec toutes les cls
+ * du keystore. Chaque connexion doit donc d'abord prsenter le jeton d'accs
+ * du service (voir {@link #createToken}), conserv dans un fichier lisible par
+ * son seul propritaire ; dtenir ce jeton revient  pouvoir signer n'importe
+ * quel message avec ces cls, et il doit tre protg comme leur mot de passe.
+ * La longueur d'un condensat doit en outre tre celle d'un SHA-1 ou SHA-2 ne
+ * dpassant pas l'ordre de la courbe, afin qu'aucun autre message ne soit
+ * tronqu puis sign.
+ * <p>
+ * Authentification : la longueur du jeton (2 octets) et le jeton, auxquels le
+ * service rpond par {@link #OK} suivi d'une longueur nulle, ou par
+ * {@link #ERROR} suivi du message d'erreur avant de fermer la connexion.
+ * <p>
+ * Protocole (une connexion authentifie peut enchaner les requtes) : un octet de code
+ * suivi de l'alias de la cl (format {@link DataOutputStream#writeUTF}), puis
+ * <ul>
+ * <li>{@link #SIGN_DIGEST} : la longueur du condensat (2 octets) et le condensat ;</li>
+ * <li>{@link #SIGN_DATA} : les donnes en blocs prcds de leur longueur
+ * (4 octets), termines par un bloc vide ; le service en calcule le SHA-256 ;</li>
+ * <li>{@link #PUBLIC_KEY} : rien.</li>
+ * </ul>
+ * La rponse est un octet d'tat : {@link #OK} suivi de la longueur (2 octets)
+ * et du rsultat (signature DER ou cl publique X.509), ou {@link #ERROR} suivi
+ * du message d'erreur. La signature d'un condensat SHA-256 se vrifie avec
+ * l'algorithme SHA256withECDSA sur les donnes d'origine.
+ * <p>
+ * Les requtes d'une mme cl sont regroupes : chaque tche de signature
+ * prend les requtes en attente d'une cl par lots d'au plus {@link #MAX_BATCH},
+ * avec l'objet signant que son thread a initialis une fois pour cette cl.
+ * Plusieurs tches, au plus une par thread de signature, servent une mme
+ * cl  la fois : une cl trs sollicite occupe tous les processeurs.
+ */
+public class SigningService implements Closeable {
+    // Codes des requtes
+    public static final int SIGN_DIGEST = 1;
+    public static final int SIGN_DATA = 2;
+    public static final int PUBLIC_KEY = 3;
+
+    // tats des rponses
+    public static final int OK = 0;
+    public static final int ERROR = 1;
+
+    // Nombre maximal de requtes signes par un mme lot
+    public static final int MAX_BATCH = 64;
+
+    // Longueur maximale d'un condensat ou d'un bloc de donnes
+    static final int MAX_DIGEST_LENGTH = 64;
+    static final int MAX_CHUNK_LENGTH = 1 << 20;
+
+    // Longueur des jetons d'accs crs par createToken, et longueur maximale accepte
+    public static final int TOKEN_LENGTH = 32;
+    static final int MAX_TOKEN_LENGTH = 256;
+
+    // Dlai accord  un client pour s'authentifier
+    private static final int AUTHENTICATION_TIMEOUT = 10000;
+
+    // Longueurs des condensats SHA-1, SHA-224, SHA-256, SHA-384 et SHA-512
+    private static final int[] DIGEST_LENGTHS = { 20, 28, 32, 48, 64 };
+
+    /**
+     * Une demande de signature en attente de son lot
+     */
+    private static final class Request {
+        private final byte[] digest;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private byte[] signature;
+        private Exception error;
+
+        private Request(byte[] digest) {
+            this.digest = digest;
+        }
+
+        private byte[] await() throws GeneralSecurityException, InterruptedException {
+            done.await();
+            if (error instanceof GeneralSecurityException)
+                throw (GeneralSecurityException)error;
+            if (error != null)
+                throw new GeneralSecurityException(error);
+            return signature;
+        }
+    }
+
+    /**
+     * L'objet signant d'un thread pour une cl, et la cl qui l'a initialis
+     */
+    private static final class Slot {
+        private PrivateKey key;
+        private Signature signature;
+        // la longueur en octets de l'ordre de la courbe de la cl
+        private int orderLength;
+    }
+
+    /**
+     * Les requtes en attente d'une cl et les objets signants qui lui sont ddis
+     */
+    private static final class Lane {
+        private final String alias;
+        private final ConcurrentLinkedQueue<Request> queue = new ConcurrentLinkedQueue<>();
+        // le nombre de tches de signature de la cl programmes ou en cours
+        private final AtomicInteger drains = new AtomicInteger();
+        // l'objet signant de chaque thread de signature pour cette cl
+        private final ThreadLocal<Slot> slots = new ThreadLocal<Slot>() {
+            @Override
+            protected Slot initialValue() {
+                return new Slot();
+            }
+        };
+
+        private Lane(String alias) {
+            this.alias = alias;
+        }
+    }
+
+    private final KeyStoreTools keyStore;
+    private final char[] keyPassword;
+    private final byte[] token;
+    private final ServerSocket server;
+    private final ThreadPoolExecutor connections;
+    private final ExecutorService signers;
+    // Le nombre de threads de signature, et donc de tches simultanes par cl
+    private final int parallelism;
+    private final Thread acceptThread;
+    private final ConcurrentMap<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final Set<Socket> sockets = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+    private volatile boolean closed;
+
+    // Les mtriques du service
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+    private final AtomicLong unauthorized = new AtomicLong();
+    private final AtomicInteger largestBatch = new AtomicInteger();
+    // Les demandes en attente d'une tche de signature, et celles sans rponse
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final SigningQueueMXBean mbean = new SigningQueueMXBean() {
+        @Override
+        public int getQueueDepth() {
+            return queued.get();
+        }
+
+        @Override
+        public int getInFlightCount() {
+            return inFlight.get();
+        }
+
+        @Override
+        public long getCompletedCount() {
+            return latency.getCount();
+        }
+
+        @Override
+        public long getFailureCount() {
+            return failures.get();
+        }
+
+        @Override
+        public double getMeanNanos() {
+            return latency.getMeanNanos();
+        }
+
+        @Override
+        public long getMaxNanos() {
+            return latency.getMaxNanos();
+        }
+
+        @Override
+        public long getP50Nanos() {
+            return latency.getQuantileNanos(0.5);
+        }
+
+        @Override
+        public long getP99Nanos() {
+            return latency.getQuantileNanos(0.99);
+        }
+
+        @Override
+        public long getP999Nanos() {
+            return latency.getQuantileNanos(0.999);
+        }
+    };
+
+    // Le nom JMX de l'interface enregistre par registerMBean, ou null
+    private volatile ObjectName mbeanName;
+
+    /**
+     * Construction d'un service coutant sur l'interface de bouclage
+     * @param keyStore le keystore contenant les cls prives
+     * @param keyPassword le mot de passe des cls prives
+     * @param token le jeton d'accs que chaque connexion doit prsenter
+     * @param port le port d'coute (0 pour un port libre, voir {@link #getPort})
+     * @param maxConnections le nombre maximal de connexions simultanes
+     * @throws IOException si le port ne peut tre ouvert
+     */
+    public SigningService(KeyStoreTools keyStore, char[] keyPassword, byte[] token, int port, int maxConnections)
+            throws IOException {
+        if (maxConnections < 1)
+            throw new IllegalArgumentException("Nombre de connexions invalide : " + maxConnections);
+        if (token.length == 0 || token.length > MAX_TOKEN_LENGTH)
+            throw new IllegalArgumentException("Longueur de jeton invalide : " + token.length);
+        this.keyStore = keyStore;
+        this.keyPassword = keyPassword;
+        this.token = token.clone();
+        this.server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        // un thread par connexion, cr  la demande et libr aprs une minute d'inactivit
+        this.connections = new ThreadPoolExecutor(0, maxConnections, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new DaemonThreadFactory("signing-service"));
+        this.parallelism = Math.max(1, Runtime.getRuntime().availableProcessors());
+        this.signers = Executors.newFixedThreadPool(parallelism, new DaemonThreadFactory("signing-service-signer"));
+        this.acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "signing-service-accept");
+        this.acceptThread.setDaemon(true);
+    }
+
+    /**
+     * Dmarrage de l'acceptation des connexions
+     */
+    public void start() {
+        acceptThread.start();
+    }
+
+    /**
+     * Cration d'un jeton d'accs alatoire, crit dans un fichier lisible par
+     * son seul propritaire
+     * @param file le fichier du jeton, remplac s'il existe
+     * @return le jeton
+     * @throws IOException si l'criture choue
+     */
+    public static byte[] createToken(File file) throws IOException {
+        byte[] token = new byte[TOKEN_LENGTH];
+        new SecureRandom().nextBytes(token);
+        PrivateFiles.write(file, token);
+        return token;
+    }
+
+    /**
+     * Lecture d'un jeton d'accs crit par {@link #createToken}
+     * @param file le fichier du jeton
+     * @return le jeton
+     * @throws IOException si la lecture choue ou si le fichier n'est pas un jeton
+     */
+    public static byte[] readToken(File file) throws IOException {
+        if (file.length() == 0 || file.length() > MAX_TOKEN_LENGTH)
+            throw new IOException("Fichier de jeton invalide : " + file);
+        return Files.readAllBytes(file.toPath());
+    }
+
+    /**
+     * Enregistrement auprs du serveur JMX de la plate-forme, sous le nom
+     * <code>ui:type=SigningService,name=...</code>, de la profondeur de la file,
+     * du nombre de signatures en cours et de leur latence de bout en bout,
+     * depuis la lecture de la requte ; l'interface est retire  l'arrt
+     * du service
+     * @param name le nom de l'instance
+     * @throws JMException si l'enregistrement choue
+     */
+    public void registerMBean(String name) throws JMException {
+        mbeanName = Metrics.registerMBean(mbean, "SigningService", name);
+    }
+
+    /**
+     * @return le port d'coute du service
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException ex) {
+                if (!closed)
+                    failures.incrementAndGet();
+                continue;
+            }
+            try {
+                connections.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                // trop de connexions simultanes : le client est dconnect
+                refused.incrementAndGet();
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        sockets.add(socket);
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            if (!authenticate(socket, in, out))
+                return;
+            while (!closed) {
+                int code = in.read();
+                if (code < 0)
+                    break;
+                handle(code, in, out);
+                out.flush();
+            }
+        } catch (EOFException | SocketException ex) {
+            // dconnexion du client ou arrt du service
+        } catch (IOException ex) {
+            failures.incrementAndGet();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            sockets.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Lecture et contrle du jeton d'accs, premier message de toute connexion
+     * @return <code>true</code> si le client est authentifi
+     */
+    private boolean authenticate(Socket socket, DataInputStream in, DataOutputStream out) throws IOException {
+        socket.setSoTimeout(AUTHENTICATION_TIMEOUT);
+        int length = in.readUnsignedShort();
+        boolean valid = false;
+        if (length <= MAX_TOKEN_LENGTH) {
+            byte[] presented = new byte[length];
+            in.readFully(presented);
+            valid = MessageDigest.isEqual(presented, token);
+        }
+        if (!valid) {
+            unauthorized.incrementAndGet();
+            out.writeByte(ERROR);
+            out.writeUTF("Jeton d'accs invalide");
+            out.flush();
+            return false;
+        }
+        socket.setSoTimeout(0);
+        out.writeByte(OK);
+        out.writeShort(0);
+        out.flush();
+        return true;
+    }
+
+    private void handle(int code, DataInputStream in, DataOutputStream out)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        String alias = in.readUTF();
+        byte[] result;
+        long bytes = 0;
+        try {
+            switch (code) {
+            case SIGN_DIGEST:
+                int length = in.readUnsignedShort();
+                if (length > MAX_DIGEST_LENGTH)
+                    throw new IOException("Condensat trop long : " + length);
+                byte[] digest = new byte[length];
+                in.readFully(digest);
+                result = sign(alias, digest);
+                break;
+            case SIGN_DATA:
+                MessageDigest md = MessageDigest.getInstance("SHA-256");
+                byte[] chunk = new byte[8192];
+                for (int n; (n = in.readInt()) != 0;) {
+                    if (n < 0 || n > MAX_CHUNK_LENGTH)
+                        throw new IOException("Bloc de donnes invalide : " + n);
+                    bytes += n;
+                    while (n > 0) {
+                        int r = Math.min(n, chunk.length);
+                        in.readFully(chunk, 0, r);
+                        md.update(chunk, 0, r);
+                        n -= r;
+                    }
+                }
+                result = sign(alias, md.digest());
+                break;
+            case PUBLIC_KEY:
+                Certificate cert = keyStore.getCertificate(alias);
+                if (cert == null)
+                    throw new KeyStoreException("Certificat absent : " + alias);
+                result = cert.getPublicKey().getEncoded();
+                break;
+            default:
+                // la suite du flux ne peut plus tre interprte
+                throw new IOException("Requte inconnue : " + code);
+            }
+        } catch (GeneralSecurityException ex) {
+            failures.incrementAndGet();
+            if (code != PUBLIC_KEY)
+                Metrics.error(Metrics.Operation.SIGN, start, ex);
+            out.writeByte(ERROR);
+            out.writeUTF(String.valueOf(ex.getMessage()));
+            return;
+        }
+        out.writeByte(OK);
+        out.writeShort(result.length);
+        out.write(result);
+        if (code != PUBLIC_KEY) {
+            latency.record(System.nanoTime() - start);
+            Metrics.record(Metrics.Operation.SIGN, start, bytes);
+        }
+    }
+
+    /**
+     * Signature d'un condensat avec la cl nomme alias, regroupe avec les
+     * autres demandes en attente pour cette cl
+     * @param alias l'alias de la cl prive
+     * @param digest le condensat  signer
+     * @return la signature DER
+     * @throws GeneralSecurityException si la cl est absente ou si la signature choue
+     * @throws InterruptedException si l'attente du rsultat est interrompue
+     */
+    public byte[] sign(String alias, byte[] digest) throws GeneralSecurityException, InterruptedException {
+        requests.incrementAndGet();
+        inFlight.incrementAndGet();
+        try {
+            Lane lane = lanes.get(alias);
+            if (lane == null) {
+                Lane created = new Lane(alias);
+                lane = lanes.putIfAbsent(alias, created);
+                if (lane == null)
+                    lane = created;
+            }
+            Request request = new Request(digest);
+            queued.incrementAndGet();
+            lane.queue.add(request);
+            schedule(lane);
+            return request.await();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Programmation d'une tche de signature de la cl, sauf si toutes les
+     * tches qu'elle peut occuper sont dj programmes
+     */
+    private void schedule(final Lane lane) {
+        int drains;
+        do {
+            drains = lane.drains.get();
+            if (drains >= parallelism)
+                return;
+        } while (!lane.drains.compareAndSet(drains, drains + 1));
+        try {
+            signers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    drain(lane);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            // service arrt : les demandes en attente chouent
+            for (Request r; (r = lane.queue.poll()) != null;) {
+                queued.decrementAndGet();
+                complete(r, null, new GeneralSecurityException("Service arrt"));
+            }
+            lane.drains.decrementAndGet();
+        }
+    }
+
+    /**
+     * Signature d'un lot de demandes en attente ; la tche est reprogramme s'il
+     * en reste, ce qui laisse les autres cls tre servies entre deux lots
+     */
+    private void drain(Lane lane) {
+        try {
+            List<Request> batch = new ArrayList<>();
+            for (Request r; batch.size() < MAX_BATCH && (r = lane.queue.poll()) != null;) {
+                queued.decrementAndGet();
+                batch.add(r);
+            }
+            if (!batch.isEmpty()) {
+                batches.incrementAndGet();
+                int largest;
+                while (batch.size() > (largest = largestBatch.get())
+                        && !largestBatch.compareAndSet(largest, batch.size())) {
+                    // un autre lot plus grand a t enregistr entre-temps
+                }
+                signBatch(lane, batch);
+            }
+        } finally {
+            // une demande ajoute quand toutes les tches taient programmes n'en a pas programm
+            lane.drains.decrementAndGet();
+            if (!lane.queue.isEmpty())
+                schedule(lane);
+        }
+    }
+
+    private void signBatch(Lane lane, List<Request> batch) {
+        Slot slot = lane.slots.get();
+        Signature signature;
+        try {
+            // la cl, conserve en cache par le keystore, est relue une fois par lot ;
+            // l'objet signant du thread n'est rinitialis que si elle a chang
+            PrivateKey key = keyStore.getPrivateKey(lane.alias, keyPassword);
+            if (key == null)
+                throw new KeyStoreException("Cl prive absente : " + lane.alias);
+            if (!(key instanceof ECPrivateKey))
+                throw new KeyStoreException("L'entre " + lane.alias + " n'est pas une cl EC");
+            if (key != slot.key || slot.signature == null) {
+                slot.signature = null;
+                slot.signature = ECSigner.digestSignature(key);
+                BigInteger order = ((ECPrivateKey)key).getParams().getOrder();
+                slot.orderLength = (order.bitLength() + 7) / 8;
+                slot.key = key;
+            }
+            signature = slot.signature;
+        } catch (GeneralSecurityException | RuntimeException ex) {
+            for (Request r : batch)
+                complete(r, null, ex);
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            byte[] digest = batch.get(i).digest;
+            if (!validDigestLength(digest.length, slot.orderLength)) {
+                complete(batch.get(i), null, new SignatureException("Longueur de condensat " + digest.length
+                        + " invalide pour la cl " + lane.alias));
+                continue;
+            }
+            try {
+                signature.update(digest);
+                complete(batch.get(i), signature.sign(), null);
+            } catch (GeneralSecurityException | RuntimeException ex) {
+                // l'tat de l'objet signant est incertain : le reste du lot choue
+                // et l'objet sera recr pour le lot suivant
+                slot.signature = null;
+                for (int j = i; j < batch.size(); j++)
+                    complete(batch.get(j), null, ex);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Un condensat est accept s'il a la longueur d'un SHA-1 ou SHA-2 et ne
+     * dpasse pas l'ordre de la courbe, sans quoi il serait tronqu avant signature
+     */
+    private static boolean validDigestLength(int length, int orderLength) {
+        if (length > orderLength)
+            return false;
+        for (int valid : DIGEST_LENGTHS) {
+            if (length == valid)
+                return true;
+        }
+        return false;
+    }
+
+    private static void complete(Request r, byte[] signature, Exception error) {
+        r.signature = signature;
+        r.error = error;
+        r.done.countDown();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            // la connexion est abandonne
+        }
+    }
+
+    /**
+     * @return la dure de traitement des demandes de signature, lecture de la requte comprise
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return le nombre de demandes de signature reues
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return le nombre de lots signs
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * @return la taille du plus grand lot sign
+     */
+    public int getLargestBatch() {
+        return largestBatch.get();
+    }
+
+    /**
+     * @return le nombre de demandes en chec
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return le nombre de connexions refuses faute de thread disponible
+     */
+    public long getRefusedConnections() {
+        return refused.get();
+    }
+
+    /**
+     * @return le nombre de connexions fermes faute de jeton d'accs valide
+     */
+    public long getUnauthorizedConnections() {
+        return unauthorized.get();
+    }
+
+    /**
+     * @return le nombre de connexions ouvertes
+     */
+    public int getConnectionCount() {
+        return sockets.size();
+    }
+
+    /**
+     * Arrt du service : les connexions ouvertes sont fermes
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        ObjectName name = mbeanName;
+        if (name != null) {
+            try {
+                Metrics.unregisterMBean(name);
+            } catch (JMException ex) {
+                // le serveur JMX ne connat dj plus l'interface
+            }
+        }
+        server.close();
+        for (Socket socket : sockets)
+            closeQuietly(socket);
+        connections.shutdown();
+        signers.shutdown();
+        try {
+            connections.awaitTermination(1, TimeUnit.MINUTES);
+            signers.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Lancement du service sur les cls d'un keystore.
+     * Usage : SigningService type keystore port [connexions]
+     * Les mots de passe du keystore et des cls sont lus sur la console ou l'entre standard ;
+     * le jeton d'accs est crit dans le fichier keystore.token, lisible par son seul propritaire.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage : SigningService type keystore port [connexions]");
+            System.exit(2);
+        }
+        char[] storepass = SigningDaemon.readPassword("Mot de passe du keystore : ");
+        char[] keypass = SigningDaemon.readPassword("Mot de passe des cls : ");
+        KeyStoreTools kst = new KeyStoreTools(args[0], new File(args[1]), storepass);
+        int maxConnections = args.length > 3 ? Integer.parseInt(args[3]) : 256;
+        File tokenFile = new File(args[1] + ".token");
+        byte[] token = createToken(tokenFile);
+        SigningService service = new SigningService(kst, keypass, token, Integer.parseInt(args[2]), maxConnections);
+        service.registerMBean(String.valueOf(service.getPort()));
+        service.start();
+        System.out.println("Service de signature  l'coute sur le port " + service.getPort()
+                + ", jeton d'accs dans " + tokenFile);
+        while (true) {
+            Thread.sleep(10000);
+            System.out.printf("%d demandes, %d lots (max %d), %d checs, %d connexions, p50 %.2f ms, p99 %.2f ms%n",
+                    service.getRequests(), service.getBatches(), service.getLargestBatch(), service.getFailures(),
+                    service.getConnectionCount(), service.getLatency().getQuantileNanos(0.5) / 1e6,
+                    service.getLatency().getQuantileNanos(0.99) / 1e6);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package ui;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Cache persistant des vrifications russies. Une entre est le HMAC-SHA256 de
+ * l'identit du fichier (chemin canonique, taille, date de modification, date de
+ * changement d'tat et numro d'inode lorsque le systme les fournit), de
+ * l'algorithme, de la signature et de la cl publique : toute modification du
+ * fichier ou de ses mtadonnes produit une autre entre, et le fichier est
+ * alors relu. Seules les vrifications russies sont mmorises.
+ * <p>
+ * Les entres sont conserves dans l'ordre de leur dernier accs et les moins
+ * rcemment utilises sont vinces au-del de la taille maximale. Le fichier
+ * du cache ne contient que les HMAC (32 octets par entre) dans cet ordre.
+ * <p>
+ * La cl du HMAC, propre  chaque installation, est tire au hasard  la
+ * cration du cache et conserve dans un fichier voisin (suffixe .key) lisible
+ * par son seul propritaire, comme le fichier du cache : sans elle, une entre
+ * ne peut tre forge pour faire accepter un fichier non vrifi. Le cache ne
+ * protge donc pas contre le compte propritaire lui-mme, ni contre quiconque
+ * peut lire ce fichier de cl.
+ */
+public class VerificationCache implements Closeable {
+    // Identification du format du fichier
+    private static final int MAGIC = 0x56434348; // "VCCH"
+    private static final int VERSION = 2;
+
+    // Longueur d'une entre et de la cl du HMAC
+    private static final int ENTRY_LENGTH = 32;
+    private static final int KEY_LENGTH = 32;
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    // Dlai en de duquel la date de modification d'un fichier n'est pas juge fiable
+    private static final long RACY_DELAY = 2000;
+
+    // Le fichier du cache
+    private final File store;
+
+    // La cl authentifiant les entres
+    private final SecretKeySpec macKey;
+
+    // Les entres, ordonnes par date d'accs
+    private final LinkedHashMap<ByteBuffer, Boolean> entries;
+
+    private final int maxEntries;
+
+    // Indique que les entres diffrent du fichier
+    private boolean dirty;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Construction d'un cache, charg depuis son fichier s'il existe ; sa cl
+     * est lue dans le fichier store.key, cr s'il n'existe pas
+     * @param store le fichier du cache
+     * @param maxEntries le nombre maximal d'entres
+     * @throws IOException si le fichier ou sa cl existent mais ne peuvent tre lus
+     */
+    public VerificationCache(File store, int maxEntries) throws IOException {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("Taille de cache invalide : " + maxEntries);
+        this.store = store;
+        this.macKey = new SecretKeySpec(PrivateFiles.readKey(new File(store.getPath() + ".key"), KEY_LENGTH),
+                MAC_ALGORITHM);
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<ByteBuffer, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Boolean> eldest) {
+                if (size() > VerificationCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+        if (store.isFile())
+            load();
+    }
+
+    /**
+     * Vrification de la signature brute d'un fichier, sans relecture si une
+     * vrification russie du mme fichier inchang est en cache
+     * @param signer l'objet signant
+     * @param file le fichier  vrifier
+     * @param publicKey la cl publique
+     * @param tag la signature brute
+     * @return <code>true</code> si la signature est correcte et <code>false</code> sinon
+     * @throws GeneralSecurityException si la vrification de la signature choue
+     * @throws IOException si la lecture du fichier choue
+     */
+    public boolean verify(ECSigner signer, File file, PublicKey publicKey, byte[] tag)
+            throws GeneralSecurityException, IOException {
+        return verify(signer, file, publicKey, tag, 0, tag.length);
+    }
+
+    boolean verify(ECSigner signer, File file, PublicKey publicKey, byte[] tag, int offset, int length)
+            throws GeneralSecurityException, IOException {
+        Path path = file.toPath();
+        byte[] before = identity(path);
+        ByteBuffer key = ByteBuffer.wrap(entryKey(before, signer.getAlgorithm(), publicKey, tag, offset, length));
+        synchronized (entries) {
+            if (entries.get(key) != null) {
+                // l'accs a dplac l'entre : l'ordre d'viction du fichier est  rcrire
+                dirty = true;
+                hits.incrementAndGet();
+                return true;
+            }
+        }
+        misses.incrementAndGet();
+        boolean valid = signer.verifyUncached(file, publicKey, tag, offset, length);
+        // le rsultat n'est mmoris que si le fichier n'a pas chang pendant la lecture
+        // et si sa date de modification est assez ancienne pour tre fiable
+        if (valid && !racy(path) && MessageDigest.isEqual(before, identity(path))) {
+            synchronized (entries) {
+                entries.put(key, Boolean.TRUE);
+                dirty = true;
+            }
+        }
+        return valid;
+    }
+
+    private static boolean racy(Path path) throws IOException {
+        return System.currentTimeMillis() - Files.getLastModifiedTime(path).toMillis() < RACY_DELAY;
+    }
+
+    /**
+     * Identit d'un fichier : chemin canonique, taille, dates et cl du systme de fichiers
+     */
+    private static byte[] identity(Path path) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        StringBuilder sb = new StringBuilder();
+        sb.append(path.toRealPath()).append('\0');
+        sb.append(attributes.size()).append('\0');
+        sb.append(attributes.lastModifiedTime().toMillis()).append('\0');
+        sb.append(attributes.fileKey()).append('\0');
+        try {
+            // date de changement d'tat (chmod, restauration de la date de modification...)
+            sb.append(((FileTime)Files.getAttribute(path, "unix:ctime")).toMillis());
+        } catch (UnsupportedOperationException | IllegalArgumentException ex) {
+            // systme de fichiers sans vue unix : la date de cration la remplace
+            sb.append(attributes.creationTime().toMillis());
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] entryKey(byte[] identity, String algorithm, PublicKey publicKey,
+            byte[] tag, int offset, int length) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(macKey);
+            mac.update(identity);
+            mac.update((byte)0);
+            mac.update(algorithm.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte)0);
+            mac.update(MessageDigest.getInstance("SHA-256").digest(publicKey.getEncoded()));
+            mac.update(tag, offset, length);
+            return mac.doFinal();
+        } catch (NoSuchAlgorithmException | InvalidKeyException ex) {
+            // HmacSHA256 et SHA-256 sont toujours disponibles
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Lecture du fichier du cache ; un fichier d'un autre format est ignor
+     */
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(store)))) {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION)
+                return;
+            int count = in.readInt();
+            synchronized (entries) {
+                for (int i = 0; i < count; i++) {
+                    byte[] key = new byte[ENTRY_LENGTH];
+                    in.readFully(key);
+                    entries.put(ByteBuffer.wrap(key), Boolean.TRUE);
+                }
+            }
+        }
+        evictions.set(0);
+    }
+
+    /**
+     * criture du fichier du cache s'il a t modifi, dans un fichier temporaire renomm ensuite
+     * @throws IOException si l'criture choue
+     */
+    public void flush() throws IOException {
+        synchronized (entries) {
+            if (!dirty)
+                return;
+            File tmp = PrivateFiles.createTempFile(store);
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                    out.writeInt(MAGIC);
+                    out.writeByte(VERSION);
+                    out.writeInt(entries.size());
+                    // du moins rcemment utilis au plus rcent : l'ordre est rtabli au chargement
+                    for (ByteBuffer key : entries.keySet())
+                        out.write(key.array());
+                }
+                Files.move(tmp.toPath(), store.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp.toPath());
+            }
+            dirty = false;
+        }
+    }
+
+    /**
+     * Suppression de toutes les entres
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            dirty = true;
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return le nombre de vrifications confirmes sans relecture
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return le nombre de vrifications ayant relu le fichier
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return le nombre d'entres vinces depuis le chargement
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * criture du fichier du cache
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+}